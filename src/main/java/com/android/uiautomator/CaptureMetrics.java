@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import com.android.uiautomator.jfr.CapturePhaseEvent;
+import com.android.uiautomator.jfr.FlightRecorderSupport;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Timings and byte counts of the phases of a single device capture.
+ *
+ * Filled in by {@link UiAutomatorHelper#takeSnapshot} and recorded into
+ * {@link CaptureMetricsHistory} once the capture completes.
+ */
+public class CaptureMetrics {
+
+    public enum Phase {
+        SETTLE("settle"),
+        DELETE_STALE("rm"),
+        DUMP("dump"),
+        PULL("pull"),
+        PARSE("parse"),
+        SCREENSHOT("screenshot"),
+        ENCODE("encode");
+
+        private final String mLabel;
+
+        Phase(String label) {
+            mLabel = label;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    private final String mSerial;
+    private final long mTimestamp = System.currentTimeMillis();
+    private final long[] mNanos = new long[Phase.values().length];
+    private final long[] mBytes = new long[Phase.values().length];
+
+    public CaptureMetrics(String serial) {
+        mSerial = serial;
+        // phases that were not reached (e.g. because of an error) are left at -1
+        Arrays.fill(mNanos, -1);
+    }
+
+    /**
+     * Records a completed phase.
+     *
+     * @param phase
+     * @param startNanos value of {@link System#nanoTime()} when the phase started
+     * @param bytes number of bytes produced or transferred by the phase, 0 if not applicable
+     */
+    public void record(Phase phase, long startNanos, long bytes) {
+        mNanos[phase.ordinal()] = System.nanoTime() - startNanos;
+        mBytes[phase.ordinal()] = bytes;
+        if (FlightRecorderSupport.isAvailable()) {
+            CapturePhaseEvent event = new CapturePhaseEvent();
+            event.serial = mSerial;
+            event.phase = phase.getLabel();
+            event.phaseDuration = mNanos[phase.ordinal()];
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    public String getSerial() {
+        return mSerial;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return duration of the phase in nanoseconds, or -1 if the phase was not recorded
+     */
+    public long getNanos(Phase phase) {
+        return mNanos[phase.ordinal()];
+    }
+
+    public long getBytes(Phase phase) {
+        return mBytes[phase.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : mNanos) {
+            if (nanos > 0) {
+                total += nanos;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return a one line summary, e.g. "dump 1840ms, pull 12ms (34KB), ... total 2100ms"
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            long nanos = getNanos(phase);
+            if (nanos < 0) {
+                continue;
+            }
+            builder.append(phase.getLabel()).append(' ').append(toMillis(nanos)).append("ms");
+            long bytes = getBytes(phase);
+            if (bytes > 0) {
+                builder.append(" (").append(formatBytes(bytes)).append(')');
+            }
+            builder.append(", ");
+        }
+        builder.append("total ").append(toMillis(getTotalNanos())).append("ms");
+        return builder.toString();
+    }
+
+    static long toMillis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        } else if (bytes < 1024 * 1024) {
+            return (bytes / 1024) + "KB";
+        }
+        return String.format(Locale.US, "%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+}
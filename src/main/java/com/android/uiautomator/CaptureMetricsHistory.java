@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import com.android.uiautomator.CaptureMetrics.Phase;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rolling per-device latency history of capture phases.
+ *
+ * Keeps the last {@link #WINDOW_SIZE} samples of every phase for every device, from which
+ * p50/p95/p99 are computed on demand. All methods are thread safe.
+ */
+public class CaptureMetricsHistory {
+    public static final int WINDOW_SIZE = 256;
+
+    // samples needed before timeouts are derived from the history
+    private static final int MIN_TIMEOUT_SAMPLES = 5;
+    // how far beyond the observed p99 a phase may run before it is considered hung
+    private static final int TIMEOUT_P99_FACTOR = 3;
+
+    private static final CaptureMetricsHistory sInstance = new CaptureMetricsHistory();
+
+    // serial -> samples per phase, sorted by serial so exports are stable
+    private final Map<String, Window[]> mWindows = new TreeMap<String, Window[]>();
+
+    public static CaptureMetricsHistory getInstance() {
+        return sInstance;
+    }
+
+    public synchronized void record(CaptureMetrics metrics) {
+        Window[] windows = mWindows.get(metrics.getSerial());
+        if (windows == null) {
+            windows = new Window[Phase.values().length];
+            for (int i = 0; i < windows.length; i++) {
+                windows[i] = new Window();
+            }
+            mWindows.put(metrics.getSerial(), windows);
+        }
+        for (Phase phase : Phase.values()) {
+            long nanos = metrics.getNanos(phase);
+            if (nanos >= 0) {
+                windows[phase.ordinal()].add(nanos);
+            }
+        }
+    }
+
+    /**
+     * Returns a percentile of the recorded durations of a phase on a device.
+     *
+     * @param serial
+     * @param phase
+     * @param percentile between 0 and 100
+     * @return the duration in nanoseconds, or -1 if nothing was recorded yet
+     */
+    public synchronized long getPercentile(String serial, Phase phase, double percentile) {
+        Window[] windows = mWindows.get(serial);
+        if (windows == null) {
+            return -1;
+        }
+        return windows[phase.ordinal()].percentile(percentile);
+    }
+
+    /**
+     * Returns how long a phase may take on a device before it is considered hung: a multiple
+     * of its observed p99, kept within the given bounds. Devices without enough history get
+     * the upper bound.
+     *
+     * @param serial
+     * @param phase
+     * @param minMillis
+     * @param maxMillis
+     * @return the timeout in milliseconds
+     */
+    public synchronized long getTimeoutMillis(String serial, Phase phase, long minMillis,
+            long maxMillis) {
+        if (getSampleCount(serial, phase) < MIN_TIMEOUT_SAMPLES) {
+            return maxMillis;
+        }
+        long p99 = getPercentile(serial, phase, 99) / 1000000;
+        return Math.max(minMillis, Math.min(maxMillis, p99 * TIMEOUT_P99_FACTOR));
+    }
+
+    /**
+     * Returns the number of samples of a phase currently in the window of a device.
+     */
+    public synchronized int getSampleCount(String serial, Phase phase) {
+        Window[] windows = mWindows.get(serial);
+        return windows == null ? 0 : windows[phase.ordinal()].mCount;
+    }
+
+    public synchronized void clear() {
+        mWindows.clear();
+    }
+
+    /**
+     * Writes one row per device and phase: serial,phase,samples,p50_ms,p95_ms,p99_ms
+     */
+    public synchronized void writeCsv(Writer out) throws IOException {
+        out.write("serial,phase,samples,p50_ms,p95_ms,p99_ms\n");
+        for (Map.Entry<String, Window[]> entry : mWindows.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                Window w = entry.getValue()[phase.ordinal()];
+                if (w.mCount == 0) {
+                    continue;
+                }
+                out.write(entry.getKey().replace(',', '_'));
+                out.write(',');
+                out.write(phase.getLabel());
+                out.write(',');
+                out.write(String.valueOf(w.mCount));
+                out.write(',');
+                out.write(formatMillis(w.percentile(50)));
+                out.write(',');
+                out.write(formatMillis(w.percentile(95)));
+                out.write(',');
+                out.write(formatMillis(w.percentile(99)));
+                out.write('\n');
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the same data as {@link #writeCsv(Writer)}, as a JSON object keyed by serial
+     * and then by phase.
+     */
+    public synchronized void writeJson(Writer out) throws IOException {
+        out.write('{');
+        boolean firstDevice = true;
+        for (Map.Entry<String, Window[]> entry : mWindows.entrySet()) {
+            if (!firstDevice) {
+                out.write(',');
+            }
+            firstDevice = false;
+            out.write('"');
+            out.write(escapeJson(entry.getKey()));
+            out.write("\":{");
+            boolean firstPhase = true;
+            for (Phase phase : Phase.values()) {
+                Window w = entry.getValue()[phase.ordinal()];
+                if (w.mCount == 0) {
+                    continue;
+                }
+                if (!firstPhase) {
+                    out.write(',');
+                }
+                firstPhase = false;
+                out.write('"');
+                out.write(phase.getLabel());
+                out.write("\":{\"samples\":");
+                out.write(String.valueOf(w.mCount));
+                out.write(",\"p50_ms\":");
+                out.write(formatMillis(w.percentile(50)));
+                out.write(",\"p95_ms\":");
+                out.write(formatMillis(w.percentile(95)));
+                out.write(",\"p99_ms\":");
+                out.write(formatMillis(w.percentile(99)));
+                out.write('}');
+            }
+            out.write('}');
+        }
+        out.write("}\n");
+        out.flush();
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.valueOf(nanos / 1000L / 1000.0);
+    }
+
+    private static String escapeJson(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Fixed size ring buffer of durations.
+     */
+    private static class Window {
+        private final long[] mSamples = new long[WINDOW_SIZE];
+        private int mNext;
+        private int mCount;
+
+        void add(long nanos) {
+            mSamples[mNext] = nanos;
+            mNext = (mNext + 1) % mSamples.length;
+            if (mCount < mSamples.length) {
+                mCount++;
+            }
+        }
+
+        // nearest-rank percentile
+        long percentile(double percentile) {
+            if (mCount == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(mSamples, mCount);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile / 100.0 * mCount);
+            return sorted[Math.max(0, Math.min(mCount - 1, rank - 1))];
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import com.android.ddmlib.IDevice;
+import com.android.uiautomator.UiAutomatorHelper.UiAutomatorException;
+import com.android.uiautomator.UiAutomatorHelper.UiAutomatorResult;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.swt.widgets.Display;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs device captures in the background while the window stays usable.
+ *
+ * Captures of different devices run concurrently; a request for a device that is already
+ * being captured is coalesced into the running capture. Progress is shown in the status
+ * line, and results and errors reach the UI through asyncExec, so capture threads never
+ * wait for the UI thread. Callers that need the result itself, like the local API, use
+ * {@link #capture(IDevice, boolean)} and wait on the returned future instead.
+ */
+public class CaptureQueue {
+    private static final int MAX_CONCURRENT_CAPTURES = 4;
+
+    private final UiAutomatorViewer mViewer;
+    private final Display mDisplay;
+    private final ExecutorService mExecutor;
+    // captures queued or running, by device serial, guarded by this
+    private final Map<String, CaptureMonitor> mCaptures =
+            new LinkedHashMap<String, CaptureMonitor>();
+
+    public CaptureQueue(UiAutomatorViewer viewer, Display display) {
+        mViewer = viewer;
+        mDisplay = display;
+        final AtomicInteger threadCount = new AtomicInteger();
+        mExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_CAPTURES, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "capture-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues a capture of the device.
+     *
+     * @return false if the device is already being captured, in which case that capture's
+     * result will be shown instead
+     */
+    public synchronized boolean submit(IDevice device, boolean compressed) {
+        if (mCaptures.containsKey(device.getSerialNumber())) {
+            return false;
+        }
+        start(device, compressed);
+        return true;
+    }
+
+    /**
+     * Captures the device, or joins the capture of it that is already queued or running, in
+     * which case {@code compressed} is whatever that capture was asked for.
+     *
+     * @return the capture's result, also shown in the window once ready. Fails with a
+     * {@link UiAutomatorException} or {@link OperationCanceledException} as cause, or is
+     * cancelled if the queue shuts down first.
+     */
+    public synchronized Future<UiAutomatorResult> capture(IDevice device, boolean compressed) {
+        CaptureMonitor running = mCaptures.get(device.getSerialNumber());
+        return running != null ? running.mTask : start(device, compressed).mTask;
+    }
+
+    // must hold the lock
+    private CaptureMonitor start(final IDevice device, final boolean compressed) {
+        final String serial = device.getSerialNumber();
+        final CaptureMonitor monitor = new CaptureMonitor(serial);
+        monitor.mTask = new FutureTask<UiAutomatorResult>(new Callable<UiAutomatorResult>() {
+            @Override
+            public UiAutomatorResult call() throws UiAutomatorException {
+                try {
+                    UiAutomatorResult result = UiAutomatorHelper.takeSnapshot(device,
+                            monitor, compressed, mDisplay);
+                    mViewer.setCaptureResult(result, serial);
+                    return result;
+                } catch (OperationCanceledException e) {
+                    showStatus(serial, "cancelled");
+                    throw e;
+                } catch (UiAutomatorException e) {
+                    showError(serial, e.getMessage(), e);
+                    throw e;
+                } catch (RuntimeException e) {
+                    showError(serial, "Unexpected error while obtaining UI hierarchy", e);
+                    throw e;
+                } finally {
+                    synchronized (CaptureQueue.this) {
+                        mCaptures.remove(serial);
+                    }
+                }
+            }
+        });
+        mCaptures.put(serial, monitor);
+        showStatus(serial, "queued");
+        mExecutor.execute(monitor.mTask);
+        return monitor;
+    }
+
+    /**
+     * @return number of captures queued or running
+     */
+    public synchronized int getActiveCount() {
+        return mCaptures.size();
+    }
+
+    /**
+     * Cancels every queued and running capture.
+     */
+    public synchronized void cancelAll() {
+        for (CaptureMonitor monitor : mCaptures.values()) {
+            monitor.setCanceled(true);
+        }
+    }
+
+    public void shutdown() {
+        cancelAll();
+        // captures that never started must not leave anyone waiting for them
+        for (Runnable task : mExecutor.shutdownNow()) {
+            ((Future<?>) task).cancel(false);
+        }
+    }
+
+    private void showStatus(String serial, String task) {
+        int active = getActiveCount();
+        final String status = "Capturing " + serial + ": " + task
+                + (active > 1 ? " (" + active + " captures in progress)" : "");
+        if (mDisplay.isDisposed()) {
+            return;
+        }
+        mDisplay.asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                mViewer.setStatus(status);
+            }
+        });
+    }
+
+    private void showError(final String serial, final String msg, final Throwable t) {
+        if (mDisplay.isDisposed()) {
+            return;
+        }
+        mDisplay.asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (mViewer.getShell() == null || mViewer.getShell().isDisposed()) {
+                    return;
+                }
+                mViewer.setStatus("Capturing " + serial + " failed");
+                Status s = new Status(IStatus.ERROR, "Screenshot", msg, t);
+                ErrorDialog.openError(
+                        mViewer.getShell(), "Error", "Error obtaining UI hierarchy", s);
+            }
+        });
+    }
+
+    /**
+     * Forwards the capture's progress to the status line.
+     */
+    private class CaptureMonitor extends NullProgressMonitor {
+        private final String mSerial;
+        private FutureTask<UiAutomatorResult> mTask;
+
+        CaptureMonitor(String serial) {
+            mSerial = serial;
+        }
+
+        @Override
+        public void subTask(String name) {
+            showStatus(mSerial, name);
+        }
+    }
+}
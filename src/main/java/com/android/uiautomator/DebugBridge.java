@@ -24,7 +24,10 @@ import java.util.Arrays;
 import java.util.List;
 
 public class DebugBridge {
-    private static AndroidDebugBridge sDebugBridge;
+    private static volatile AndroidDebugBridge sDebugBridge;
+    private static volatile boolean sInitializing;
+    // reported instead of adb's devices, see useSimulatedDevices
+    private static volatile List<IDevice> sSimulatedDevices;
 
     private static String getAdbLocation() {
         if (System.getProperty("os.name").toLowerCase().contains("mac")) {
@@ -33,7 +36,34 @@ public class DebugBridge {
         return System.getProperty("user.dir") + File.separator + "adb.exe";
     }
 
-    public static void init() {
+    /**
+     * Creates the bridge on a background thread, so that the caller, usually the UI, does
+     * not wait for adb to come up.
+     *
+     * @param onDone run on the background thread once {@link #init()} returned, may be null
+     */
+    public static void initAsync(final Runnable onDone) {
+        sInitializing = true;
+        Thread t = new Thread("adb-init") {
+            @Override
+            public void run() {
+                try {
+                    init();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                } finally {
+                    sInitializing = false;
+                    if (onDone != null) {
+                        onDone.run();
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static synchronized void init() {
         String adbLocation = getAdbLocation();
         if (adbLocation != null) {
             AndroidDebugBridge.init(false /* debugger support */);
@@ -41,18 +71,37 @@ public class DebugBridge {
         }
     }
 
-    public static void terminate() {
+    public static synchronized void terminate() {
         if (sDebugBridge != null) {
             sDebugBridge = null;
             AndroidDebugBridge.terminate();
         }
     }
 
+    /**
+     * Reports the given devices instead of adb's, e.g. simulated ones. adb need not be
+     * initialized then.
+     */
+    public static void useSimulatedDevices(List<IDevice> devices) {
+        sSimulatedDevices = devices;
+    }
+
     public static boolean isInitialized() {
-        return sDebugBridge != null;
+        return sSimulatedDevices != null || sDebugBridge != null;
+    }
+
+    /**
+     * @return true while {@link #initAsync(Runnable)} is still bringing up the bridge
+     */
+    public static boolean isInitializing() {
+        return sInitializing;
     }
 
     public static List<IDevice> getDevices() {
+        List<IDevice> simulated = sSimulatedDevices;
+        if (simulated != null) {
+            return simulated;
+        }
         return Arrays.asList(sDebugBridge.getDevices());
     }
 }
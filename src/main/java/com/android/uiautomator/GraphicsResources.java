@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.graphics.Resource;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Registry of the native graphics handles (images, cursors, transforms) the viewer creates.
+ *
+ * Every handle is registered under an owner, the part of the viewer responsible for
+ * disposing it, and is disposed through {@link #dispose(Resource)}. An owner may have a
+ * byte budget: registering beyond it evicts the owner's least recently used handles that
+ * were registered with an {@link EvictionListener}. Live counts and bytes are kept per
+ * owner, so a leak shows up as a number that keeps growing.
+ *
+ * Thread safe. Eviction listeners run on the thread that registered the new handle.
+ */
+public class GraphicsResources {
+    public static final String OWNER_SCREENSHOT = "screenshot";
+    public static final String OWNER_TILES = "screenshot tiles";
+    public static final String OWNER_LIVE_SCREEN = "live screen";
+    public static final String OWNER_CURSORS = "cursors";
+    public static final String OWNER_PAINT = "paint";
+
+    /**
+     * Told when a handle is evicted to stay within its owner's budget, after it has been
+     * disposed, so that the owner can drop its reference.
+     */
+    public interface EvictionListener {
+        void onEvicted(Resource resource);
+    }
+
+    private static final GraphicsResources sInstance = new GraphicsResources();
+
+    private static class Entry {
+        final Resource mResource;
+        final Owner mOwner;
+        final long mBytes;
+        final EvictionListener mListener;
+
+        Entry(Resource resource, Owner owner, long bytes, EvictionListener listener) {
+            mResource = resource;
+            mOwner = owner;
+            mBytes = bytes;
+            mListener = listener;
+        }
+    }
+
+    private static class Owner {
+        final String mName;
+        // least recently used first
+        final Map<Entry, Boolean> mEntries = new LinkedHashMap<Entry, Boolean>(16, 0.75f, true);
+        long mBytes;
+        long mBudget = -1;
+
+        Owner(String name) {
+            mName = name;
+        }
+    }
+
+    // resources are compared by identity, Image.equals() compares native handles
+    private final Map<Resource, Entry> mEntries = new IdentityHashMap<Resource, Entry>();
+    private final Map<String, Owner> mOwners = new TreeMap<String, Owner>();
+
+    public static GraphicsResources getInstance() {
+        return sInstance;
+    }
+
+    public <T extends Resource> T register(String owner, T resource) {
+        return register(owner, resource, null);
+    }
+
+    /**
+     * Starts tracking a handle.
+     *
+     * @param listener if not null, the handle may be evicted to keep the owner within its
+     * budget, and the listener is told
+     * @return the resource
+     */
+    public <T extends Resource> T register(String owner, T resource,
+            EvictionListener listener) {
+        List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (this) {
+            if (mEntries.containsKey(resource)) {
+                return resource;
+            }
+            Owner o = getOwner(owner);
+            Entry entry = new Entry(resource, o, estimateBytes(resource), listener);
+            mEntries.put(resource, entry);
+            o.mEntries.put(entry, Boolean.TRUE);
+            o.mBytes += entry.mBytes;
+
+            if (o.mBudget >= 0 && o.mBytes > o.mBudget) {
+                Iterator<Entry> it = o.mEntries.keySet().iterator();
+                while (o.mBytes > o.mBudget && it.hasNext()) {
+                    Entry candidate = it.next();
+                    if (candidate == entry || candidate.mListener == null) {
+                        continue;
+                    }
+                    it.remove();
+                    mEntries.remove(candidate.mResource);
+                    o.mBytes -= candidate.mBytes;
+                    evicted.add(candidate);
+                }
+            }
+        }
+        for (Entry e : evicted) {
+            disposeHandle(e.mResource);
+            e.mListener.onEvicted(e.mResource);
+        }
+        return resource;
+    }
+
+    /**
+     * Marks a handle as used, so that it is evicted last.
+     */
+    public synchronized void touch(Resource resource) {
+        Entry entry = mEntries.get(resource);
+        if (entry != null) {
+            entry.mOwner.mEntries.get(entry);
+        }
+    }
+
+    /**
+     * Disposes a handle and stops tracking it. Handles that were never registered are
+     * disposed as well; null is ignored.
+     */
+    public void dispose(Resource resource) {
+        if (resource == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = mEntries.remove(resource);
+            if (entry != null) {
+                entry.mOwner.mEntries.remove(entry);
+                entry.mOwner.mBytes -= entry.mBytes;
+            }
+        }
+        disposeHandle(resource);
+    }
+
+    /**
+     * Disposes every handle of an owner.
+     */
+    public void disposeAll(String owner) {
+        List<Resource> resources = new ArrayList<Resource>();
+        synchronized (this) {
+            Owner o = mOwners.get(owner);
+            if (o == null) {
+                return;
+            }
+            for (Entry entry : o.mEntries.keySet()) {
+                mEntries.remove(entry.mResource);
+                resources.add(entry.mResource);
+            }
+            o.mEntries.clear();
+            o.mBytes = 0;
+        }
+        for (Resource resource : resources) {
+            disposeHandle(resource);
+        }
+    }
+
+    /**
+     * @param bytes the most the owner's evictable handles may add up to, or -1 for no limit
+     */
+    public synchronized void setBudget(String owner, long bytes) {
+        getOwner(owner).mBudget = bytes;
+    }
+
+    public synchronized int getLiveCount() {
+        return mEntries.size();
+    }
+
+    public synchronized long getLiveBytes() {
+        long bytes = 0;
+        for (Owner o : mOwners.values()) {
+            bytes += o.mBytes;
+        }
+        return bytes;
+    }
+
+    public synchronized int getLiveCount(String owner) {
+        Owner o = mOwners.get(owner);
+        return o == null ? 0 : o.mEntries.size();
+    }
+
+    public synchronized long getLiveBytes(String owner) {
+        Owner o = mOwners.get(owner);
+        return o == null ? 0 : o.mBytes;
+    }
+
+    /**
+     * @return e.g. "3 native handles, 10.4 MB (cursors 1, screenshot 1 9.9 MB, ...)"
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getLiveCount()).append(" native handles, ")
+                .append(formatMegabytes(getLiveBytes()));
+        boolean first = true;
+        for (Owner o : mOwners.values()) {
+            if (o.mEntries.isEmpty()) {
+                continue;
+            }
+            sb.append(first ? " (" : ", ").append(o.mName).append(' ')
+                    .append(o.mEntries.size());
+            if (o.mBytes > 0) {
+                sb.append(' ').append(formatMegabytes(o.mBytes));
+            }
+            first = false;
+        }
+        if (!first) {
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    private static String formatMegabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private Owner getOwner(String name) {
+        Owner o = mOwners.get(name);
+        if (o == null) {
+            o = new Owner(name);
+            mOwners.put(name, o);
+        }
+        return o;
+    }
+
+    private static long estimateBytes(Resource resource) {
+        if (resource instanceof Image && !resource.isDisposed()) {
+            Rectangle bounds = ((Image) resource).getBounds();
+            // the platform keeps 32 bit pixels, whatever the source depth
+            return (long) bounds.width * bounds.height * 4;
+        }
+        return 0;
+    }
+
+    private static void disposeHandle(Resource resource) {
+        if (!resource.isDisposed()) {
+            resource.dispose();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import com.android.uiautomator.stream.LatestFrame;
+import com.android.uiautomator.stream.ScreencapStream;
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.UiNode;
+
+import org.eclipse.jface.window.Window;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.MouseEvent;
+import org.eclipse.swt.events.MouseMoveListener;
+import org.eclipse.swt.events.MouseTrackAdapter;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.events.PaintListener;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Canvas;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Shell;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Window showing a live stream of a device screen, with the hierarchy of the viewer's
+ * current capture overlaid for hover.
+ *
+ * Frames are decoded on the stream's thread; the UI thread is only asked, through a
+ * single pending asyncExec, to pick up whatever frame is the latest when it gets to it.
+ * Frames that arrive in the meantime are dropped rather than queued.
+ */
+public class LiveScreenWindow extends Window implements ScreencapStream.Listener {
+    private static final long STATS_INTERVAL_NS = 1000L * 1000 * 1000;
+
+    private final UiAutomatorViewer mViewer;
+    private final ScreencapStream mStream;
+    private final String mDeviceName;
+    private final Display mDisplay;
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+    private final Runnable mShowLatestFrame = new Runnable() {
+        @Override
+        public void run() {
+            mFrameScheduled.set(false);
+            showLatestFrame();
+        }
+    };
+
+    private Canvas mCanvas;
+    private Label mStatus;
+
+    // everything below is only touched on the UI thread
+    private Image mFrame;
+    private float mScale = 1;
+    private int mDx, mDy;
+    private BasicTreeNode mHoverNode;
+    private long mStatsStart = System.nanoTime();
+    private int mStatsFrames;
+    private long mStatsLatencyTotal, mStatsLatencyMax;
+    private long mStatsDroppedBase;
+
+    public LiveScreenWindow(UiAutomatorViewer viewer, ScreencapStream stream,
+            String deviceName) {
+        super((Shell) null);
+        mViewer = viewer;
+        mStream = stream;
+        mDeviceName = deviceName;
+        mDisplay = viewer.getShell().getDisplay();
+        setBlockOnOpen(false);
+    }
+
+    @Override
+    protected void configureShell(Shell newShell) {
+        super.configureShell(newShell);
+        newShell.setText("Live Screen - " + mDeviceName);
+    }
+
+    @Override
+    protected Point getInitialSize() {
+        return new Point(420, 820);
+    }
+
+    @Override
+    protected Control createContents(Composite parent) {
+        Composite c = new Composite(parent, SWT.NONE);
+        GridLayout layout = new GridLayout(1, false);
+        layout.marginWidth = 0;
+        layout.marginHeight = 0;
+        c.setLayout(layout);
+
+        mCanvas = new Canvas(c, SWT.DOUBLE_BUFFERED | SWT.NO_BACKGROUND);
+        mCanvas.setLayoutData(new GridData(GridData.FILL_BOTH));
+        mCanvas.addPaintListener(new PaintListener() {
+            @Override
+            public void paintControl(PaintEvent e) {
+                paint(e);
+            }
+        });
+        mCanvas.addMouseMoveListener(new MouseMoveListener() {
+            @Override
+            public void mouseMove(MouseEvent e) {
+                updateHover(e.x, e.y);
+            }
+        });
+        mCanvas.addMouseTrackListener(new MouseTrackAdapter() {
+            @Override
+            public void mouseExit(MouseEvent e) {
+                setHoverNode(null);
+            }
+        });
+
+        mStatus = new Label(c, SWT.NONE);
+        mStatus.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+        mStatus.setText("Connecting...");
+
+        mStream.start(this);
+        return c;
+    }
+
+    @Override
+    public boolean close() {
+        mStream.stop();
+        boolean closed = super.close();
+        GraphicsResources.getInstance().dispose(mFrame);
+        mFrame = null;
+        return closed;
+    }
+
+    @Override
+    public void onFrameAvailable() {
+        // at most one pickup is pending, the UI thread never has a backlog of frames
+        if (mFrameScheduled.compareAndSet(false, true) && !mDisplay.isDisposed()) {
+            mDisplay.asyncExec(mShowLatestFrame);
+        }
+    }
+
+    @Override
+    public void onStreamEnded(final IOException error) {
+        if (error == null || mDisplay.isDisposed()) {
+            return;
+        }
+        mDisplay.asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (mStatus != null && !mStatus.isDisposed()) {
+                    mStatus.setText("Stream ended: " + error.getMessage());
+                }
+            }
+        });
+    }
+
+    private void showLatestFrame() {
+        if (mCanvas == null || mCanvas.isDisposed()) {
+            return;
+        }
+        LatestFrame frames = mStream.getFrames();
+        ImageData data = frames.take();
+        if (data == null) {
+            return;
+        }
+        long arrived = frames.getTakenTimestamp();
+        Image frame = GraphicsResources.getInstance().register(
+                GraphicsResources.OWNER_LIVE_SCREEN, new Image(mDisplay, data));
+        // the pixels have been copied into the image, the buffer can be decoded into again
+        frames.recycle(data);
+        GraphicsResources.getInstance().dispose(mFrame);
+        mFrame = frame;
+        mCanvas.redraw();
+        mCanvas.update();
+
+        long now = System.nanoTime();
+        long latency = now - arrived;
+        mStatsFrames++;
+        mStatsLatencyTotal += latency;
+        mStatsLatencyMax = Math.max(mStatsLatencyMax, latency);
+        if (now - mStatsStart >= STATS_INTERVAL_NS) {
+            long dropped = frames.getDroppedCount();
+            mStatus.setText(String.format("%.1f fps, latency avg %d ms max %d ms, dropped %d",
+                    mStatsFrames * 1e9 / (now - mStatsStart),
+                    mStatsLatencyTotal / mStatsFrames / 1000000,
+                    mStatsLatencyMax / 1000000,
+                    dropped - mStatsDroppedBase));
+            mStatsStart = now;
+            mStatsFrames = 0;
+            mStatsLatencyTotal = 0;
+            mStatsLatencyMax = 0;
+            mStatsDroppedBase = dropped;
+        }
+    }
+
+    private void paint(PaintEvent e) {
+        Rectangle area = mCanvas.getClientArea();
+        e.gc.setBackground(mDisplay.getSystemColor(SWT.COLOR_BLACK));
+        e.gc.fillRectangle(area);
+        if (mFrame == null) {
+            return;
+        }
+        Rectangle bounds = mFrame.getBounds();
+        mScale = Math.min((float) area.width / bounds.width,
+                (float) area.height / bounds.height);
+        int width = Math.round(bounds.width * mScale);
+        int height = Math.round(bounds.height * mScale);
+        mDx = (area.width - width) / 2;
+        mDy = (area.height - height) / 2;
+        e.gc.drawImage(mFrame, 0, 0, bounds.width, bounds.height, mDx, mDy, width, height);
+
+        BasicTreeNode node = mHoverNode;
+        if (node != null) {
+            e.gc.setForeground(mDisplay.getSystemColor(SWT.COLOR_RED));
+            e.gc.setLineStyle(SWT.LINE_SOLID);
+            e.gc.setLineWidth(2);
+            e.gc.drawRectangle(mDx + Math.round(node.x * mScale),
+                    mDy + Math.round(node.y * mScale),
+                    Math.round(node.width * mScale), Math.round(node.height * mScale));
+        }
+    }
+
+    private void updateHover(int x, int y) {
+        UiAutomatorModel model = mViewer.getCurrentModel();
+        if (mFrame == null || model == null || model.isLoading() || mScale <= 0) {
+            setHoverNode(null);
+            return;
+        }
+        setHoverNode(model.findNodeAt(Math.round((x - mDx) / mScale),
+                Math.round((y - mDy) / mScale)));
+    }
+
+    private void setHoverNode(BasicTreeNode node) {
+        if (node == mHoverNode || mCanvas.isDisposed()) {
+            return;
+        }
+        mHoverNode = node;
+        String tip = null;
+        if (node instanceof UiNode) {
+            UiNode uiNode = (UiNode) node;
+            tip = uiNode.toString();
+            String id = uiNode.getAttribute("resource-id");
+            if (id != null && !id.isEmpty()) {
+                tip += "\n" + id;
+            }
+        }
+        mCanvas.setToolTipText(tip);
+        mCanvas.redraw();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+
+import org.eclipse.swt.widgets.Display;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches the nodes of a model on a background thread while the user types.
+ *
+ * Only the latest query matters: starting a search cancels the running one. When a query
+ * contains the previous completed one, e.g. because a character was typed, only that
+ * query's matches are searched again instead of the whole hierarchy, provided that search
+ * covered the complete hierarchy rather than the part of it loaded so far. Matches reach the
+ * listener in batches, on the UI thread, as they are found.
+ */
+public class LiveSearch {
+    // nodes searched between checks for a newer query
+    private static final int CANCEL_CHECK_NODES = 256;
+    // how long matches may be held back before being handed to the listener
+    private static final long BATCH_NANOS = 30L * 1000 * 1000;
+
+    /**
+     * Receives the matches of a search, on the UI thread. Matches of a query that has since
+     * been replaced or cancelled are never delivered.
+     */
+    public interface IMatchListener {
+        /**
+         * @param term the query, as given to {@link LiveSearch#search}
+         * @param matches matches found since the previous call, in node order
+         * @param first whether this is the first batch of the query
+         * @param done whether the search of the query is complete
+         */
+        void onMatches(String term, List<BasicTreeNode> matches, boolean first, boolean done);
+    }
+
+    private final Display mDisplay;
+    private final IMatchListener mListener;
+    private final ExecutorService mExecutor;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    // the last query searched to completion over a fully loaded model, only used by the
+    // search thread
+    private UiAutomatorModel mLastModel;
+    private String mLastTerm;
+    private List<BasicTreeNode> mLastMatches;
+
+    public LiveSearch(Display display, IMatchListener listener) {
+        mDisplay = display;
+        mListener = listener;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "live-search");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Starts searching the model, cancelling the previous search. Must be called on the UI
+     * thread, which owns the model while it is still being loaded.
+     */
+    public void search(final UiAutomatorModel model, final String term) {
+        final int generation = mGeneration.incrementAndGet();
+        final List<BasicTreeNode> nodes = model.getSearchableNodes();
+        final boolean complete = !model.isLoading();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration.get()) {
+                    runSearch(generation, model, term, nodes, complete);
+                }
+            }
+        });
+    }
+
+    /**
+     * Cancels the running search; its remaining matches are not delivered.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @param complete whether nodes is the whole hierarchy, not only the part of it loaded
+     * so far, so its matches can be narrowed down by the next query
+     */
+    private void runSearch(int generation, UiAutomatorModel model, String term,
+            List<BasicTreeNode> nodes, boolean complete) {
+        String lowerCase = term.toLowerCase();
+        List<BasicTreeNode> candidates = nodes;
+        if (model == mLastModel && lowerCase.contains(mLastTerm)) {
+            // whatever matches the longer query also matched the shorter one
+            candidates = mLastMatches;
+        }
+
+        List<BasicTreeNode> matches = new ArrayList<BasicTreeNode>();
+        int delivered = 0;
+        boolean first = true;
+        long lastDelivery = System.nanoTime();
+        for (int i = 0; i < candidates.size(); i++) {
+            if (i % CANCEL_CHECK_NODES == 0 && i > 0) {
+                if (generation != mGeneration.get()) {
+                    return;
+                }
+                long now = System.nanoTime();
+                if (now - lastDelivery >= BATCH_NANOS && matches.size() > delivered) {
+                    deliver(generation, term,
+                            new ArrayList<BasicTreeNode>(matches.subList(delivered,
+                                    matches.size())), first, false);
+                    delivered = matches.size();
+                    first = false;
+                    lastDelivery = now;
+                }
+            }
+            BasicTreeNode node = candidates.get(i);
+            if (model.matchesSearch(node, lowerCase)) {
+                matches.add(node);
+            }
+        }
+        // nodes loaded later were never searched, so the next query must see them all
+        mLastModel = complete ? model : null;
+        mLastTerm = lowerCase;
+        mLastMatches = matches;
+        deliver(generation, term,
+                new ArrayList<BasicTreeNode>(matches.subList(delivered, matches.size())),
+                first, true);
+    }
+
+    private void deliver(final int generation, final String term,
+            final List<BasicTreeNode> matches, final boolean first, final boolean done) {
+        if (mDisplay.isDisposed()) {
+            return;
+        }
+        mDisplay.asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (generation == mGeneration.get()) {
+                    mListener.onMatches(term, matches, first, done);
+                }
+            }
+        });
+    }
+}
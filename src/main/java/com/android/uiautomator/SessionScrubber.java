@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import com.android.uiautomator.snapshot.SessionReader;
+import com.android.uiautomator.snapshot.Snapshot;
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.UiHierarchyXmlWriter;
+
+import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Scale;
+import org.eclipse.swt.widgets.Shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Modeless window with a slider over the captures of a recorded session; the selected
+ * capture is shown in the viewer.
+ *
+ * Frames are decoded on a background thread. While the slider is dragged only the latest
+ * position is decoded, positions passed in the meantime are skipped. The hierarchy of each
+ * frame shown is written to a temporary .uix file, so that it can be saved like a capture;
+ * two files are used in turn, so the one shown is never overwritten.
+ */
+public class SessionScrubber extends Dialog {
+    private static final int NO_FRAME = -1;
+
+    private final UiAutomatorViewer mViewer;
+    private final SessionReader mReader;
+    private Scale mScale;
+    private Label mLabel;
+
+    // frame requested by the slider and not yet picked up by the decoder, guarded by this
+    private int mPendingFrame = NO_FRAME;
+    private boolean mDecoding = false;
+    // hierarchy files of the frames, written in turn by the decoder thread, which is
+    // only ever one at a time
+    private final File[] mFrameFiles = new File[2];
+    private int mNextFrameFile;
+
+    public SessionScrubber(UiAutomatorViewer viewer, SessionReader reader) {
+        super(viewer.getShell());
+        mViewer = viewer;
+        mReader = reader;
+        setShellStyle(SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MODELESS);
+        setBlockOnOpen(false);
+    }
+
+    @Override
+    protected void configureShell(Shell newShell) {
+        super.configureShell(newShell);
+        newShell.setText("Session (" + mReader.getFrameCount() + " captures)");
+    }
+
+    @Override
+    protected Control createDialogArea(Composite parent) {
+        Composite c = (Composite) super.createDialogArea(parent);
+        c.setLayout(new GridLayout(1, false));
+
+        mScale = new Scale(c, SWT.HORIZONTAL);
+        mScale.setMinimum(0);
+        mScale.setMaximum(Math.max(1, mReader.getFrameCount() - 1));
+        mScale.setIncrement(1);
+        mScale.setPageIncrement(10);
+        mScale.setEnabled(mReader.getFrameCount() > 1);
+        GridData gd = new GridData(GridData.FILL_HORIZONTAL);
+        gd.widthHint = 480;
+        mScale.setLayoutData(gd);
+        mScale.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                showFrame(mScale.getSelection());
+            }
+        });
+
+        mLabel = new Label(c, SWT.NONE);
+        mLabel.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+        showFrame(0);
+        return c;
+    }
+
+    @Override
+    protected void createButtonsForButtonBar(Composite parent) {
+        createButton(parent, IDialogConstants.CLOSE_ID, IDialogConstants.CLOSE_LABEL, true);
+    }
+
+    @Override
+    protected void buttonPressed(int buttonId) {
+        if (buttonId == IDialogConstants.CLOSE_ID) {
+            close();
+        }
+    }
+
+    @Override
+    public boolean close() {
+        synchronized (this) {
+            mPendingFrame = NO_FRAME;
+        }
+        try {
+            mReader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return super.close();
+    }
+
+    private void showFrame(int index) {
+        Snapshot snapshot = mReader.getSnapshot(index);
+        mLabel.setText(String.format("%d / %d  %s  %s", index + 1, mReader.getFrameCount(),
+                new SimpleDateFormat("HH:mm:ss.SSS").format(new Date(snapshot.getTimestamp())),
+                snapshot.getLabel() != null ? snapshot.getLabel() : ""));
+        synchronized (this) {
+            mPendingFrame = index;
+            if (mDecoding) {
+                return;
+            }
+            mDecoding = true;
+        }
+        Thread decoder = new Thread("session-scrubber") {
+            @Override
+            public void run() {
+                decodePendingFrames();
+            }
+        };
+        decoder.setDaemon(true);
+        decoder.start();
+    }
+
+    private void decodePendingFrames() {
+        try {
+            while (true) {
+                int index;
+                synchronized (this) {
+                    index = mPendingFrame;
+                    mPendingFrame = NO_FRAME;
+                    if (index == NO_FRAME) {
+                        return;
+                    }
+                }
+                try {
+                    decodeFrame(index);
+                } catch (IOException e) {
+                    // the reader is closed when the scrubber is, which may race with a decode
+                    System.err.println("Unable to read session frame " + index + ": "
+                            + e.getLocalizedMessage());
+                    return;
+                } catch (RuntimeException e) {
+                    // e.g. a corrupt frame, the following ones may still be fine
+                    System.err.println("Unable to show session frame " + index + ": " + e);
+                }
+            }
+        } finally {
+            synchronized (this) {
+                mDecoding = false;
+            }
+        }
+    }
+
+    private void decodeFrame(int index) throws IOException {
+        Display display = mViewer.getShell().getDisplay();
+        SessionReader.Frame frame = mReader.readFrame(index);
+        BasicTreeNode root = frame.snapshot.getRoot().toTree();
+        final File file = getFrameFile();
+        UiHierarchyXmlWriter.write(root, file);
+        final UiAutomatorModel model = UiAutomatorModel.fromTree(root);
+        final Image screenshot = GraphicsResources.getInstance().register(
+                GraphicsResources.OWNER_SCREENSHOT, new Image(display, frame.image));
+        final boolean[] shown = new boolean[1];
+        // wait for the view so that frames are not decoded faster than shown
+        display.syncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (getShell() == null || getShell().isDisposed()) {
+                    GraphicsResources.getInstance().dispose(screenshot);
+                    return;
+                }
+                mViewer.setModel(model, file, screenshot);
+                shown[0] = true;
+            }
+        });
+        if (shown[0]) {
+            // the viewer now refers to this file, the next frame goes to the other one
+            mNextFrameFile ^= 1;
+        }
+    }
+
+    private File getFrameFile() throws IOException {
+        File file = mFrameFiles[mNextFrameFile];
+        if (file == null) {
+            file = File.createTempFile("session_frame_", ".uix");
+            file.deleteOnExit();
+            mFrameFiles[mNextFrameFile] = file;
+        }
+        return file;
+    }
+}
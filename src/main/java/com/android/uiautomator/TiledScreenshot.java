@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator;
+
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.graphics.Resource;
+import org.eclipse.swt.widgets.Display;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders a screenshot from a mipmap pyramid of tiles, so that at any zoom level only the
+ * visible tiles, at the closest resolution not below the display scale, are drawn.
+ *
+ * The pyramid is built on a background thread; until it is ready {@link #isReady()} is
+ * false and the caller is expected to draw the full image instead. Tile images are created
+ * lazily on the UI thread and registered with {@link GraphicsResources}, which evicts the
+ * least recently drawn tiles of all screenshots once they exceed {@link #TILE_BUDGET_BYTES}.
+ */
+public class TiledScreenshot {
+    private static final int TILE_SIZE = 256;
+    // native tile images kept alive, 64 tiles of 256x256 at 32bpp
+    public static final long TILE_BUDGET_BYTES = 16L * 1024 * 1024;
+
+    static {
+        GraphicsResources.getInstance().setBudget(GraphicsResources.OWNER_TILES,
+                TILE_BUDGET_BYTES);
+    }
+
+    private final Display mDisplay;
+    private final int mWidth, mHeight;
+    // level 0 is the full resolution image, each next level halves both dimensions
+    private volatile ImageData[] mLevels;
+    private final Map<Long, Image> mTiles = new HashMap<Long, Image>();
+    private volatile boolean mDisposed = false;
+
+    private final GraphicsResources.EvictionListener mEvictionListener =
+            new GraphicsResources.EvictionListener() {
+        @Override
+        public void onEvicted(Resource resource) {
+            Iterator<Image> it = mTiles.values().iterator();
+            while (it.hasNext()) {
+                if (it.next() == resource) {
+                    it.remove();
+                    return;
+                }
+            }
+        }
+    };
+
+    /**
+     * @param display
+     * @param fullImage the screenshot, owned by this object from now on
+     * @param onReady run on the UI thread once the pyramid is built, may be null
+     */
+    public TiledScreenshot(Display display, final ImageData fullImage, final Runnable onReady) {
+        mDisplay = display;
+        mWidth = fullImage.width;
+        mHeight = fullImage.height;
+        Thread t = new Thread("screenshot-mipmaps") {
+            @Override
+            public void run() {
+                List<ImageData> levels = new ArrayList<ImageData>();
+                ImageData level = fullImage;
+                levels.add(level);
+                while (!mDisposed && Math.max(level.width, level.height) > TILE_SIZE) {
+                    level = level.scaledTo(Math.max(1, level.width / 2),
+                            Math.max(1, level.height / 2));
+                    levels.add(level);
+                }
+                if (mDisposed) {
+                    return;
+                }
+                mLevels = levels.toArray(new ImageData[levels.size()]);
+                if (onReady != null && !mDisplay.isDisposed()) {
+                    mDisplay.asyncExec(onReady);
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public boolean isReady() {
+        return mLevels != null && !mDisposed;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Draws the part of the screenshot that intersects the clip rectangle.
+     *
+     * @param gc
+     * @param dx canvas x of the screenshot's origin
+     * @param dy canvas y of the screenshot's origin
+     * @param scale canvas pixels per screenshot pixel
+     * @param clip visible canvas area
+     */
+    public void paint(GC gc, int dx, int dy, float scale, Rectangle clip) {
+        ImageData[] levels = mLevels;
+        int levelIndex = 0;
+        // use the smallest level that still has at least one pixel per canvas pixel
+        while (levelIndex + 1 < levels.length
+                && scale * ((double) mWidth / levels[levelIndex + 1].width) <= 1.0) {
+            levelIndex++;
+        }
+        ImageData level = levels[levelIndex];
+        // canvas pixels per level pixel
+        double fx = scale * ((double) mWidth / level.width);
+        double fy = scale * ((double) mHeight / level.height);
+
+        int firstCol = Math.max(0, (int) Math.floor((clip.x - dx) / fx / TILE_SIZE));
+        int lastCol = Math.min((level.width - 1) / TILE_SIZE,
+                (int) Math.floor((clip.x + clip.width - dx) / fx / TILE_SIZE));
+        int firstRow = Math.max(0, (int) Math.floor((clip.y - dy) / fy / TILE_SIZE));
+        int lastRow = Math.min((level.height - 1) / TILE_SIZE,
+                (int) Math.floor((clip.y + clip.height - dy) / fy / TILE_SIZE));
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                Image tile = getTile(levelIndex, level, col, row);
+                Rectangle b = tile.getBounds();
+                int lx = col * TILE_SIZE, ly = row * TILE_SIZE;
+                // compute both edges from level coordinates so that adjacent tiles meet
+                int x0 = dx + (int) Math.floor(lx * fx);
+                int y0 = dy + (int) Math.floor(ly * fy);
+                int x1 = dx + (int) Math.floor((lx + b.width) * fx);
+                int y1 = dy + (int) Math.floor((ly + b.height) * fy);
+                if (x1 > x0 && y1 > y0) {
+                    gc.drawImage(tile, 0, 0, b.width, b.height, x0, y0, x1 - x0, y1 - y0);
+                }
+            }
+        }
+    }
+
+    private Image getTile(int levelIndex, ImageData level, int col, int row) {
+        long key = ((long) levelIndex << 48) | ((long) row << 24) | col;
+        Image tile = mTiles.get(key);
+        if (tile != null) {
+            GraphicsResources.getInstance().touch(tile);
+            return tile;
+        }
+        int x = col * TILE_SIZE, y = row * TILE_SIZE;
+        int w = Math.min(TILE_SIZE, level.width - x);
+        int h = Math.min(TILE_SIZE, level.height - y);
+        ImageData data = new ImageData(w, h, level.depth, level.palette);
+        int[] pixels = new int[w];
+        for (int i = 0; i < h; i++) {
+            level.getPixels(x, y + i, w, pixels, 0);
+            data.setPixels(0, i, w, pixels, 0);
+        }
+        tile = new Image(mDisplay, data);
+        mTiles.put(key, tile);
+        // may evict older tiles, which the listener then removes from mTiles
+        GraphicsResources.getInstance().register(GraphicsResources.OWNER_TILES, tile,
+                mEvictionListener);
+        return tile;
+    }
+
+    /**
+     * Releases the tile images. Must be called on the UI thread.
+     */
+    public void dispose() {
+        mDisposed = true;
+        for (Image tile : mTiles.values()) {
+            GraphicsResources.getInstance().dispose(tile);
+        }
+        mTiles.clear();
+        mLevels = null;
+    }
+}
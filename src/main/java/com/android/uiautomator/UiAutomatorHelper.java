@@ -16,15 +16,19 @@
 
 package com.android.uiautomator;
 
+import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.CollectingOutputReceiver;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.RawImage;
-import com.android.ddmlib.SyncService;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.uiautomator.CaptureMetrics.Phase;
+import com.android.uiautomator.agent.HierarchyAgent;
 import com.android.uiautomator.tree.BasicTreeNode;
 import com.android.uiautomator.tree.RootWindowNode;
 
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
@@ -34,7 +38,11 @@ import org.eclipse.swt.widgets.Display;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 public class UiAutomatorHelper {
@@ -45,6 +53,76 @@ public class UiAutomatorHelper {
     private static final String UIDUMP_DEVICE_PATH = "/data/local/tmp/uidump.xml";  //$NON-NLS-1$
     private static final int XML_CAPTURE_TIMEOUT_SEC = 40;
 
+    // bounds of the per-device timeouts derived from CaptureMetricsHistory, devices without
+    // history get the upper bound
+    private static final long RM_TIMEOUT_MIN_MS = 1000;
+    private static final long RM_TIMEOUT_MAX_MS = 5000;
+    private static final long DUMP_TIMEOUT_MIN_MS = 5000;
+    private static final long SCREENSHOT_TIMEOUT_MIN_MS = 3000;
+    private static final long SCREENSHOT_TIMEOUT_MAX_MS = 20000;
+
+    // transient adb failures are retried this many times in total, waiting
+    // RETRY_BACKOFF_MS, then twice as long, ... in between
+    private static final int MAX_ATTEMPTS = 3;
+    // density at which one dp is one pixel
+    private static final int BASELINE_DENSITY_DPI = 160;
+    private static final long RETRY_BACKOFF_MS = 250;
+    // how often a blocking agent dump checks for cancellation
+    private static final long CANCEL_POLL_MS = 50;
+
+    private static final ScheduledExecutorService sCancelWatcher =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "capture-cancel-watcher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    // optional wait for animations and transitions to finish before capturing: frames are
+    // sampled until STABILIZE_SAMPLES_PROPERTY consecutive ones match, for at most
+    // STABILIZE_TIMEOUT_PROPERTY milliseconds
+    public static final String STABILIZE_PROPERTY = "uiautomatorviewer.stabilize"; //$NON-NLS-1$
+    public static final String STABILIZE_SAMPLES_PROPERTY =
+            "uiautomatorviewer.stabilize.samples";                            //$NON-NLS-1$
+    public static final String STABILIZE_TIMEOUT_PROPERTY =
+            "uiautomatorviewer.stabilize.timeout";                            //$NON-NLS-1$
+    public static final String STABILIZE_INTERVAL_PROPERTY =
+            "uiautomatorviewer.stabilize.interval";                           //$NON-NLS-1$
+    private static final int STABILIZE_SAMPLES = 3;
+    private static final long STABILIZE_TIMEOUT_MS = 3000;
+    private static final long STABILIZE_INTERVAL_MS = 100;
+    // frames are compared on a grid of SIGNATURE_SIZE x SIGNATURE_SIZE cells, each the mean
+    // luminance of SIGNATURE_PROBES x SIGNATURE_PROBES pixels; cells may differ by up to
+    // SIGNATURE_TOLERANCE to ignore dithering and compression noise
+    private static final int SIGNATURE_SIZE = 32;
+    private static final int SIGNATURE_PROBES = 4;
+    private static final int SIGNATURE_TOLERANCE = 4;
+
+    /**
+     * A step of a capture that may be retried.
+     */
+    private interface Attempt<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Collects shell output and stops the command as soon as the monitor is cancelled.
+     */
+    private static class CancellableReceiver extends CollectingOutputReceiver {
+        private final IProgressMonitor mMonitor;
+
+        CancellableReceiver(IProgressMonitor monitor) {
+            mMonitor = monitor;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return super.isCancelled() || mMonitor.isCanceled();
+        }
+    }
+
     private static boolean supportsUiAutomator(IDevice device) {
         String apiLevelString = device.getProperty(IDevice.PROP_BUILD_API_LEVEL);
         int apiLevel;
@@ -57,23 +135,235 @@ public class UiAutomatorHelper {
         return apiLevel >= UIAUTOMATOR_MIN_API_LEVEL;
     }
 
-    private static void getUiHierarchyFile(IDevice device, File dst,
-            IProgressMonitor monitor, boolean compressed) {
-        if (monitor == null) {
-            monitor = new NullProgressMonitor();
+    private static void checkCanceled(IProgressMonitor monitor) {
+        if (monitor.isCanceled()) {
+            throw new OperationCanceledException();
+        }
+    }
+
+    /**
+     * Runs a step, retrying it with exponential backoff when it fails for a reason that
+     * may go away, see {@link #isTransient(Exception)}.
+     */
+    private static <T> T withRetry(IProgressMonitor monitor, String step,
+            Attempt<T> attempt) throws Exception {
+        for (int i = 1; ; i++) {
+            checkCanceled(monitor);
+            try {
+                return attempt.run();
+            } catch (OperationCanceledException e) {
+                throw e;
+            } catch (Exception e) {
+                if (i >= MAX_ATTEMPTS || monitor.isCanceled() || !isTransient(e)) {
+                    throw e;
+                }
+                long backoff = RETRY_BACKOFF_MS << (i - 1);
+                monitor.subTask(step + " failed (" + e.getMessage() + "), retrying in "
+                        + backoff + "ms");
+                sleep(monitor, backoff);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a failure is worth retrying: a broken adb connection or a command adb
+     * rejected for a device that is still online. A device that did not answer in time is
+     * not, since every attempt would wait out the whole timeout again.
+     */
+    private static boolean isTransient(Exception e) {
+        if (e instanceof ShellCommandUnresponsiveException
+                || e instanceof SocketTimeoutException) {
+            return false;
+        } else if (e instanceof AdbCommandRejectedException) {
+            return !((AdbCommandRejectedException) e).isDeviceOffline();
         }
+        // ddmlib's TimeoutException is not an IOException
+        return e instanceof IOException;
+    }
+
+    /**
+     * Sleeps, waking up early to throw {@link OperationCanceledException} on cancellation.
+     */
+    private static void sleep(IProgressMonitor monitor, long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        long remaining;
+        while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+            checkCanceled(monitor);
+            try {
+                Thread.sleep(Math.min(remaining, 50));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OperationCanceledException();
+            }
+        }
+    }
+
+    /**
+     * Waits until the screen stops changing, sampling frames until the configured number of
+     * consecutive ones match or the time cap elapses. Only frames are compared, since a
+     * hierarchy dump costs seconds while a frame is a single framebuffer read.
+     *
+     * Failing to sample is not an error, the capture then simply goes ahead.
+     *
+     * @return true if the screen settled, false if the time cap elapsed or sampling failed
+     */
+    private static boolean waitForStableScreen(IDevice device, IProgressMonitor monitor,
+            CaptureMetrics metrics) {
+        int samples = Math.max(2, Integer.getInteger(STABILIZE_SAMPLES_PROPERTY,
+                STABILIZE_SAMPLES));
+        long timeout = Long.getLong(STABILIZE_TIMEOUT_PROPERTY, STABILIZE_TIMEOUT_MS);
+        long interval = Long.getLong(STABILIZE_INTERVAL_PROPERTY, STABILIZE_INTERVAL_MS);
+
+        long start = System.nanoTime();
+        long deadline = System.currentTimeMillis() + timeout;
+        long bytes = 0;
+        int taken = 0;
+        int matching = 0;
+        int[] previous = null;
+        boolean settled = false;
+        try {
+            while (true) {
+                checkCanceled(monitor);
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                RawImage frame = device.getScreenshot(remaining, TimeUnit.MILLISECONDS);
+                taken++;
+                bytes += frame.data.length;
+                int[] signature = getFrameSignature(frame);
+                matching = previous != null && framesMatch(previous, signature)
+                        ? matching + 1 : 1;
+                previous = signature;
+                if (matching >= samples) {
+                    settled = true;
+                    break;
+                }
+                sleep(monitor, Math.min(interval, deadline - System.currentTimeMillis()));
+            }
+        } catch (OperationCanceledException e) {
+            throw e;
+        } catch (Exception e) {
+            // capture anyway, the screen is only as stable as it was before
+            monitor.subTask("Could not sample screen (" + e.getMessage() + ")");
+        }
+        metrics.record(Phase.SETTLE, start, bytes);
+        if (!settled) {
+            monitor.subTask("Screen did not settle within "
+                    + CaptureMetrics.toMillis(metrics.getNanos(Phase.SETTLE)) + "ms ("
+                    + taken + " frames), capturing anyway");
+        }
+        return settled;
+    }
+
+    /**
+     * @return the mean luminance of every cell of a coarse grid laid over the frame
+     */
+    private static int[] getFrameSignature(RawImage frame) {
+        int[] signature = new int[SIGNATURE_SIZE * SIGNATURE_SIZE];
+        int bytesPerPixel = frame.bpp / 8;
+        int probes = SIGNATURE_PROBES * SIGNATURE_PROBES;
+        for (int cy = 0; cy < SIGNATURE_SIZE; cy++) {
+            for (int cx = 0; cx < SIGNATURE_SIZE; cx++) {
+                int sum = 0;
+                for (int py = 0; py < SIGNATURE_PROBES; py++) {
+                    int y = (cy * SIGNATURE_PROBES + py) * frame.height
+                            / (SIGNATURE_SIZE * SIGNATURE_PROBES);
+                    for (int px = 0; px < SIGNATURE_PROBES; px++) {
+                        int x = (cx * SIGNATURE_PROBES + px) * frame.width
+                                / (SIGNATURE_SIZE * SIGNATURE_PROBES);
+                        int argb = frame.getARGB((y * frame.width + x) * bytesPerPixel);
+                        // integer approximation of Rec. 601 luma
+                        sum += (((argb >> 16) & 0xff) * 77 + ((argb >> 8) & 0xff) * 150
+                                + (argb & 0xff) * 29) >> 8;
+                    }
+                }
+                signature[cy * SIGNATURE_SIZE + cx] = sum / probes;
+            }
+        }
+        return signature;
+    }
+
+    private static boolean framesMatch(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (Math.abs(a[i] - b[i]) > SIGNATURE_TOLERANCE) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void getUiHierarchyFile(final IDevice device, final File dst,
+            IProgressMonitor progressMonitor, final boolean compressed,
+            final CaptureMetrics metrics) throws Exception {
+        final IProgressMonitor monitor = progressMonitor != null
+                ? progressMonitor : new NullProgressMonitor();
+
+        if (HierarchyAgent.isEnabled() && HierarchyAgent.getInstance().shouldTry(device)) {
+            monitor.subTask("Taking UI XML snapshot through agent...");
+            long start = System.nanoTime();
+            ScheduledFuture<?> watcher = watchForCancel(device, monitor);
+            try {
+                long bytes = HierarchyAgent.getInstance().dump(device, compressed, dst);
+                metrics.record(Phase.DUMP, start, bytes);
+                return;
+            } catch (IOException e) {
+                // a dump cut short by cancellation must not fall back
+                checkCanceled(monitor);
+                // the agent backs off after connection failures, so this is not repeated
+                // on every capture
+                monitor.subTask("Hierarchy agent unavailable (" + e.getMessage()
+                        + "), using uiautomator dump");
+            } finally {
+                watcher.cancel(false);
+            }
+        }
+
+        withRetry(monitor, "UI hierarchy dump", new Attempt<Void>() {
+            @Override
+            public Void run() throws Exception {
+                dumpAndPull(device, dst, monitor, compressed, metrics);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Disconnects the device's agent once the monitor is cancelled, which makes a blocked
+     * agent dump fail right away, like {@link CancellableReceiver} does for shell commands.
+     */
+    private static ScheduledFuture<?> watchForCancel(final IDevice device,
+            final IProgressMonitor monitor) {
+        return sCancelWatcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (monitor.isCanceled()) {
+                    HierarchyAgent.getInstance().disconnect(device);
+                    throw new OperationCanceledException(); // stops the schedule
+                }
+            }
+        }, CANCEL_POLL_MS, CANCEL_POLL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void dumpAndPull(IDevice device, File dst, IProgressMonitor monitor,
+            boolean compressed, CaptureMetrics metrics) throws Exception {
+        CaptureMetricsHistory history = CaptureMetricsHistory.getInstance();
+        String serial = device.getSerialNumber();
 
         monitor.subTask("Deleting old UI XML snapshot ...");
         String command = "rm " + UIDUMP_DEVICE_PATH;
 
+        long start = System.nanoTime();
         try {
-            CountDownLatch commandCompleteLatch = new CountDownLatch(1);
-            device.executeShellCommand(command,
-                    new CollectingOutputReceiver(commandCompleteLatch));
-            commandCompleteLatch.await(5, TimeUnit.SECONDS);
+            // executeShellCommand returns once the command is done, hung or cancelled
+            device.executeShellCommand(command, new CancellableReceiver(monitor),
+                    history.getTimeoutMillis(serial, Phase.DELETE_STALE,
+                            RM_TIMEOUT_MIN_MS, RM_TIMEOUT_MAX_MS), TimeUnit.MILLISECONDS);
         } catch (Exception e1) {
             // ignore exceptions while deleting stale files
         }
+        checkCanceled(monitor);
+        metrics.record(Phase.DELETE_STALE, start, 0);
 
         monitor.subTask("Taking UI XML snapshot...");
         if (compressed){
@@ -85,21 +375,24 @@ public class UiAutomatorHelper {
                     UIAUTOMATOR_DUMP_COMMAND,
                     UIDUMP_DEVICE_PATH);
         }
-        CountDownLatch commandCompleteLatch = new CountDownLatch(1);
-
-        try {
-            device.executeShellCommand(
-                    command,
-                    new CollectingOutputReceiver(commandCompleteLatch),
-                    XML_CAPTURE_TIMEOUT_SEC * 1000);
-            commandCompleteLatch.await(XML_CAPTURE_TIMEOUT_SEC, TimeUnit.SECONDS);
-
-            monitor.subTask("Pull UI XML snapshot from device...");
-            device.getSyncService().pullFile(UIDUMP_DEVICE_PATH,
-                    dst.getAbsolutePath(), SyncService.getNullProgressMonitor());
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        CancellableReceiver receiver = new CancellableReceiver(monitor);
+        start = System.nanoTime();
+        device.executeShellCommand(command, receiver,
+                history.getTimeoutMillis(serial, Phase.DUMP, DUMP_TIMEOUT_MIN_MS,
+                        XML_CAPTURE_TIMEOUT_SEC * 1000), TimeUnit.MILLISECONDS);
+        checkCanceled(monitor);
+        // e.g. "ERROR: could not get idle state.", nothing was written
+        String output = receiver.getOutput();
+        if (output != null && output.contains("ERROR")) {
+            throw new IOException(output.trim());
         }
+        metrics.record(Phase.DUMP, start, 0);
+
+        monitor.subTask("Pull UI XML snapshot from device...");
+        start = System.nanoTime();
+        // unlike getSyncService().pullFile(), this closes the sync connection again
+        device.pullFile(UIDUMP_DEVICE_PATH, dst.getAbsolutePath());
+        metrics.record(Phase.PULL, start, dst.length());
     }
 
     //to maintain a backward compatible api, use non-compressed as default snapshot type
@@ -110,6 +403,18 @@ public class UiAutomatorHelper {
 
     public static UiAutomatorResult takeSnapshot(IDevice device, IProgressMonitor monitor,
            boolean compressed) throws UiAutomatorException {
+        return takeSnapshot(device, monitor, compressed, Display.getDefault());
+    }
+
+    /**
+     * Captures hierarchy and screenshot of a device.
+     *
+     * @param display display to create the screenshot image on, or null to only return the
+     * screenshot's {@link UiAutomatorResult#screenshotData}, e.g. when running headless
+     * @throws OperationCanceledException as soon as the monitor is cancelled
+     */
+    public static UiAutomatorResult takeSnapshot(final IDevice device, IProgressMonitor monitor,
+           boolean compressed, Display display) throws UiAutomatorException {
         if (monitor == null) {
             monitor = new NullProgressMonitor();
         }
@@ -138,30 +443,60 @@ public class UiAutomatorHelper {
             throw new UiAutomatorException(msg, e);
         }
 
+        CaptureMetrics metrics = new CaptureMetrics(device.getSerialNumber());
+
         tmpDir.deleteOnExit();
         xmlDumpFile.deleteOnExit();
         screenshotFile.deleteOnExit();
 
+        if (Boolean.getBoolean(STABILIZE_PROPERTY)) {
+            monitor.subTask("Waiting for the screen to settle");
+            waitForStableScreen(device, monitor, metrics);
+        }
+
         monitor.subTask("Obtaining UI hierarchy");
         try {
-            UiAutomatorHelper.getUiHierarchyFile(device, xmlDumpFile, monitor, compressed);
+            UiAutomatorHelper.getUiHierarchyFile(device, xmlDumpFile, monitor, compressed,
+                    metrics);
+        } catch (OperationCanceledException e) {
+            throw e;
         } catch (Exception e) {
             String msg = "Error while obtaining UI hierarchy XML file: " + e.getMessage();
             throw new UiAutomatorException(msg, e);
         }
 
         UiAutomatorModel model;
+        long start = System.nanoTime();
         try {
             model = new UiAutomatorModel(xmlDumpFile);
+            metrics.record(Phase.PARSE, start, xmlDumpFile.length());
+            // from the cached device properties, e.g. for the touch target audit
+            int dpi = device.getDensity();
+            if (dpi > 0) {
+                model.setDensity(dpi / (float) BASELINE_DENSITY_DPI);
+            }
         } catch (Exception e) {
             String msg = "Error while parsing UI hierarchy XML file: " + e.getMessage();
             throw new UiAutomatorException(msg, e);
         }
 
+        checkCanceled(monitor);
         monitor.subTask("Obtaining device screenshot");
         RawImage rawImage;
+        start = System.nanoTime();
+        final long screenshotTimeout = CaptureMetricsHistory.getInstance().getTimeoutMillis(
+                device.getSerialNumber(), Phase.SCREENSHOT, SCREENSHOT_TIMEOUT_MIN_MS,
+                SCREENSHOT_TIMEOUT_MAX_MS);
         try {
-            rawImage = device.getScreenshot();
+            rawImage = withRetry(monitor, "Screenshot", new Attempt<RawImage>() {
+                @Override
+                public RawImage run() throws Exception {
+                    return device.getScreenshot(screenshotTimeout, TimeUnit.MILLISECONDS);
+                }
+            });
+            metrics.record(Phase.SCREENSHOT, start, rawImage.data.length);
+        } catch (OperationCanceledException e) {
+            throw e;
         } catch (Exception e) {
             String msg = "Error taking device screenshot: " + e.getMessage();
             throw new UiAutomatorException(msg, e);
@@ -175,6 +510,7 @@ public class UiAutomatorHelper {
 //                rawImage = rawImage.getRotated();
 //            }
 //        }
+        start = System.nanoTime();
         PaletteData palette = new PaletteData(
                 rawImage.getRedMask(),
                 rawImage.getGreenMask(),
@@ -184,9 +520,15 @@ public class UiAutomatorHelper {
         ImageLoader loader = new ImageLoader();
         loader.data = new ImageData[] { imageData };
         loader.save(screenshotFile.getAbsolutePath(), SWT.IMAGE_PNG);
-        Image screenshot = new Image(Display.getDefault(), imageData);
+        metrics.record(Phase.ENCODE, start, screenshotFile.length());
+        Image screenshot = display != null
+                ? GraphicsResources.getInstance().register(GraphicsResources.OWNER_SCREENSHOT,
+                        new Image(display, imageData))
+                : null;
 
-        return new UiAutomatorResult(xmlDumpFile, model, screenshot);
+        CaptureMetricsHistory.getInstance().record(metrics);
+
+        return new UiAutomatorResult(xmlDumpFile, model, screenshot, imageData, metrics);
     }
 
 
@@ -202,11 +544,25 @@ public class UiAutomatorHelper {
         public final File uiHierarchy;
         public final UiAutomatorModel model;
         public final Image screenshot;
+        // pixels of the screenshot, available without a display
+        public final ImageData screenshotData;
+        public final CaptureMetrics metrics;
 
         public UiAutomatorResult(File uiXml, UiAutomatorModel m, Image s) {
+            this(uiXml, m, s, null);
+        }
+
+        public UiAutomatorResult(File uiXml, UiAutomatorModel m, Image s, CaptureMetrics cm) {
+            this(uiXml, m, s, null, cm);
+        }
+
+        public UiAutomatorResult(File uiXml, UiAutomatorModel m, Image s, ImageData sd,
+                CaptureMetrics cm) {
             uiHierarchy = uiXml;
             model = m;
             screenshot = s;
+            screenshotData = sd;
+            metrics = cm;
         }
     }
 }
@@ -16,21 +16,35 @@
 
 package com.android.uiautomator;
 
+import com.android.uiautomator.jfr.FlightRecorderSupport;
+import com.android.uiautomator.jfr.HoverHitTestEvent;
+import com.android.uiautomator.jfr.ModelBuildEvent;
+import com.android.uiautomator.jfr.SearchEvent;
+import com.android.uiautomator.locator.LocatorIndex;
 import com.android.uiautomator.tree.AttributePair;
+import com.android.uiautomator.tree.AttributeProfile;
 import com.android.uiautomator.tree.BasicTreeNode;
 import com.android.uiautomator.tree.BasicTreeNode.IFindNodeListener;
+import com.android.uiautomator.tree.INodeAnalysis;
+import com.android.uiautomator.tree.NodeIndex;
+import com.android.uiautomator.tree.NodeVisitor;
+import com.android.uiautomator.tree.TreeWalker;
 import com.android.uiautomator.tree.UiHierarchyXmlLoader;
 import com.android.uiautomator.tree.UiNode;
 
 import org.eclipse.swt.graphics.Rectangle;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
 public class UiAutomatorModel {
+    // complete hierarchies at least this large are searched on the fork/join pool
+    private static final int PARALLEL_SEARCH_NODES = 5000;
+
     private BasicTreeNode mRootNode;
     private BasicTreeNode mSelectedNode;
     private Rectangle mCurrentDrawingRect;
@@ -42,12 +56,37 @@ public class UiAutomatorModel {
     private boolean mShowNafNodes = false;
     private List<BasicTreeNode> mNodelist;
     private Set<String> mSearchKeySet = new HashSet<String>();
+    // true while nodes are still being appended by a progressive load, volatile so that
+    // other threads see a completely loaded tree once it turns false
+    private volatile boolean mLoading = false;
+    // built once the hierarchy is complete
+    private volatile NodeIndex mNodeIndex;
+    // built on first use, from the node index
+    private LocatorIndex mLocatorIndex;
+    // pixels per dp of the device the dump was taken on, 0 if unknown
+    private volatile float mDensity;
 
     public UiAutomatorModel(File xmlDumpFile) {
+        this(xmlDumpFile, AttributeProfile.getDefault());
+    }
+
+    /**
+     * Loads a dump, storing node attributes as decided by the given profile.
+     *
+     * @param xmlDumpFile
+     * @param profile
+     */
+    public UiAutomatorModel(File xmlDumpFile, AttributeProfile profile) {
+        ModelBuildEvent event = null;
+        if (FlightRecorderSupport.isAvailable()) {
+            event = new ModelBuildEvent();
+            event.begin();
+        }
         mSearchKeySet.add("text");
         mSearchKeySet.add("content-desc");
 
         UiHierarchyXmlLoader loader = new UiHierarchyXmlLoader();
+        loader.setAttributeProfile(profile);
         BasicTreeNode rootNode = loader.parseXml(xmlDumpFile.getAbsolutePath());
         if (rootNode == null) {
             System.err.println("null rootnode after parsing.");
@@ -62,12 +101,120 @@ public class UiAutomatorModel {
         mRootNode = rootNode;
         mExploreMode = true;
         mNodelist = loader.getAllNodes();
+        mNodeIndex = new NodeIndex(mRootNode);
+        if (event != null) {
+            event.nodeCount = mNodelist.size();
+            event.nafCount = mNafNodes.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Creates a model around a root node whose descendants are still being loaded.
+     *
+     * The rest of the hierarchy is added with {@link #appendNodes(List)}, and
+     * {@link #finishLoading()} is called once the loader is done.
+     *
+     * @param rootNode
+     */
+    public UiAutomatorModel(BasicTreeNode rootNode) {
+        mSearchKeySet.add("text");
+        mSearchKeySet.add("content-desc");
+
+        mRootNode = rootNode;
+        mExploreMode = true;
+        mNafNodes = new ArrayList<Rectangle>();
+        mNodelist = new ArrayList<BasicTreeNode>();
+        mLoading = true;
+    }
+
+    /**
+     * Attaches a batch of nodes delivered by a progressive load.
+     *
+     * Must be called on the thread that owns the tree, i.e. the UI thread once the model
+     * has been handed to the view.
+     *
+     * @param nodes started nodes, in pre-order
+     */
+    public void appendNodes(List<BasicTreeNode> nodes) {
+        for (BasicTreeNode node : nodes) {
+            node.attachToParent();
+            mNodelist.add(node);
+            if (node instanceof UiNode && "true".equals(((UiNode) node).getAttribute("NAF"))) {
+                mNafNodes.add(new Rectangle(node.x, node.y, node.width, node.height));
+            }
+        }
+    }
+
+    public void finishLoading() {
+        mNodeIndex = new NodeIndex(mRootNode);
+        mLoading = false;
+    }
+
+    /**
+     * Creates a model around a hierarchy that is already complete, e.g. one restored from
+     * a session recording.
+     *
+     * @param rootNode
+     */
+    public static UiAutomatorModel fromTree(final BasicTreeNode rootNode) {
+        final UiAutomatorModel model = new UiAutomatorModel(rootNode);
+        TreeWalker.walk(rootNode, new NodeVisitor() {
+            @Override
+            public Action preVisit(BasicTreeNode node, int depth) {
+                if (node == rootNode) {
+                    return Action.CONTINUE;
+                }
+                model.mNodelist.add(node);
+                if (node instanceof UiNode
+                        && "true".equals(((UiNode) node).getAttribute("NAF"))) {
+                    model.mNafNodes.add(new Rectangle(node.x, node.y, node.width, node.height));
+                }
+                return Action.CONTINUE;
+            }
+        });
+        model.finishLoading();
+        return model;
+    }
+
+    public boolean isLoading() {
+        return mLoading;
+    }
+
+    /**
+     * @return pixels per dp of the device the dump was taken on, or 0 if unknown, e.g. for
+     * dumps opened from files
+     */
+    public float getDensity() {
+        return mDensity;
+    }
+
+    public void setDensity(float density) {
+        mDensity = density;
     }
 
     public BasicTreeNode getXmlRootNode() {
         return mRootNode;
     }
 
+    /**
+     * @return the index of the hierarchy, or null while it is still being loaded
+     */
+    public NodeIndex getNodeIndex() {
+        return mNodeIndex;
+    }
+
+    /**
+     * @return the locator index of the hierarchy, or null while it is still being loaded
+     */
+    public synchronized LocatorIndex getLocatorIndex() {
+        NodeIndex nodeIndex = mNodeIndex;
+        if (mLocatorIndex == null && nodeIndex != null) {
+            mLocatorIndex = new LocatorIndex(nodeIndex);
+        }
+        return mLocatorIndex;
+    }
+
     public BasicTreeNode getSelectedNode() {
         return mSelectedNode;
     }
@@ -101,13 +248,22 @@ public class UiAutomatorModel {
      */
     public BasicTreeNode updateSelectionForCoordinates(int x, int y) {
         BasicTreeNode node = null;
+        HoverHitTestEvent event = null;
+        if (FlightRecorderSupport.isAvailable()) {
+            event = new HoverHitTestEvent();
+            event.begin();
+        }
 
-        if (mRootNode != null) {
-            MinAreaFindNodeListener listener = new MinAreaFindNodeListener();
-            boolean found = mRootNode.findLeafMostNodesAtPoint(x, y, listener);
-            if (found && listener.mNode != null && !listener.mNode.equals(mSelectedNode)) {
-                node = listener.mNode;
-            }
+        BasicTreeNode hit = hitTest(x, y);
+        if (hit != null && !hit.equals(mSelectedNode)) {
+            node = hit;
+        }
+
+        if (event != null) {
+            event.x = x;
+            event.y = y;
+            event.found = node != null;
+            event.commit();
         }
 
         return node;
@@ -125,6 +281,29 @@ public class UiAutomatorModel {
         mExploreMode = exploreMode;
     }
 
+    /**
+     * Finds the smallest node containing the coordinate, regardless of the selection.
+     *
+     * @param x
+     * @param y
+     * @return the node, or null
+     */
+    public BasicTreeNode findNodeAt(int x, int y) {
+        return hitTest(x, y);
+    }
+
+    /**
+     * Finds the smallest leaf-most node containing the coordinate, across the whole tree.
+     */
+    private BasicTreeNode hitTest(int x, int y) {
+        if (mRootNode == null) {
+            return null;
+        }
+        MinAreaFindNodeListener listener = new MinAreaFindNodeListener();
+        mRootNode.findLeafMostNodesAtPoint(x, y, listener);
+        return listener.mNode;
+    }
+
     private static class MinAreaFindNodeListener implements IFindNodeListener {
         BasicTreeNode mNode = null;
 
@@ -153,18 +332,84 @@ public class UiAutomatorModel {
     }
 
     public List<BasicTreeNode> searchNode(String tofind) {
-        List<BasicTreeNode> result = new LinkedList<BasicTreeNode>();
-        for (BasicTreeNode node : mNodelist) {
-            Object[] attrs = node.getAttributesArray();
-            for (Object attr : attrs) {
-                if (!mSearchKeySet.contains(((AttributePair) attr).key))
-                    continue;
-                if (((AttributePair) attr).value.toLowerCase().contains(tofind.toLowerCase())) {
+        SearchEvent event = null;
+        if (FlightRecorderSupport.isAvailable()) {
+            event = new SearchEvent();
+            event.begin();
+        }
+        final String lowerCase = tofind.toLowerCase();
+        List<BasicTreeNode> result;
+        if (!mLoading && mNodelist.size() >= PARALLEL_SEARCH_NODES) {
+            // same pre-order as the node list, the root never matches
+            result = TreeWalker.walkParallel(mRootNode, new INodeAnalysis<List<BasicTreeNode>>() {
+                @Override
+                public List<BasicTreeNode> newResult() {
+                    return new ArrayList<BasicTreeNode>();
+                }
+
+                @Override
+                public void visit(BasicTreeNode node, List<BasicTreeNode> matches) {
+                    if (matchesSearch(node, lowerCase)) {
+                        matches.add(node);
+                    }
+                }
+
+                @Override
+                public List<BasicTreeNode> merge(List<BasicTreeNode> first,
+                        List<BasicTreeNode> second) {
+                    first.addAll(second);
+                    return first;
+                }
+            });
+        } else {
+            result = new LinkedList<BasicTreeNode>();
+            for (BasicTreeNode node : mNodelist) {
+                if (matchesSearch(node, lowerCase)) {
                     result.add(node);
-                    break;
                 }
             }
         }
+        if (event != null) {
+            event.query = tofind;
+            event.nodeCount = mNodelist.size();
+            event.resultCount = result.size();
+            event.commit();
+        }
         return result;
     }
+
+    /**
+     * Returns the nodes a search looks at: all nodes in pre-order once the hierarchy is
+     * complete, otherwise a copy of those loaded so far, which may then be searched on any
+     * thread. Must be called on the thread that owns the tree.
+     */
+    public List<BasicTreeNode> getSearchableNodes() {
+        NodeIndex index = mNodeIndex;
+        if (!mLoading && index != null) {
+            return index.getNodes();
+        }
+        return new ArrayList<BasicTreeNode>(mNodelist);
+    }
+
+    /**
+     * Returns whether one of the searched attributes of a node contains the term. Safe to
+     * call on any thread.
+     *
+     * @param node
+     * @param lowerCase the term, in lower case
+     */
+    public boolean matchesSearch(BasicTreeNode node, String lowerCase) {
+        Object[] attrs = node.getAttributesArray();
+        if (attrs == null) {
+            return false;
+        }
+        for (Object attr : attrs) {
+            if (!mSearchKeySet.contains(((AttributePair) attr).key))
+                continue;
+            if (((AttributePair) attr).value.toLowerCase().contains(lowerCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -18,10 +18,18 @@ package com.android.uiautomator;
 
 import com.android.uiautomator.actions.ExpandAllAction;
 import com.android.uiautomator.actions.ImageHelper;
+import com.android.uiautomator.actions.ToggleAuditAction;
 import com.android.uiautomator.actions.ToggleNafAction;
+import com.android.uiautomator.audit.AccessibilityAuditor;
+import com.android.uiautomator.audit.AuditFinding;
+import com.android.uiautomator.jfr.CanvasPaintEvent;
+import com.android.uiautomator.jfr.FlightRecorderSupport;
+import com.android.uiautomator.jfr.HoverFrameEvent;
+import com.android.uiautomator.locator.LocatorIndex;
 import com.android.uiautomator.tree.AttributePair;
 import com.android.uiautomator.tree.BasicTreeNode;
 import com.android.uiautomator.tree.BasicTreeNodeContentProvider;
+import com.android.uiautomator.tree.NodeIndex;
 import com.android.uiautomator.tree.UiNode;
 
 import org.eclipse.jface.action.ToolBarManager;
@@ -39,15 +47,21 @@ import org.eclipse.jface.viewers.StructuredSelection;
 import org.eclipse.jface.viewers.TableViewer;
 import org.eclipse.jface.viewers.TableViewerColumn;
 import org.eclipse.jface.viewers.TextCellEditor;
+import org.eclipse.jface.viewers.TreeSelection;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.custom.StackLayout;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.KeyListener;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.MouseAdapter;
 import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseMoveListener;
+import org.eclipse.swt.events.MouseWheelListener;
 import org.eclipse.swt.events.PaintEvent;
 import org.eclipse.swt.events.PaintListener;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -57,6 +71,7 @@ import org.eclipse.swt.graphics.Cursor;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.ImageLoader;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.graphics.Rectangle;
 import org.eclipse.swt.graphics.Transform;
 import org.eclipse.swt.layout.FillLayout;
@@ -78,11 +93,31 @@ import org.eclipse.swt.widgets.ToolItem;
 import org.eclipse.swt.widgets.Tree;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class UiAutomatorView extends Composite {
     private static final int IMG_BORDER = 2;
 
+    // mouse moves are coalesced: only the latest pointer position is processed, at most
+    // once per frame
+    private static final int HOVER_FRAME_MS = 16;
+    // the tree and the attribute table follow the hovered node once the pointer rests
+    private static final int HOVER_SETTLE_MS = 150;
+    // target for the time between a mouse move and its highlight being drawn, frames over
+    // it are flagged in HoverFrameEvent
+    private static final long HOVER_LATENCY_TARGET_NS = 50 * 1000000L;
+
+    // zoom is relative to the fit-to-window scale
+    private static final float MIN_ZOOM = 1.0f;
+    private static final float MAX_ZOOM = 32.0f;
+    private static final float ZOOM_STEP = 1.25f;
+
+    // name of the node detail row with the generated locator
+    private static final String LOCATOR_ROW = "(locator)";
+
     // The screenshot area is made of a stack layout of two components: screenshot canvas and
     // a "specify screenshot" button. If a screenshot is already available, then that is displayed
     // on the canvas. If it is not availble, then the "specify screenshot" button is displayed.
@@ -96,6 +131,11 @@ public class UiAutomatorView extends Composite {
 
     private float mScale = 1.0f;
     private int mDx, mDy;
+    private float mZoom = 1.0f;
+    private int mPanX, mPanY;
+    // last canvas position of a pan drag, null when not panning
+    private Point mPanStart;
+    private TiledScreenshot mTiledScreenshot;
 
     private UiAutomatorModel mModel;
     private File mModelFile;
@@ -110,16 +150,66 @@ public class UiAutomatorView extends Composite {
     private ToolItem coordinateLabel;
 
     private String mLastSearchedTerm;
+    private LiveSearch mLiveSearch;
 
     private Cursor mCrossCursor;
 
+    private final AccessibilityAuditor mAuditor = new AccessibilityAuditor();
+    // findings of the current model, null while the audit panel is hidden
+    private List<AuditFinding> mAuditFindings;
+    private AuditFinding mSelectedFinding;
+    private Composite mAuditComposite;
+    private Group mAuditGroup;
+    private TableViewer mAuditViewer;
+
+    // latest pointer position on the canvas, waiting for the next hover frame
+    private int mHoverX, mHoverY;
+    private long mHoverPendingSince;
+    private int mHoverCoalescedEvents;
+    private int mLastCoordinateX = -1, mLastCoordinateY = -1;
+    private BasicTreeNode mHoverSettleNode;
+
+    private final Runnable mHoverFrame = new Runnable() {
+        @Override
+        public void run() {
+            processHoverFrame();
+        }
+    };
+
+    private final Runnable mHoverSettle = new Runnable() {
+        @Override
+        public void run() {
+            BasicTreeNode node = mHoverSettleNode;
+            mHoverSettleNode = null;
+            if (node != null && mModel != null && mModel.getSelectedNode() == node
+                    && !mTreeViewer.getTree().isDisposed()) {
+                updateTreeSelection(node);
+            }
+        }
+    };
+
     public UiAutomatorView(Composite parent, int style) {
         super(parent, SWT.NONE);
         setLayout(new FillLayout());
 
         SashForm baseSash = new SashForm(this, SWT.HORIZONTAL);
         mOrginialCursor = getShell().getCursor();
-        mCrossCursor = new Cursor(getDisplay(), SWT.CURSOR_CROSS);
+        mCrossCursor = GraphicsResources.getInstance().register(GraphicsResources.OWNER_CURSORS,
+                new Cursor(getDisplay(), SWT.CURSOR_CROSS));
+        addDisposeListener(new DisposeListener() {
+            @Override
+            public void widgetDisposed(DisposeEvent e) {
+                mLiveSearch.shutdown();
+                GraphicsResources resources = GraphicsResources.getInstance();
+                resources.dispose(mCrossCursor);
+                resources.dispose(mScreenshot);
+                mScreenshot = null;
+                if (mTiledScreenshot != null) {
+                    mTiledScreenshot.dispose();
+                    mTiledScreenshot = null;
+                }
+            }
+        });
         mScreenshotComposite = new Composite(baseSash, SWT.BORDER);
         mStackLayout = new StackLayout();
         mScreenshotComposite.setLayout(mStackLayout);
@@ -143,13 +233,60 @@ public class UiAutomatorView extends Composite {
         });
 
         mScreenshotCanvas.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseDown(MouseEvent e) {
+                // middle or right button drags pan the zoomed screenshot
+                if (e.button == 2 || e.button == 3) {
+                    mPanStart = new Point(e.x, e.y);
+                }
+            }
+
             @Override
             public void mouseUp(MouseEvent e) {
+                if (mPanStart != null) {
+                    mPanStart = null;
+                    return;
+                }
                 if (mModel != null) {
                     mModel.toggleExploreMode();
                     redrawScreenshot();
                 }
             }
+
+            @Override
+            public void mouseDoubleClick(MouseEvent e) {
+                if (e.button == 2 || e.button == 3) {
+                    resetZoom();
+                }
+            }
+        });
+        mScreenshotCanvas.addMouseWheelListener(new MouseWheelListener() {
+            @Override
+            public void mouseScrolled(MouseEvent e) {
+                if (mScreenshot != null && e.count != 0) {
+                    zoomAt(e.x, e.y, e.count > 0 ? mZoom * ZOOM_STEP : mZoom / ZOOM_STEP);
+                }
+            }
+        });
+        mScreenshotCanvas.addKeyListener(new KeyListener() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (mScreenshot == null) {
+                    return;
+                }
+                Rectangle area = mScreenshotCanvas.getClientArea();
+                if (e.character == '+' || e.character == '=') {
+                    zoomAt(area.width / 2, area.height / 2, mZoom * ZOOM_STEP);
+                } else if (e.character == '-') {
+                    zoomAt(area.width / 2, area.height / 2, mZoom / ZOOM_STEP);
+                } else if (e.character == '0') {
+                    resetZoom();
+                }
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+            }
         });
         mScreenshotCanvas.setBackground(
                 getShell().getDisplay().getSystemColor(SWT.COLOR_WIDGET_BACKGROUND));
@@ -157,18 +294,33 @@ public class UiAutomatorView extends Composite {
             @Override
             public void paintControl(PaintEvent e) {
                 if (mScreenshot != null) {
+                    CanvasPaintEvent event = null;
+                    if (FlightRecorderSupport.isAvailable()) {
+                        event = new CanvasPaintEvent();
+                        event.begin();
+                    }
                     updateScreenshotTransformation();
-                    // shifting the image here, so that there's a border around screen shot
-                    // this makes highlighting red rectangles on the screen shot edges more visible
-                    Transform t = new Transform(e.gc.getDevice());
-                    t.translate(mDx, mDy);
-                    t.scale(mScale, mScale);
-                    e.gc.setTransform(t);
-                    e.gc.drawImage(mScreenshot, 0, 0);
-                    // this resets the transformation to identity transform, i.e. no change
-                    // we don't use transformation here because it will cause the line pattern
-                    // and line width of highlight rect to be scaled, causing to appear to be blurry
-                    e.gc.setTransform(null);
+                    if (mTiledScreenshot != null && mTiledScreenshot.isReady()) {
+                        // only the visible tiles, at the resolution closest to the scale
+                        mTiledScreenshot.paint(e.gc, mDx, mDy, mScale,
+                                new Rectangle(e.x, e.y, e.width, e.height));
+                    } else {
+                        // shifting the image here, so that there's a border around screen shot
+                        // this makes highlighting red rectangles on the screen shot edges more
+                        // visible
+                        Transform t = GraphicsResources.getInstance().register(
+                                GraphicsResources.OWNER_PAINT, new Transform(e.gc.getDevice()));
+                        t.translate(mDx, mDy);
+                        t.scale(mScale, mScale);
+                        e.gc.setTransform(t);
+                        e.gc.drawImage(mScreenshot, 0, 0);
+                        // this resets the transformation to identity transform, i.e. no change
+                        // we don't use transformation here because it will cause the line
+                        // pattern and line width of highlight rect to be scaled, causing to
+                        // appear to be blurry
+                        e.gc.setTransform(null);
+                        GraphicsResources.getInstance().dispose(t);
+                    }
                     if (mModel.shouldShowNafNodes()) {
                         // highlight the "Not Accessibility Friendly" nodes
                         e.gc.setForeground(e.gc.getDevice().getSystemColor(SWT.COLOR_YELLOW));
@@ -185,6 +337,25 @@ public class UiAutomatorView extends Composite {
                         }
                     }
 
+                    if (mAuditFindings != null) {
+                        // highlight the nodes with audit findings, the selected one bolder
+                        e.gc.setForeground(e.gc.getDevice().getSystemColor(SWT.COLOR_MAGENTA));
+                        e.gc.setBackground(e.gc.getDevice().getSystemColor(SWT.COLOR_MAGENTA));
+                        e.gc.setLineStyle(SWT.LINE_SOLID);
+                        for (AuditFinding finding : mAuditFindings) {
+                            UiNode node = finding.node;
+                            int x = mDx + getScaledSize(node.x);
+                            int y = mDy + getScaledSize(node.y);
+                            int width = getScaledSize(node.width);
+                            int height = getScaledSize(node.height);
+                            e.gc.setAlpha(40);
+                            e.gc.fillRectangle(x, y, width, height);
+                            e.gc.setAlpha(255);
+                            e.gc.setLineWidth(finding == mSelectedFinding ? 3 : 1);
+                            e.gc.drawRectangle(x, y, width, height);
+                        }
+                    }
+
                     // draw the search result rects
                     if (mSearchResult != null){
                         for (BasicTreeNode result : mSearchResult){
@@ -221,22 +392,38 @@ public class UiAutomatorView extends Composite {
                         e.gc.drawRectangle(mDx + getScaledSize(rect.x), mDy + getScaledSize(rect.y),
                                 getScaledSize(rect.width), getScaledSize(rect.height));
                     }
+
+                    if (event != null) {
+                        Rectangle image = mScreenshot.getBounds();
+                        event.imageWidth = image.width;
+                        event.imageHeight = image.height;
+                        event.overlayCount = (rect != null ? 1 : 0)
+                                + (mSearchResult != null ? mSearchResult.size() : 0)
+                                + (mModel.shouldShowNafNodes() ? mModel.getNafNodes().size() : 0)
+                                + (mAuditFindings != null ? mAuditFindings.size() : 0);
+                        event.commit();
+                    }
                 }
             }
         });
         mScreenshotCanvas.addMouseMoveListener(new MouseMoveListener() {
             @Override
             public void mouseMove(MouseEvent e) {
+                if (mPanStart != null) {
+                    mPanX += e.x - mPanStart.x;
+                    mPanY += e.y - mPanStart.y;
+                    mPanStart = new Point(e.x, e.y);
+                    mScreenshotCanvas.redraw();
+                    return;
+                }
                 if (mModel != null) {
-                    int x = getInverseScaledSize(e.x - mDx);
-                    int y = getInverseScaledSize(e.y - mDy);
-                    // show coordinate
-                    coordinateLabel.setText(String.format("(%d,%d)", x,y));
-                    if (mModel.isExploreMode()) {
-                        BasicTreeNode node = mModel.updateSelectionForCoordinates(x, y);
-                        if (node != null) {
-                            updateTreeSelection(node);
-                        }
+                    // only remember the position here, the work is done once per frame
+                    mHoverX = e.x;
+                    mHoverY = e.y;
+                    mHoverCoalescedEvents++;
+                    if (mHoverPendingSince == 0) {
+                        mHoverPendingSince = System.nanoTime();
+                        getDisplay().timerExec(HOVER_FRAME_MS, mHoverFrame);
                     }
                 }
             }
@@ -273,7 +460,11 @@ public class UiAutomatorView extends Composite {
                     return;
                 }
 
-                mScreenshot = new Image(Display.getDefault(), data[0]);
+                GraphicsResources.getInstance().dispose(mScreenshot);
+                mScreenshot = GraphicsResources.getInstance().register(
+                        GraphicsResources.OWNER_SCREENSHOT,
+                        new Image(Display.getDefault(), data[0]));
+                resetTiledScreenshot(data[0]);
                 redrawScreenshot();
             }
         });
@@ -290,6 +481,7 @@ public class UiAutomatorView extends Composite {
         ToolBarManager toolBarManager = new ToolBarManager(SWT.FLAT);
         toolBarManager.add(new ExpandAllAction(this));
         toolBarManager.add(new ToggleNafAction(this));
+        toolBarManager.add(new ToggleAuditAction(this));
         ToolBar searchtoolbar = toolBarManager.createControl(upperRightBase);
 
         // add search box and navigation buttons for search results
@@ -299,37 +491,43 @@ public class UiAutomatorView extends Composite {
         itemSeparator.setWidth(searchTextarea.getBounds().width);
         itemSeparator.setControl(searchTextarea);
         itemPrev = new ToolItem(searchtoolbar, SWT.SIMPLE);
-        itemPrev.setImage(ImageHelper.loadImageDescriptorFromResource("images/prev.png")
-                .createImage());
+        itemPrev.setImage(ImageHelper.getImage("images/prev.png"));
         itemNext = new ToolItem(searchtoolbar, SWT.SIMPLE);
-        itemNext.setImage(ImageHelper.loadImageDescriptorFromResource("images/next.png")
-                .createImage());
+        itemNext.setImage(ImageHelper.getImage("images/next.png"));
         itemDeleteAndInfo = new ToolItem(searchtoolbar, SWT.SIMPLE);
-        itemDeleteAndInfo.setImage(ImageHelper.loadImageDescriptorFromResource("images/delete.png")
-                .createImage());
+        itemDeleteAndInfo.setImage(ImageHelper.getImage("images/delete.png"));
         itemDeleteAndInfo.setToolTipText("Clear search results");
         coordinateLabel = new ToolItem(searchtoolbar, SWT.SIMPLE);
         coordinateLabel.setText("");
         coordinateLabel.setEnabled(false);
 
-        // add search function
+        // add search function, results are updated while typing
+        mLiveSearch = new LiveSearch(getDisplay(), new LiveSearch.IMatchListener() {
+            @Override
+            public void onMatches(String term, List<BasicTreeNode> matches, boolean first,
+                    boolean done) {
+                showSearchMatches(term, matches, first);
+            }
+        });
+        searchTextarea.addModifyListener(new ModifyListener() {
+            @Override
+            public void modifyText(ModifyEvent e) {
+                String term = searchTextarea.getText();
+                if (term.isEmpty()) {
+                    clearSearchResult();
+                } else if (mModel != null) {
+                    mLiveSearch.search(mModel, term);
+                }
+            }
+        });
         searchTextarea.addKeyListener(new KeyListener() {
             @Override
             public void keyReleased(KeyEvent event) {
                 if (event.keyCode == SWT.CR) {
                     String term = searchTextarea.getText();
-                    if (!term.isEmpty()) {
-                        if (term.equals(mLastSearchedTerm)) {
-                            nextSearchResult();
-                            return;
-                        }
-                        clearSearchResult();
-                        mSearchResult = mModel.searchNode(term);
-                        if (!mSearchResult.isEmpty()) {
-                            mSearchResultIndex = 0;
-                            updateSearchResultSelection();
-                            mLastSearchedTerm = term;
-                        }
+                    // until the matches of a new term arrive there is nothing to step through
+                    if (!term.isEmpty() && term.equals(mLastSearchedTerm)) {
+                        nextSearchResult();
                     }
                 }
             }
@@ -360,6 +558,8 @@ public class UiAutomatorView extends Composite {
 
         mTreeViewer = new TreeViewer(upperRightBase, SWT.NONE);
         mTreeViewer.setContentProvider(new BasicTreeNodeContentProvider());
+        // find the items of nodes through a map instead of walking the tree items
+        mTreeViewer.setUseHashlookup(true);
         // default LabelProvider uses toString() to generate text to display
         mTreeViewer.setLabelProvider(new LabelProvider());
         mTreeViewer.addSelectionChangedListener(new ISelectionChangedListener() {
@@ -435,10 +635,131 @@ public class UiAutomatorView extends Composite {
                 return super.getText(element);
             }
         });
+
+        createAuditPanel(rightSash);
+
         // sets the ratio of the vertical split: left 5 vs right 3
         baseSash.setWeights(new int[] {5, 3 });
     }
 
+    /**
+     * Creates the list of audit findings below the node details, hidden until an audit is
+     * run. Selecting a finding selects its node.
+     */
+    private void createAuditPanel(SashForm rightSash) {
+        mAuditComposite = new Composite(rightSash, SWT.BORDER);
+        mAuditComposite.setLayout(new FillLayout());
+        mAuditGroup = new Group(mAuditComposite, SWT.NONE);
+        mAuditGroup.setLayout(new FillLayout(SWT.HORIZONTAL));
+        mAuditGroup.setText("Audit");
+
+        Composite tableContainer = new Composite(mAuditGroup, SWT.NONE);
+        TableColumnLayout columnLayout = new TableColumnLayout();
+        tableContainer.setLayout(columnLayout);
+
+        mAuditViewer = new TableViewer(tableContainer, SWT.NONE | SWT.FULL_SELECTION);
+        Table table = mAuditViewer.getTable();
+        table.setLinesVisible(true);
+        table.setHeaderVisible(true);
+        mAuditViewer.setContentProvider(new ArrayContentProvider());
+
+        TableViewerColumn ruleColumn = new TableViewerColumn(mAuditViewer, SWT.NONE);
+        ruleColumn.getColumn().setText("Rule");
+        ruleColumn.setLabelProvider(new ColumnLabelProvider() {
+            @Override
+            public String getText(Object element) {
+                return ((AuditFinding) element).rule;
+            }
+        });
+        columnLayout.setColumnData(ruleColumn.getColumn(),
+                new ColumnWeightData(2, ColumnWeightData.MINIMUM_WIDTH, true));
+
+        TableViewerColumn nodeColumn = new TableViewerColumn(mAuditViewer, SWT.NONE);
+        nodeColumn.getColumn().setText("Node");
+        nodeColumn.setLabelProvider(new ColumnLabelProvider() {
+            @Override
+            public String getText(Object element) {
+                return ((AuditFinding) element).node.toString();
+            }
+        });
+        columnLayout.setColumnData(nodeColumn.getColumn(),
+                new ColumnWeightData(3, ColumnWeightData.MINIMUM_WIDTH, true));
+
+        TableViewerColumn detailColumn = new TableViewerColumn(mAuditViewer, SWT.NONE);
+        detailColumn.getColumn().setText("Detail");
+        detailColumn.setLabelProvider(new ColumnLabelProvider() {
+            @Override
+            public String getText(Object element) {
+                return ((AuditFinding) element).detail;
+            }
+        });
+        columnLayout.setColumnData(detailColumn.getColumn(),
+                new ColumnWeightData(3, ColumnWeightData.MINIMUM_WIDTH, true));
+
+        mAuditViewer.addSelectionChangedListener(new ISelectionChangedListener() {
+            @Override
+            public void selectionChanged(SelectionChangedEvent event) {
+                Object o = ((IStructuredSelection) event.getSelection()).getFirstElement();
+                mSelectedFinding = (AuditFinding) o;
+                if (mSelectedFinding != null) {
+                    // redraws the canvas through the tree's selection listener
+                    updateTreeSelection(mSelectedFinding.node);
+                } else {
+                    redrawScreenshot();
+                }
+            }
+        });
+
+        // the sash only lays out visible children
+        mAuditComposite.setVisible(false);
+    }
+
+    /**
+     * Handles the latest pointer position of the coalesced mouse moves.
+     *
+     * Hit-testing and the highlight happen right away; revealing the node in the tree and
+     * loading its attributes, which are much more expensive, wait until the pointer settles.
+     */
+    private void processHoverFrame() {
+        long pendingSince = mHoverPendingSince;
+        int coalesced = mHoverCoalescedEvents;
+        mHoverPendingSince = 0;
+        mHoverCoalescedEvents = 0;
+        if (mModel == null || mScreenshotCanvas.isDisposed()) {
+            return;
+        }
+
+        int x = getInverseScaledSize(mHoverX - mDx);
+        int y = getInverseScaledSize(mHoverY - mDy);
+        // show coordinate
+        if (x != mLastCoordinateX || y != mLastCoordinateY) {
+            mLastCoordinateX = x;
+            mLastCoordinateY = y;
+            coordinateLabel.setText("(" + x + "," + y + ")");
+        }
+
+        BasicTreeNode node = null;
+        if (mModel.isExploreMode()) {
+            // returns null while the pointer stays within the selected node
+            node = mModel.updateSelectionForCoordinates(x, y);
+            if (node != null) {
+                mModel.setSelectedNode(node);
+                mScreenshotCanvas.redraw();
+                mHoverSettleNode = node;
+                getDisplay().timerExec(HOVER_SETTLE_MS, mHoverSettle);
+            }
+        }
+
+        if (FlightRecorderSupport.isAvailable()) {
+            HoverFrameEvent event = new HoverFrameEvent();
+            event.coalescedEvents = coalesced;
+            event.latency = System.nanoTime() - pendingSince;
+            event.overTarget = event.latency > HOVER_LATENCY_TARGET_NS;
+            event.nodeChanged = node != null;
+            event.commit();
+        }
+    }
+
     protected void prevSearchResult() {
         if (mSearchResult == null)
             return;
@@ -452,7 +773,34 @@ public class UiAutomatorView extends Composite {
         }
         updateSearchResultSelection();
     }
+
+    /**
+     * Adds a batch of live search matches, replacing the previous term's matches on the
+     * first batch, and selects the first match once there is one.
+     */
+    private void showSearchMatches(String term, List<BasicTreeNode> matches, boolean first) {
+        if (mSearchResult == null || first) {
+            mSearchResult = new ArrayList<BasicTreeNode>();
+            mSearchResultIndex = 0;
+            mLastSearchedTerm = term;
+        }
+        boolean hadMatches = !mSearchResult.isEmpty();
+        mSearchResult.addAll(matches);
+        if (!mSearchResult.isEmpty()) {
+            if (hadMatches) {
+                itemDeleteAndInfo.setText("" + (mSearchResultIndex + 1) + "/"
+                        + mSearchResult.size());
+            } else {
+                updateSearchResultSelection();
+            }
+        } else {
+            itemDeleteAndInfo.setText("");
+        }
+        mScreenshotCanvas.redraw();
+    }
+
     protected void clearSearchResult() {
+        mLiveSearch.cancel();
         itemDeleteAndInfo.setText("");
         mSearchResult = null;
         mSearchResultIndex = 0;
@@ -498,11 +846,69 @@ public class UiAutomatorView extends Composite {
         float scaleX = (canvas.width - 2 * IMG_BORDER - 1) / (float) image.width;
         float scaleY = (canvas.height - 2 * IMG_BORDER - 1) / (float) image.height;
 
-        // use the smaller scale here so that we can fit the entire screenshot
-        mScale = Math.min(scaleX, scaleY);
-        // calculate translation values to center the image on the canvas
-        mDx = (canvas.width - getScaledSize(image.width) - IMG_BORDER * 2) / 2 + IMG_BORDER;
-        mDy = (canvas.height - getScaledSize(image.height) - IMG_BORDER * 2) / 2 + IMG_BORDER;
+        // use the smaller scale here so that we can fit the entire screenshot, then zoom
+        mScale = Math.min(scaleX, scaleY) * mZoom;
+        // calculate translation values to center the image on the canvas, then pan
+        mDx = (canvas.width - getScaledSize(image.width) - IMG_BORDER * 2) / 2 + IMG_BORDER
+                + mPanX;
+        mDy = (canvas.height - getScaledSize(image.height) - IMG_BORDER * 2) / 2 + IMG_BORDER
+                + mPanY;
+    }
+
+    /**
+     * Changes the zoom while keeping the screenshot pixel under the given canvas position
+     * in place.
+     */
+    private void zoomAt(int canvasX, int canvasY, float zoom) {
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+        if (zoom == mZoom) {
+            return;
+        }
+        updateScreenshotTransformation();
+        float imageX = (canvasX - mDx) / mScale;
+        float imageY = (canvasY - mDy) / mScale;
+        mZoom = zoom;
+        mPanX = 0;
+        mPanY = 0;
+        updateScreenshotTransformation();
+        mPanX = canvasX - mDx - Math.round(imageX * mScale);
+        mPanY = canvasY - mDy - Math.round(imageY * mScale);
+        if (mZoom == MIN_ZOOM) {
+            // back to fit-to-window, center again
+            mPanX = 0;
+            mPanY = 0;
+        }
+        mScreenshotCanvas.redraw();
+    }
+
+    private void resetZoom() {
+        mZoom = 1.0f;
+        mPanX = 0;
+        mPanY = 0;
+        mScreenshotCanvas.redraw();
+    }
+
+    /**
+     * Starts building the tile pyramid of a new screenshot, replacing the previous one.
+     */
+    private void resetTiledScreenshot(ImageData data) {
+        if (mTiledScreenshot != null) {
+            mTiledScreenshot.dispose();
+            mTiledScreenshot = null;
+        }
+        mZoom = 1.0f;
+        mPanX = 0;
+        mPanY = 0;
+        if (data != null) {
+            mTiledScreenshot = new TiledScreenshot(getDisplay(), data, new Runnable() {
+                @Override
+                public void run() {
+                    if (!mScreenshotCanvas.isDisposed()) {
+                        mScreenshotCanvas.redraw();
+                    }
+                }
+            });
+        }
     }
 
     private class AttributeTableEditingSupport extends EditingSupport {
@@ -526,6 +932,15 @@ public class UiAutomatorView extends Composite {
 
         @Override
         protected Object getValue(Object o) {
+            // show the complete value when the cell is opened, even if it was truncated
+            // by the attribute profile when the dump was loaded
+            BasicTreeNode selected = mModel != null ? mModel.getSelectedNode() : null;
+            if (selected instanceof UiNode) {
+                String value = ((UiNode) selected).getFullAttribute(((AttributePair) o).key);
+                if (value != null) {
+                    return value;
+                }
+            }
             return ((AttributePair) o).value;
         }
 
@@ -557,7 +972,18 @@ public class UiAutomatorView extends Composite {
 
     public void loadAttributeTable() {
         // update the lower right corner table to show the attributes of the node
-        mTableViewer.setInput(mModel.getSelectedNode().getAttributesArray());
+        BasicTreeNode node = mModel.getSelectedNode();
+        Object[] attributes = node.getAttributesArray();
+        LocatorIndex locators = mModel.getLocatorIndex();
+        String locator = locators != null ? locators.getLocator(node) : null;
+        if (locator != null) {
+            // shown first, above the attributes of the dump
+            Object[] rows = new Object[attributes.length + 1];
+            rows[0] = new AttributePair(LOCATOR_ROW, locator);
+            System.arraycopy(attributes, 0, rows, 1, attributes.length);
+            attributes = rows;
+        }
+        mTableViewer.setInput(attributes);
     }
 
     public void expandAll() {
@@ -565,17 +991,26 @@ public class UiAutomatorView extends Composite {
     }
 
     public void updateTreeSelection(BasicTreeNode node) {
-        mTreeViewer.setSelection(new StructuredSelection(node), true);
+        NodeIndex index = mModel != null ? mModel.getNodeIndex() : null;
+        if (index != null && index.contains(node)) {
+            // the viewer expands exactly the given path, without asking for parents
+            mTreeViewer.setSelection(new TreeSelection(index.getTreePath(node)), true);
+        } else {
+            mTreeViewer.setSelection(new StructuredSelection(node), true);
+        }
     }
 
     public void setModel(UiAutomatorModel model, File modelBackingFile, Image screenshot) {
+        // drop hover work that refers to the previous model
+        mHoverSettleNode = null;
         mModel = model;
         mModelFile = modelBackingFile;
 
-        if (mScreenshot != null) {
-            mScreenshot.dispose();
+        if (mScreenshot != screenshot) {
+            GraphicsResources.getInstance().dispose(mScreenshot);
         }
         mScreenshot = screenshot;
+        resetTiledScreenshot(screenshot != null ? screenshot.getImageData() : null);
         clearSearchResult();
         redrawScreenshot();
         // load xml into tree
@@ -585,7 +1020,56 @@ public class UiAutomatorView extends Composite {
         wrapper.addChild(mModel.getXmlRootNode());
         setInputHierarchy(wrapper);
         mTreeViewer.getTree().setFocus();
+        if (mAuditFindings != null) {
+            runAudit();
+        }
+
+    }
+
+    /**
+     * Adds a batch of nodes from a progressive load to the model and to the tree.
+     *
+     * @param model the model the nodes belong to, batches of any other model are dropped
+     * @param nodes started nodes, in pre-order
+     */
+    public void appendNodes(UiAutomatorModel model, List<BasicTreeNode> nodes) {
+        if (mModel == null || mModel != model) {
+            // left over from a load that was replaced by another model
+            return;
+        }
+        mModel.appendNodes(nodes);
+
+        // group the new nodes by parent so that each tree item is only updated once
+        Map<BasicTreeNode, List<BasicTreeNode>> added =
+                new LinkedHashMap<BasicTreeNode, List<BasicTreeNode>>();
+        for (BasicTreeNode node : nodes) {
+            List<BasicTreeNode> children = added.get(node.getParent());
+            if (children == null) {
+                children = new ArrayList<BasicTreeNode>();
+                added.put(node.getParent(), children);
+            }
+            children.add(node);
+        }
+        for (Map.Entry<BasicTreeNode, List<BasicTreeNode>> entry : added.entrySet()) {
+            mTreeViewer.add(entry.getKey(), entry.getValue().toArray());
+        }
+        if (mModel.shouldShowNafNodes()) {
+            mScreenshotCanvas.redraw();
+        }
+    }
 
+    /**
+     * @param model the model whose load completed, ignored unless it is still shown
+     */
+    public void finishLoading(UiAutomatorModel model) {
+        if (mModel != null && mModel == model) {
+            mModel.finishLoading();
+            if (mAuditFindings != null) {
+                // the audit so far only saw the nodes loaded before
+                runAudit();
+                redrawScreenshot();
+            }
+        }
     }
 
     public boolean shouldShowNafNodes() {
@@ -598,6 +1082,40 @@ public class UiAutomatorView extends Composite {
         }
     }
 
+    public boolean shouldShowAudit() {
+        return mAuditFindings != null;
+    }
+
+    /**
+     * Audits the current model and shows the findings, or hides them if they are shown.
+     */
+    public void toggleShowAudit() {
+        if (mAuditFindings != null) {
+            mAuditFindings = null;
+            mSelectedFinding = null;
+            mAuditViewer.setInput(null);
+            mAuditComposite.setVisible(false);
+            mAuditComposite.getParent().layout();
+        } else if (mModel != null) {
+            runAudit();
+        }
+    }
+
+    private void runAudit() {
+        String source = mModelFile != null ? mModelFile.getPath() : "";
+        // the screenshot shows the whole screen, unlike the top level nodes of some dumps
+        Rectangle screen = mScreenshot != null ? mScreenshot.getBounds() : null;
+        mAuditFindings = mAuditor.audit(source, mModel.getSearchableNodes(), screen,
+                mModel.getDensity());
+        mSelectedFinding = null;
+        mAuditViewer.setInput(mAuditFindings);
+        mAuditGroup.setText("Audit (" + mAuditFindings.size() + ")");
+        if (!mAuditComposite.getVisible()) {
+            mAuditComposite.setVisible(true);
+            mAuditComposite.getParent().layout();
+        }
+    }
+
     public Image getScreenShot() {
         return mScreenshot;
     }
@@ -16,9 +16,24 @@
 
 package com.android.uiautomator;
 
+import com.android.uiautomator.UiAutomatorHelper.UiAutomatorResult;
+import com.android.uiautomator.actions.CancelCapturesAction;
+import com.android.uiautomator.actions.ExportCaptureMetricsAction;
+import com.android.uiautomator.agent.HierarchyAgent;
+import com.android.uiautomator.api.LocalApiServer;
+import com.android.uiautomator.actions.FlightRecordingAction;
+import com.android.uiautomator.actions.LiveScreenAction;
 import com.android.uiautomator.actions.OpenFilesAction;
+import com.android.uiautomator.actions.OpenSessionAction;
+import com.android.uiautomator.actions.RecordSessionAction;
 import com.android.uiautomator.actions.SaveScreenShotAction;
 import com.android.uiautomator.actions.ScreenshotAction;
+import com.android.uiautomator.sim.SimulatedDevice;
+import com.android.uiautomator.sim.SimulationConfig;
+import com.android.uiautomator.snapshot.SessionWriter;
+import com.android.uiautomator.snapshot.Snapshot;
+import com.android.uiautomator.snapshot.SnapshotStore;
+import com.android.uiautomator.tree.BasicTreeNode;
 
 import org.eclipse.jface.action.ToolBarManager;
 import org.eclipse.jface.window.ApplicationWindow;
@@ -30,15 +45,41 @@ import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.swt.widgets.ToolBar;
 
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.List;
 
 public class UiAutomatorViewer extends ApplicationWindow {
+    // time from JVM start to the first paint of the window that startup should stay within
+    private static final long FIRST_PAINT_TARGET_MS = 1500;
+    // captures kept in the snapshot store before it starts over from the latest one
+    private static final int MAX_SNAPSHOTS = 50;
+    // closes the window right after its first paint, used for class data sharing training
+    private static final String EXIT_AFTER_STARTUP_PROPERTY =
+            "uiautomatorviewer.exitAfterStartup";
+    // prints the time to the first paint of the window
+    private static final String REPORT_STARTUP_PROPERTY = "uiautomatorviewer.reportStartup";
+
     private UiAutomatorView mUiAutomatorView;
+    // the recent device captures, sharing unchanged subtrees, guarded by this
+    private SnapshotStore mSnapshotStore = new SnapshotStore();
+    // what the view shows, readable from any thread
+    private volatile UiAutomatorModel mCurrentModel;
+    private volatile File mCurrentModelFile;
+    // appends every capture while a session is being recorded
+    private volatile SessionWriter mSessionWriter;
+    private final CaptureQueue mCaptureQueue;
+
     public UiAutomatorViewer() {
         super(null);
+        addStatusLine();
+        mCaptureQueue = new CaptureQueue(this, Display.getDefault());
     }
 
     @Override
@@ -59,26 +100,118 @@ public class UiAutomatorViewer extends ApplicationWindow {
         toolBarManager.add(new OpenFilesAction(this));
         toolBarManager.add(new ScreenshotAction(this,false));
         toolBarManager.add(new ScreenshotAction(this,true));
+        toolBarManager.add(new CancelCapturesAction(this));
         toolBarManager.add(new SaveScreenShotAction(this));
+        toolBarManager.add(new ExportCaptureMetricsAction(this));
+        toolBarManager.add(new FlightRecordingAction(this));
+        toolBarManager.add(new RecordSessionAction(this));
+        toolBarManager.add(new OpenSessionAction(this));
+        toolBarManager.add(new LiveScreenAction(this));
         ToolBar tb = toolBarManager.createControl(c);
         tb.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 
         mUiAutomatorView = new UiAutomatorView(c, SWT.BORDER);
         mUiAutomatorView.setLayoutData(new GridData(GridData.FILL_BOTH));
 
+        if (DebugBridge.isInitializing()) {
+            setStatus("Connecting to adb...");
+        }
+        // only on request, this loads java.lang.management on the startup path
+        if (Boolean.getBoolean(REPORT_STARTUP_PROPERTY)
+                || Boolean.getBoolean(EXIT_AFTER_STARTUP_PROPERTY)) {
+            measureFirstPaint(parent.getDisplay());
+        }
+
         return parent;
     }
 
+    private void measureFirstPaint(final Display display) {
+        display.addFilter(SWT.Paint, new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                display.removeFilter(SWT.Paint, this);
+                long elapsed = System.currentTimeMillis()
+                        - ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.out.println("First paint " + elapsed + "ms after JVM start"
+                        + (elapsed > FIRST_PAINT_TARGET_MS
+                                ? " (target " + FIRST_PAINT_TARGET_MS + "ms)" : ""));
+                if (Boolean.getBoolean(EXIT_AFTER_STARTUP_PROPERTY)) {
+                    display.asyncExec(new Runnable() {
+                        @Override
+                        public void run() {
+                            close();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports the outcome of the background adb initialization in the status line.
+     * Safe to call from any thread.
+     */
+    private void showBridgeStatus(Display display) {
+        final String status = DebugBridge.isInitialized()
+                ? "adb connected" : "Unable to connect to adb";
+        if (display.isDisposed()) {
+            return;
+        }
+        display.asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (getShell() != null && !getShell().isDisposed()) {
+                    setStatus(status);
+                }
+            }
+        });
+    }
+
     public static void main(String args[]) {
-        DebugBridge.init();
+        // the display must exist on this thread before anything else may touch it
+        final Display display = Display.getDefault();
 
+        LocalApiServer apiServer = null;
         try {
-            UiAutomatorViewer window = new UiAutomatorViewer();
+            final UiAutomatorViewer window = new UiAutomatorViewer();
+            String simulate = System.getProperty(SimulationConfig.SIMULATE_PROPERTY);
+            if (simulate != null) {
+                DebugBridge.useSimulatedDevices(SimulatedDevice.createDevices(
+                        Integer.getInteger(SimulationConfig.DEVICES_PROPERTY, 1),
+                        SimulatedDevice.loadRecordings(new File(simulate)),
+                        SimulationConfig.fromSystemProperties()));
+            } else {
+                // open the window right away, adb comes up in the background
+                DebugBridge.initAsync(new Runnable() {
+                    @Override
+                    public void run() {
+                        window.showBridgeStatus(display);
+                    }
+                });
+            }
+            String apiPort = System.getProperty(LocalApiServer.PORT_PROPERTY);
+            if (apiPort != null) {
+                apiServer = new LocalApiServer(window);
+                apiServer.start(Integer.parseInt(apiPort));
+                System.out.println("Local API listening on 127.0.0.1:" + apiServer.getPort()
+                        + ", token " + apiServer.getToken());
+            }
             window.setBlockOnOpen(true);
             window.open();
+            window.getCaptureQueue().shutdown();
+            window.stopSessionRecording();
+            // everything the window owned has been disposed with it by now
+            if (GraphicsResources.getInstance().getLiveCount() > 0) {
+                System.err.println("Native graphics resources left at exit: "
+                        + GraphicsResources.getInstance());
+            }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
+            if (apiServer != null) {
+                apiServer.stop();
+            }
+            HierarchyAgent.getInstance().closeAll();
             DebugBridge.terminate();
         }
     }
@@ -96,6 +229,8 @@ public class UiAutomatorViewer extends ApplicationWindow {
 
     public void setModel(final UiAutomatorModel model, final File modelFile,
                                                                 final Image screenshot) {
+        mCurrentModel = model;
+        mCurrentModelFile = modelFile;
         if (Display.getDefault().getThread() != Thread.currentThread()) {
             Display.getDefault().syncExec(new Runnable() {
                 @Override
@@ -107,6 +242,144 @@ public class UiAutomatorViewer extends ApplicationWindow {
             mUiAutomatorView.setModel(model, modelFile, screenshot);
         }
     }
+
+    /**
+     * Hands a batch of progressively loaded nodes to the view. Safe to call from any thread;
+     * the nodes are attached asynchronously on the UI thread, after any pending
+     * {@link #setModel(UiAutomatorModel, File, Image)}.
+     */
+    public void appendNodes(final UiAutomatorModel model, final List<BasicTreeNode> nodes) {
+        Display.getDefault().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                mUiAutomatorView.appendNodes(model, nodes);
+            }
+        });
+    }
+
+    /**
+     * Completes the progressive load of a model, if it is still the one shown.
+     */
+    public void finishLoading(final UiAutomatorModel model) {
+        Display.getDefault().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                mUiAutomatorView.finishLoading(model);
+            }
+        });
+    }
+
+    /**
+     * Shows the result of a device capture, recording it in the session's snapshot store.
+     * Safe to call from any thread; the view, and with it {@link #getCurrentModel()}, is
+     * updated asynchronously on the UI thread, so the caller never waits for it.
+     */
+    public void setCaptureResult(final UiAutomatorResult result, String serial) {
+        final boolean unchanged = recordSnapshot(result.model, serial);
+        appendToSession(result, serial);
+        Display.getDefault().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                if (getShell() == null || getShell().isDisposed()) {
+                    GraphicsResources.getInstance().dispose(result.screenshot);
+                    return;
+                }
+                setModel(result.model, result.uiHierarchy, result.screenshot);
+                if (result.metrics != null) {
+                    showCaptureMetrics(result.metrics, unchanged);
+                }
+            }
+        });
+    }
+
+    public CaptureQueue getCaptureQueue() {
+        return mCaptureQueue;
+    }
+
+    /**
+     * @return the model currently shown, or null. Safe to call from any thread, but the
+     * tree must not be read while {@link UiAutomatorModel#isLoading()}.
+     */
+    public UiAutomatorModel getCurrentModel() {
+        return mCurrentModel;
+    }
+
+    public File getCurrentModelFile() {
+        return mCurrentModelFile;
+    }
+
+    /**
+     * Keeps a device capture in the snapshot store. The store only holds the last
+     * {@link #MAX_SNAPSHOTS} or fewer captures; use a session recording to keep them all.
+     *
+     * @return true if its hierarchy is identical to the previous capture's
+     */
+    public synchronized boolean recordSnapshot(UiAutomatorModel model, String label) {
+        Snapshot previous = mSnapshotStore.getLatest();
+        Snapshot snapshot = mSnapshotStore.add(model.getXmlRootNode(), label);
+        if (mSnapshotStore.getSnapshots().size() >= MAX_SNAPSHOTS) {
+            // the store only grows, so start over with the latest capture, dropping every
+            // node that only older captures used
+            mSnapshotStore = new SnapshotStore();
+            mSnapshotStore.add(model.getXmlRootNode(), label);
+        }
+        return snapshot.sameHierarchyAs(previous);
+    }
+
+    public synchronized SnapshotStore getSnapshotStore() {
+        return mSnapshotStore;
+    }
+
+    /**
+     * Starts appending every following device capture to a session recording.
+     */
+    public synchronized void startSessionRecording(File file) throws IOException {
+        stopSessionRecording();
+        mSessionWriter = new SessionWriter(file);
+    }
+
+    public synchronized void stopSessionRecording() throws IOException {
+        SessionWriter writer = mSessionWriter;
+        mSessionWriter = null;
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    public boolean isRecordingSession() {
+        return mSessionWriter != null;
+    }
+
+    private void appendToSession(UiAutomatorResult result, String serial) {
+        // read without the lock, the recording may be stopped meanwhile, in which case the
+        // closed writer ignores the frame
+        SessionWriter writer = mSessionWriter;
+        if (writer == null || result.screenshot == null) {
+            return;
+        }
+        try {
+            writer.append(result.model.getXmlRootNode(), result.screenshotData != null
+                    ? result.screenshotData : result.screenshot.getImageData(), serial);
+        } catch (IOException e) {
+            // a broken recording must not get in the way of the capture itself
+            System.err.println("Unable to record capture: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Shows the phase timings of a capture in the status line. Safe to call from any thread.
+     */
+    public void showCaptureMetrics(CaptureMetrics metrics, boolean unchanged) {
+        final String status = metrics.getSerial() + ": " + metrics
+                + (unchanged ? " (hierarchy unchanged)" : "");
+        Display.getDefault().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                setStatus(status);
+            }
+        });
+    }
+
     public Image getScreenShot() {
         return mUiAutomatorView.getScreenShot();
     }
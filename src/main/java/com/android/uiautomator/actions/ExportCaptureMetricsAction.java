@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.actions;
+
+import com.android.uiautomator.CaptureMetricsHistory;
+import com.android.uiautomator.UiAutomatorViewer;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Saves the per-device capture latency percentiles as CSV or JSON, depending on the
+ * extension picked by the user.
+ */
+public class ExportCaptureMetricsAction extends Action {
+    private UiAutomatorViewer mViewer;
+
+    public ExportCaptureMetricsAction(UiAutomatorViewer viewer) {
+        super("Export Capture &Metrics");
+        mViewer = viewer;
+    }
+
+    @Override
+    public void run() {
+        FileDialog fd = new FileDialog(mViewer.getShell(), SWT.SAVE);
+        fd.setText("Export Capture Metrics");
+        fd.setFilterExtensions(new String[] {"*.csv", "*.json" });
+        fd.setFileName("capture-metrics.csv");
+        fd.setOverwrite(true);
+        String path = fd.open();
+        if (path == null) {
+            return;
+        }
+
+        Writer out = null;
+        try {
+            out = new OutputStreamWriter(new FileOutputStream(path), "UTF-8");
+            if (path.toLowerCase().endsWith(".json")) {
+                CaptureMetricsHistory.getInstance().writeJson(out);
+            } else {
+                CaptureMetricsHistory.getInstance().writeCsv(out);
+            }
+        } catch (IOException e) {
+            Status status = new Status(IStatus.ERROR, "Error writing file",
+                    e.getLocalizedMessage());
+            ErrorDialog.openError(mViewer.getShell(), String.format("Error writing %s", path),
+                    e.getLocalizedMessage(), status);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.actions;
+
+import com.android.uiautomator.UiAutomatorViewer;
+import com.android.uiautomator.jfr.FlightRecorderSupport;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Starts a Java Flight Recorder recording of the viewer's hot paths, and on the next
+ * invocation stops it and saves it to a .jfr file.
+ */
+public class FlightRecordingAction extends Action {
+    private UiAutomatorViewer mViewer;
+
+    public FlightRecordingAction(UiAutomatorViewer viewer) {
+        super("&Record Flight Recording", IAction.AS_CHECK_BOX);
+        mViewer = viewer;
+        setEnabled(FlightRecorderSupport.isAvailable());
+        setChecked(FlightRecorderSupport.isRecording());
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!FlightRecorderSupport.isRecording()) {
+                FlightRecorderSupport.startRecording();
+            } else {
+                FileDialog fd = new FileDialog(mViewer.getShell(), SWT.SAVE);
+                fd.setText("Save Flight Recording");
+                fd.setFilterExtensions(new String[] {"*.jfr" });
+                fd.setFileName("uiautomatorviewer.jfr");
+                fd.setOverwrite(true);
+                String path = fd.open();
+                if (path != null) {
+                    FlightRecorderSupport.dumpRecording(new File(path));
+                }
+            }
+        } catch (IOException e) {
+            Status status = new Status(IStatus.ERROR, "Flight Recording",
+                    e.getLocalizedMessage(), e);
+            ErrorDialog.openError(mViewer.getShell(), "Error",
+                    "Error while handling flight recording", status);
+        }
+        setChecked(FlightRecorderSupport.isRecording());
+    }
+}
@@ -17,16 +17,56 @@
 package com.android.uiautomator.actions;
 
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.jface.resource.ImageRegistry;
 import org.eclipse.swt.SWTException;
+import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.ImageLoader;
+import org.eclipse.swt.widgets.Display;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ImageHelper {
+    // every resource is decoded once; actions ask for their descriptor each time they
+    // are shown
+    private static final Map<String, ImageDescriptor> sDescriptors =
+            new HashMap<String, ImageDescriptor>();
+    // images shared by all widgets, disposed together with the display
+    private static ImageRegistry sImageRegistry;
 
-    public static ImageDescriptor loadImageDescriptorFromResource(String path) {
+    public static synchronized ImageDescriptor loadImageDescriptorFromResource(String path) {
+        if (sDescriptors.containsKey(path)) {
+            return sDescriptors.get(path);
+        }
+        ImageDescriptor descriptor = decodeResource(path);
+        sDescriptors.put(path, descriptor);
+        return descriptor;
+    }
+
+    /**
+     * Returns a shared image for a resource. Must be called on the UI thread, and the
+     * image must not be disposed by the caller.
+     */
+    public static Image getImage(String path) {
+        if (sImageRegistry == null) {
+            sImageRegistry = new ImageRegistry(Display.getCurrent());
+        }
+        Image image = sImageRegistry.get(path);
+        if (image == null) {
+            ImageDescriptor descriptor = loadImageDescriptorFromResource(path);
+            if (descriptor == null) {
+                return null;
+            }
+            sImageRegistry.put(path, descriptor);
+            image = sImageRegistry.get(path);
+        }
+        return image;
+    }
+
+    private static ImageDescriptor decodeResource(String path) {
         InputStream is = ImageHelper.class.getClassLoader().getResourceAsStream(path);
         if (is != null) {
             ImageData[] data = null;
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.actions;
+
+import com.android.ddmlib.AndroidDebugBridge;
+import com.android.ddmlib.IDevice;
+import com.android.uiautomator.LiveScreenWindow;
+import com.android.uiautomator.UiAutomatorViewer;
+import com.android.uiautomator.stream.ScreencapStream;
+
+import org.eclipse.jface.action.Action;
+
+/**
+ * Opens a window streaming the screen of a device, with the current hierarchy overlaid.
+ */
+public class LiveScreenAction extends Action {
+    private UiAutomatorViewer mViewer;
+
+    public LiveScreenAction(UiAutomatorViewer viewer) {
+        super("&Live Screen");
+        mViewer = viewer;
+    }
+
+    @Override
+    public void run() {
+        if (!ScreenshotAction.checkBridge(mViewer.getShell())) {
+            return;
+        }
+        IDevice device = ScreenshotAction.pickDevice(mViewer.getShell());
+        if (device == null) {
+            return;
+        }
+        int apiLevel;
+        try {
+            apiLevel = Integer.parseInt(device.getProperty(IDevice.PROP_BUILD_API_LEVEL));
+        } catch (NumberFormatException e) {
+            apiLevel = 0;
+        }
+        ScreencapStream stream = new ScreencapStream(AndroidDebugBridge.getSocketAddress(),
+                device.getSerialNumber(), apiLevel);
+        new LiveScreenWindow(mViewer, stream, device.getName()).open();
+    }
+}
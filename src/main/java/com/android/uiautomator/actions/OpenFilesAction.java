@@ -16,11 +16,18 @@
 
 package com.android.uiautomator.actions;
 
+import com.android.uiautomator.GraphicsResources;
 import com.android.uiautomator.OpenDialog;
 import com.android.uiautomator.UiAutomatorModel;
 import com.android.uiautomator.UiAutomatorViewer;
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.IProgressiveLoadListener;
+import com.android.uiautomator.tree.UiHierarchyXmlLoader;
 
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.action.Action;
+import org.eclipse.jface.dialogs.ErrorDialog;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
@@ -28,8 +35,12 @@ import org.eclipse.swt.graphics.ImageLoader;
 import org.eclipse.swt.widgets.Display;
 
 import java.io.File;
+import java.util.List;
 
 public class OpenFilesAction extends Action {
+    // dumps larger than this are shown while they are still being parsed
+    private static final long PROGRESSIVE_LOAD_THRESHOLD = 512 * 1024;
+
     private UiAutomatorViewer mViewer;
 
     public OpenFilesAction(UiAutomatorViewer viewer) {
@@ -50,14 +61,6 @@ public class OpenFilesAction extends Action {
             return;
         }
 
-        UiAutomatorModel model;
-        try {
-            model = new UiAutomatorModel(d.getXmlDumpFile());
-        } catch (Exception e) {
-            // FIXME: show error
-            return;
-        }
-
         Image img = null;
         File screenshot = d.getScreenshotFile();
         if (screenshot != null) {
@@ -71,13 +74,91 @@ public class OpenFilesAction extends Action {
                             + screenshot.getAbsolutePath());
                 }
 
-                img = new Image(Display.getDefault(), data[0]);
+                img = GraphicsResources.getInstance().register(
+                        GraphicsResources.OWNER_SCREENSHOT,
+                        new Image(Display.getDefault(), data[0]));
             } catch (Exception e) {
-                // FIXME: show error
+                showError("Unable to load screenshot " + screenshot.getAbsolutePath(), e);
                 return;
             }
         }
 
-        mViewer.setModel(model, d.getXmlDumpFile(), img);
+        File xmlDumpFile = d.getXmlDumpFile();
+        if (xmlDumpFile.length() > PROGRESSIVE_LOAD_THRESHOLD) {
+            loadProgressively(xmlDumpFile, img);
+            return;
+        }
+
+        UiAutomatorModel model;
+        try {
+            model = new UiAutomatorModel(xmlDumpFile);
+        } catch (Exception e) {
+            GraphicsResources.getInstance().dispose(img);
+            showError("Unable to open " + xmlDumpFile.getAbsolutePath(), e);
+            return;
+        }
+
+        mViewer.setModel(model, xmlDumpFile, img);
+    }
+
+    /**
+     * Parses the dump on a background thread, showing the root as soon as it is read and
+     * then adding the nodes below it to the view in batches, top down.
+     */
+    private void loadProgressively(final File xmlDumpFile, final Image screenshot) {
+        new Thread("uiautomatorviewer-load") {
+            @Override
+            public void run() {
+                class ViewerLoadListener implements IProgressiveLoadListener {
+                    // batches are tagged with it, so the view can drop them once another
+                    // model replaced this one
+                    UiAutomatorModel mModel;
+
+                    @Override
+                    public void onRootLoaded(BasicTreeNode root) {
+                        mModel = new UiAutomatorModel(root);
+                        mViewer.setModel(mModel, xmlDumpFile, screenshot);
+                    }
+
+                    @Override
+                    public void onNodesLoaded(List<BasicTreeNode> nodes) {
+                        mViewer.appendNodes(mModel, nodes);
+                    }
+                }
+                ViewerLoadListener listener = new ViewerLoadListener();
+                BasicTreeNode root = new UiHierarchyXmlLoader().parseXml(
+                        xmlDumpFile.getAbsolutePath(), listener);
+                if (root == null) {
+                    showError("Unable to open " + xmlDumpFile.getAbsolutePath(),
+                            new IllegalArgumentException(
+                                    "Invalid ui automator hierarchy file."));
+                }
+                if (listener.mModel == null && screenshot != null) {
+                    // the viewer never took ownership of the screenshot
+                    Display.getDefault().asyncExec(new Runnable() {
+                        @Override
+                        public void run() {
+                            GraphicsResources.getInstance().dispose(screenshot);
+                        }
+                    });
+                }
+                if (listener.mModel != null) {
+                    mViewer.finishLoading(listener.mModel);
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Reports a failed open in an error dialog. Safe to call from any thread.
+     */
+    private void showError(final String message, final Throwable t) {
+        Display.getDefault().asyncExec(new Runnable() {
+            @Override
+            public void run() {
+                Status status = new Status(IStatus.ERROR, "Open", t.getLocalizedMessage(), t);
+                ErrorDialog.openError(mViewer.getShell(), "Error", message, status);
+            }
+        });
     }
 }
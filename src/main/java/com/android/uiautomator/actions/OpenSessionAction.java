@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.actions;
+
+import com.android.uiautomator.SessionScrubber;
+import com.android.uiautomator.UiAutomatorViewer;
+import com.android.uiautomator.snapshot.SessionReader;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Opens a recorded session and shows a scrubber to step through its captures.
+ */
+public class OpenSessionAction extends Action {
+    private UiAutomatorViewer mViewer;
+
+    public OpenSessionAction(UiAutomatorViewer viewer) {
+        super("Open Sessio&n");
+        mViewer = viewer;
+    }
+
+    @Override
+    public void run() {
+        FileDialog fd = new FileDialog(mViewer.getShell(), SWT.OPEN);
+        fd.setText("Open Session");
+        fd.setFilterExtensions(new String[] {"*.uisession" });
+        String path = fd.open();
+        if (path == null) {
+            return;
+        }
+        SessionReader reader;
+        try {
+            reader = new SessionReader(new File(path));
+        } catch (IOException e) {
+            Status status = new Status(IStatus.ERROR, "Session Recording",
+                    e.getLocalizedMessage(), e);
+            ErrorDialog.openError(mViewer.getShell(), "Error",
+                    "Unable to open session", status);
+            return;
+        }
+        if (reader.getFrameCount() == 0) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // nothing was read from it
+            }
+            Status status = new Status(IStatus.ERROR, "Session Recording",
+                    "The session contains no captures");
+            ErrorDialog.openError(mViewer.getShell(), "Error",
+                    "Unable to open session", status);
+            return;
+        }
+        new SessionScrubber(mViewer, reader).open();
+    }
+}
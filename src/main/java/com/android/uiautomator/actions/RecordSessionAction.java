@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.actions;
+
+import com.android.uiautomator.UiAutomatorViewer;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.dialogs.ErrorDialog;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.widgets.FileDialog;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Starts recording every following device capture to a session file, and on the next
+ * invocation stops the recording.
+ */
+public class RecordSessionAction extends Action {
+    private UiAutomatorViewer mViewer;
+
+    public RecordSessionAction(UiAutomatorViewer viewer) {
+        super("Record &Session", IAction.AS_CHECK_BOX);
+        mViewer = viewer;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (!mViewer.isRecordingSession()) {
+                FileDialog fd = new FileDialog(mViewer.getShell(), SWT.SAVE);
+                fd.setText("Record Session");
+                fd.setFilterExtensions(new String[] {"*.uisession" });
+                fd.setFileName("session.uisession");
+                fd.setOverwrite(true);
+                String path = fd.open();
+                if (path != null) {
+                    mViewer.startSessionRecording(new File(path));
+                }
+            } else {
+                mViewer.stopSessionRecording();
+            }
+        } catch (IOException e) {
+            Status status = new Status(IStatus.ERROR, "Session Recording",
+                    e.getLocalizedMessage(), e);
+            ErrorDialog.openError(mViewer.getShell(), "Error",
+                    "Error while recording session", status);
+        }
+        setChecked(mViewer.isRecordingSession());
+    }
+}
@@ -18,20 +18,11 @@ package com.android.uiautomator.actions;
 
 import com.android.ddmlib.IDevice;
 import com.android.uiautomator.DebugBridge;
-import com.android.uiautomator.UiAutomatorHelper;
-import com.android.uiautomator.UiAutomatorHelper.UiAutomatorException;
-import com.android.uiautomator.UiAutomatorHelper.UiAutomatorResult;
 import com.android.uiautomator.UiAutomatorViewer;
 
-import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.IStatus;
-import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.dialogs.Dialog;
-import org.eclipse.jface.dialogs.ErrorDialog;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.jface.dialogs.ProgressMonitorDialog;
-import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.window.Window;
 import org.eclipse.swt.SWT;
@@ -44,7 +35,6 @@ import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Shell;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 public class ScreenshotAction extends Action {
@@ -68,64 +58,53 @@ public class ScreenshotAction extends Action {
 
     @Override
     public void run() {
-        if (!DebugBridge.isInitialized()) {
-            MessageDialog.openError(mViewer.getShell(),
-                    "Error obtaining Device Screenshot",
-                    "Unable to connect to adb. Check if adb is installed correctly.");
+        if (!checkBridge(mViewer.getShell())) {
             return;
         }
 
-        final IDevice device = pickDevice();
+        final IDevice device = pickDevice(mViewer.getShell());
         if (device == null) {
             return;
         }
 
-        ProgressMonitorDialog dialog = new ProgressMonitorDialog(mViewer.getShell());
-        try {
-            dialog.run(true, false, new IRunnableWithProgress() {
-                @Override
-                public void run(IProgressMonitor monitor) throws InvocationTargetException,
-                                                                        InterruptedException {
-                    UiAutomatorResult result = null;
-                    try {
-                        result = UiAutomatorHelper.takeSnapshot(device, monitor, mCompressed);
-                    } catch (UiAutomatorException e) {
-                        monitor.done();
-                        showError(e.getMessage(), e);
-                        return;
-                    }
-
-                    mViewer.setModel(result.model, result.uiHierarchy, result.screenshot);
-                    monitor.done();
-                }
-            });
-        } catch (Exception e) {
-            showError("Unexpected error while obtaining UI hierarchy", e);
+        // the capture runs in the background, the window stays usable meanwhile
+        if (!mViewer.getCaptureQueue().submit(device, mCompressed)) {
+            mViewer.setStatus("Already capturing " + device.getSerialNumber());
         }
     }
 
-    private void showError(final String msg, final Throwable t) {
-        mViewer.getShell().getDisplay().syncExec(new Runnable() {
-            @Override
-            public void run() {
-                Status s = new Status(IStatus.ERROR, "Screenshot", msg, t);
-                ErrorDialog.openError(
-                        mViewer.getShell(), "Error", "Error obtaining UI hierarchy", s);
-            }
-        });
+    /**
+     * Tells the user when adb is not usable yet.
+     *
+     * @return true if devices can be queried
+     */
+    static boolean checkBridge(Shell shell) {
+        if (DebugBridge.isInitializing()) {
+            MessageDialog.openInformation(shell,
+                    "Device Screenshot",
+                    "Still connecting to adb, please try again in a moment.");
+            return false;
+        }
+        if (!DebugBridge.isInitialized()) {
+            MessageDialog.openError(shell,
+                    "Error obtaining Device Screenshot",
+                    "Unable to connect to adb. Check if adb is installed correctly.");
+            return false;
+        }
+        return true;
     }
 
-    private IDevice pickDevice() {
+    static IDevice pickDevice(Shell shell) {
         List<IDevice> devices = DebugBridge.getDevices();
         if (devices.size() == 0) {
-            MessageDialog.openError(mViewer.getShell(),
+            MessageDialog.openError(shell,
                     "Error obtaining Device Screenshot",
                     "No Android devices were detected by adb.");
             return null;
         } else if (devices.size() == 1) {
             return devices.get(0);
         } else {
-            DevicePickerDialog dlg = new DevicePickerDialog(mViewer.getShell(), devices);
+            DevicePickerDialog dlg = new DevicePickerDialog(shell, devices);
             if (dlg.open() != Window.OK) {
                 return null;
             }
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.actions;
+
+import com.android.uiautomator.UiAutomatorView;
+
+import org.eclipse.jface.action.Action;
+import org.eclipse.jface.action.IAction;
+
+public class ToggleAuditAction extends Action {
+    private UiAutomatorView mView;
+
+    public ToggleAuditAction(UiAutomatorView view) {
+        super("&Audit", IAction.AS_CHECK_BOX);
+        setToolTipText("Check for accessibility and layout issues");
+        setChecked(view.shouldShowAudit());
+
+        mView = view;
+    }
+
+    @Override
+    public void run() {
+        mView.toggleShowAudit();
+        mView.redrawScreenshot();
+        setChecked(mView.shouldShowAudit());
+    }
+}
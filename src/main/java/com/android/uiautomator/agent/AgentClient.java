@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.agent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Connection to a hierarchy agent, on a device through an adb forward or a local stand-in.
+ * Requests are serialized, one connection carries one request at a time.
+ */
+public class AgentClient implements Closeable {
+    private final Socket mSocket;
+    private final DataInputStream mIn;
+    private final DataOutputStream mOut;
+
+    /**
+     * Connects and performs the version handshake.
+     *
+     * @param timeoutMs connect timeout, and read timeout for every response
+     */
+    public AgentClient(String host, int port, int timeoutMs) throws IOException {
+        this(host, port, timeoutMs, timeoutMs);
+    }
+
+    /**
+     * @param connectTimeoutMs limit for connecting and for the agent's handshake
+     * @param readTimeoutMs limit for every response after the handshake, i.e. a dump
+     */
+    public AgentClient(String host, int port, int connectTimeoutMs, int readTimeoutMs)
+            throws IOException {
+        mSocket = new Socket();
+        try {
+            mSocket.setTcpNoDelay(true);
+            mSocket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            mSocket.setSoTimeout(connectTimeoutMs);
+            mIn = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+            mOut = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+
+            byte[] version = ByteBuffer.allocate(4).putInt(AgentProtocol.VERSION).array();
+            AgentProtocol.writeFrame(mOut, AgentProtocol.REQUEST_HELLO, version);
+            AgentProtocol.Frame response = readResponse();
+            int agentVersion = ByteBuffer.wrap(response.payload).getInt();
+            if (agentVersion != AgentProtocol.VERSION) {
+                throw new IOException("Unsupported agent protocol version " + agentVersion);
+            }
+            mSocket.setSoTimeout(readTimeoutMs);
+        } catch (IOException e) {
+            mSocket.close();
+            throw e;
+        } catch (RuntimeException e) {
+            // e.g. a short hello payload
+            mSocket.close();
+            throw new IOException("Invalid handshake from agent", e);
+        }
+    }
+
+    /**
+     * Requests a hierarchy dump and writes the XML to the given file.
+     *
+     * @return number of bytes written
+     */
+    public synchronized long dump(boolean compressed, File dst) throws IOException {
+        byte[] xml = dump(compressed);
+        OutputStream out = new FileOutputStream(dst);
+        try {
+            out.write(xml);
+        } finally {
+            out.close();
+        }
+        return xml.length;
+    }
+
+    public synchronized byte[] dump(boolean compressed) throws IOException {
+        byte flags = compressed ? AgentProtocol.DUMP_FLAG_COMPRESSED : 0;
+        AgentProtocol.writeFrame(mOut, AgentProtocol.REQUEST_DUMP, new byte[] { flags });
+        return AgentProtocol.inflate(readResponse().payload);
+    }
+
+    private AgentProtocol.Frame readResponse() throws IOException {
+        AgentProtocol.Frame frame = AgentProtocol.readFrame(mIn);
+        if (frame.type == AgentProtocol.RESPONSE_ERROR) {
+            throw new IOException("Agent error: " + new String(frame.payload, "UTF-8"));
+        } else if (frame.type != AgentProtocol.RESPONSE_OK) {
+            throw new IOException("Unexpected agent response " + frame.type);
+        }
+        return frame;
+    }
+
+    public boolean isClosed() {
+        return mSocket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mSocket.close();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.agent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Wire format spoken between the viewer and a hierarchy agent.
+ *
+ * Every message is a frame: an int payload length, a byte type and the payload. The client
+ * opens with {@link #REQUEST_HELLO} carrying its {@link #VERSION}, then sends
+ * {@link #REQUEST_DUMP} frames whose one byte payload holds the dump flags. The agent
+ * answers each request with {@link #RESPONSE_OK}, for a dump followed by the deflated UTF-8
+ * hierarchy XML, or {@link #RESPONSE_ERROR} followed by a UTF-8 message.
+ */
+public final class AgentProtocol {
+    public static final int VERSION = 1;
+
+    public static final byte REQUEST_HELLO = 1;
+    public static final byte REQUEST_DUMP = 2;
+    public static final byte RESPONSE_OK = 0;
+    public static final byte RESPONSE_ERROR = 1;
+
+    // same meaning as uiautomator dump --compressed
+    public static final byte DUMP_FLAG_COMPRESSED = 1;
+
+    // refuse larger frames rather than allocating whatever a broken peer announces
+    public static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private AgentProtocol() {
+    }
+
+    public static class Frame {
+        public final byte type;
+        public final byte[] payload;
+
+        public Frame(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    public static void writeFrame(DataOutputStream out, byte type, byte[] payload)
+            throws IOException {
+        out.writeInt(payload.length);
+        out.writeByte(type);
+        out.write(payload);
+        out.flush();
+    }
+
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid agent frame size " + length);
+        }
+        byte type = in.readByte();
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, payload);
+    }
+
+    public static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static byte[] inflate(byte[] data) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[16 * 1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated hierarchy from agent");
+                }
+                out.write(buffer, 0, n);
+                if (out.size() > MAX_FRAME_SIZE * 8) {
+                    throw new IOException("Hierarchy from agent is too large");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.agent;
+
+import com.android.ddmlib.CollectingOutputReceiver;
+import com.android.ddmlib.IDevice;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional capture backend that keeps a hierarchy agent running on each device instead of
+ * starting a new uiautomator process for every dump.
+ *
+ * The agent jar (a dex jar whose main class serves {@link AgentProtocol} on an abstract unix
+ * socket) is pushed and started once per device, and reached through an adb forward that is
+ * removed again with the connection. The agent itself is not part of this tool: it is
+ * enabled by pointing {@link #AGENT_JAR_PROPERTY} at the jar and
+ * {@link #AGENT_CLASS_PROPERTY} at its main class. Alternatively
+ * {@link #AGENT_ADDRESS_PROPERTY} names a host:port to use for every device, e.g. a
+ * {@link StandInAgentServer}.
+ *
+ * A device whose agent cannot be reached or started is not tried again for a while, with a
+ * delay that doubles on every further failure, so that captures go straight to uiautomator
+ * dump instead of paying for the push and the startup wait every time.
+ */
+public class HierarchyAgent {
+    public static final String AGENT_JAR_PROPERTY = "uiautomatorviewer.agentJar";
+    public static final String AGENT_CLASS_PROPERTY = "uiautomatorviewer.agentClass";
+    public static final String AGENT_ADDRESS_PROPERTY = "uiautomatorviewer.agentAddress";
+
+    private static final String AGENT_DEVICE_PATH =
+            "/data/local/tmp/uiautomatorviewer-agent.jar";                      //$NON-NLS-1$
+    private static final String AGENT_SOCKET_NAME = "uiautomatorviewer-agent"; //$NON-NLS-1$
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    // read timeout for a single dump, generous because the traversal itself may be slow
+    private static final int DUMP_TIMEOUT_MS = 20000;
+    // how long a freshly started agent may take to listen
+    private static final long STARTUP_TIMEOUT_MS = 5000;
+    // how long a device is left alone after its agent failed to connect, doubled up to the
+    // maximum on every further failure
+    private static final long RETRY_DELAY_MIN_MS = 30 * 1000;
+    private static final long RETRY_DELAY_MAX_MS = 10 * 60 * 1000;
+
+    private static HierarchyAgent sInstance;
+
+    // connections by device serial, guarded by this
+    private final Map<String, Connection> mConnections = new HashMap<String, Connection>();
+    // devices whose agent could not be connected to, by serial, guarded by this
+    private final Map<String, Backoff> mFailures = new HashMap<String, Backoff>();
+
+    private static class Backoff {
+        long mDelay = RETRY_DELAY_MIN_MS;
+        long mRetryAt;
+    }
+
+    /**
+     * A connection to the agent of a device, with the adb forward it goes through.
+     */
+    private static class Connection {
+        final AgentClient mClient;
+        final IDevice mDevice;
+        // local port of the adb forward, -1 for an explicit address
+        final int mLocalPort;
+
+        Connection(AgentClient client, IDevice device, int localPort) {
+            mClient = client;
+            mDevice = device;
+            mLocalPort = localPort;
+        }
+
+        void close() {
+            try {
+                mClient.close();
+            } catch (IOException e) {
+                // already broken
+            }
+            removeForward(mDevice, mLocalPort);
+        }
+    }
+
+    public static synchronized HierarchyAgent getInstance() {
+        if (sInstance == null) {
+            sInstance = new HierarchyAgent();
+        }
+        return sInstance;
+    }
+
+    public static boolean isEnabled() {
+        return System.getProperty(AGENT_JAR_PROPERTY) != null
+                        && System.getProperty(AGENT_CLASS_PROPERTY) != null
+                || System.getProperty(AGENT_ADDRESS_PROPERTY) != null;
+    }
+
+    /**
+     * Returns whether a dump should go through the agent of the device, i.e. false while
+     * the device backs off after its agent failed to connect.
+     */
+    public synchronized boolean shouldTry(IDevice device) {
+        Backoff backoff = mFailures.get(device.getSerialNumber());
+        return backoff == null || System.currentTimeMillis() >= backoff.mRetryAt;
+    }
+
+    /**
+     * Dumps the hierarchy of a device into the given file, starting the agent if needed.
+     * A connection that fails is dropped, so that the next dump reconnects.
+     *
+     * @return number of bytes written
+     */
+    public long dump(IDevice device, boolean compressed, File dst) throws IOException {
+        Connection connection = getConnection(device);
+        try {
+            return connection.mClient.dump(compressed, dst);
+        } catch (IOException e) {
+            drop(device.getSerialNumber(), connection);
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the connection to the device's agent, if any, so that a dump blocked on it
+     * fails right away. The next dump reconnects.
+     */
+    public void disconnect(IDevice device) {
+        Connection connection;
+        synchronized (this) {
+            connection = mConnections.remove(device.getSerialNumber());
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private Connection getConnection(IDevice device) throws IOException {
+        String serial = device.getSerialNumber();
+        synchronized (this) {
+            Connection connection = mConnections.get(serial);
+            if (connection != null && !connection.mClient.isClosed()) {
+                return connection;
+            }
+        }
+        Connection connection;
+        try {
+            connection = connect(device);
+        } catch (IOException e) {
+            synchronized (this) {
+                Backoff backoff = mFailures.get(serial);
+                if (backoff == null) {
+                    backoff = new Backoff();
+                    mFailures.put(serial, backoff);
+                } else {
+                    backoff.mDelay = Math.min(backoff.mDelay * 2, RETRY_DELAY_MAX_MS);
+                }
+                backoff.mRetryAt = System.currentTimeMillis() + backoff.mDelay;
+            }
+            throw e;
+        }
+        Connection previous;
+        synchronized (this) {
+            mFailures.remove(serial);
+            previous = mConnections.put(serial, connection);
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        return connection;
+    }
+
+    private void drop(String serial, Connection connection) {
+        synchronized (this) {
+            if (mConnections.get(serial) == connection) {
+                mConnections.remove(serial);
+            }
+        }
+        connection.close();
+    }
+
+    private Connection connect(IDevice device) throws IOException {
+        String address = System.getProperty(AGENT_ADDRESS_PROPERTY);
+        if (address != null) {
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IOException("Expected host:port in " + AGENT_ADDRESS_PROPERTY);
+            }
+            AgentClient client = new AgentClient(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1)), CONNECT_TIMEOUT_MS,
+                    DUMP_TIMEOUT_MS);
+            return new Connection(client, device, -1);
+        }
+
+        int localPort = findFreePort();
+        try {
+            device.createForward(localPort, AGENT_SOCKET_NAME,
+                    IDevice.DeviceUnixSocketNamespace.ABSTRACT);
+        } catch (Exception e) {
+            throw new IOException("Unable to forward agent port: " + e.getMessage(), e);
+        }
+        try {
+            return new Connection(connectForwarded(device, localPort), device, localPort);
+        } catch (IOException e) {
+            removeForward(device, localPort);
+            throw e;
+        }
+    }
+
+    private AgentClient connectForwarded(IDevice device, int localPort) throws IOException {
+        try {
+            // an agent left running by an earlier session is reused
+            return new AgentClient("127.0.0.1", localPort, CONNECT_TIMEOUT_MS,
+                    DUMP_TIMEOUT_MS);
+        } catch (IOException e) {
+            // not running yet
+        }
+
+        startAgent(device);
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MS;
+        while (true) {
+            try {
+                return new AgentClient("127.0.0.1", localPort, CONNECT_TIMEOUT_MS,
+                        DUMP_TIMEOUT_MS);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new IOException("Agent did not start on " + device.getSerialNumber(),
+                            e);
+                }
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while starting agent");
+            }
+        }
+    }
+
+    private static void removeForward(IDevice device, int localPort) {
+        if (localPort < 0) {
+            return;
+        }
+        try {
+            device.removeForward(localPort, AGENT_SOCKET_NAME,
+                    IDevice.DeviceUnixSocketNamespace.ABSTRACT);
+        } catch (Exception e) {
+            // the device went away, and the forward with it
+        }
+    }
+
+    private void startAgent(IDevice device) throws IOException {
+        String jar = System.getProperty(AGENT_JAR_PROPERTY);
+        if (jar == null) {
+            throw new IOException("No agent jar, set " + AGENT_JAR_PROPERTY);
+        }
+        String agentClass = System.getProperty(AGENT_CLASS_PROPERTY);
+        if (agentClass == null) {
+            throw new IOException("No agent main class, set " + AGENT_CLASS_PROPERTY);
+        }
+        String command = String.format(
+                "CLASSPATH=%s nohup app_process /system/bin %s %s > /dev/null 2>&1 &",
+                AGENT_DEVICE_PATH, agentClass, AGENT_SOCKET_NAME);
+        try {
+            device.pushFile(jar, AGENT_DEVICE_PATH);
+            CountDownLatch latch = new CountDownLatch(1);
+            device.executeShellCommand(command, new CollectingOutputReceiver(latch));
+            latch.await(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to start agent: " + e.getMessage(), e);
+        }
+    }
+
+    private static int findFreePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Closes all agent connections and removes their adb forwards. The agents keep running
+     * on their devices.
+     */
+    public void closeAll() {
+        List<Connection> connections;
+        synchronized (this) {
+            connections = new ArrayList<Connection>(mConnections.values());
+            mConnections.clear();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+}
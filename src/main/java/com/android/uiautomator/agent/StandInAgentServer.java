@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.agent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Host side stand-in for the on-device agent, serving recorded .uix dumps over the agent
+ * protocol. Lets the agent backend be exercised without a device:
+ * <pre>
+ *   java -cp ... com.android.uiautomator.agent.StandInAgentServer 7912 dumps/
+ *   java -Duiautomatorviewer.agentAddress=127.0.0.1:7912 -jar ...
+ * </pre>
+ * A directory is served in name order, one dump per request, wrapping around.
+ */
+public class StandInAgentServer {
+    private final List<byte[]> mDumps = new ArrayList<byte[]>();
+    private final AtomicInteger mNextDump = new AtomicInteger();
+    private volatile long mDumpDelayMs = 0;
+    private ServerSocket mServerSocket;
+
+    public StandInAgentServer(File source) throws IOException {
+        File[] files = source.isDirectory() ? source.listFiles() : new File[] { source };
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                if (f.isFile() && (f == source || f.getName().endsWith(".uix"))) {
+                    mDumps.add(AgentProtocol.deflate(Files.readAllBytes(f.toPath())));
+                }
+            }
+        }
+        if (mDumps.isEmpty()) {
+            throw new IOException("No .uix dumps in " + source);
+        }
+    }
+
+    /**
+     * Makes every dump take at least this long, to stand in for the traversal on a device.
+     */
+    public void setDumpDelay(long delayMs) {
+        mDumpDelayMs = delayMs;
+    }
+
+    /**
+     * Starts serving on the loopback interface.
+     *
+     * @param port 0 to pick a free port
+     */
+    public synchronized void start(int port) throws IOException {
+        mServerSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread("agent-standin") {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public synchronized int getPort() {
+        return mServerSocket.getLocalPort();
+    }
+
+    public synchronized void stop() throws IOException {
+        if (mServerSocket != null) {
+            mServerSocket.close();
+        }
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                // closed by stop()
+                return;
+            }
+            Thread connection = new Thread("agent-standin-connection") {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            };
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            while (true) {
+                AgentProtocol.Frame request = AgentProtocol.readFrame(in);
+                switch (request.type) {
+                    case AgentProtocol.REQUEST_HELLO:
+                        AgentProtocol.writeFrame(out, AgentProtocol.RESPONSE_OK,
+                                ByteBuffer.allocate(4).putInt(AgentProtocol.VERSION).array());
+                        break;
+                    case AgentProtocol.REQUEST_DUMP:
+                        if (mDumpDelayMs > 0) {
+                            Thread.sleep(mDumpDelayMs);
+                        }
+                        int index = (mNextDump.getAndIncrement() & Integer.MAX_VALUE)
+                                % mDumps.size();
+                        AgentProtocol.writeFrame(out, AgentProtocol.RESPONSE_OK,
+                                mDumps.get(index));
+                        break;
+                    default:
+                        AgentProtocol.writeFrame(out, AgentProtocol.RESPONSE_ERROR,
+                                ("Unknown request " + request.type).getBytes("UTF-8"));
+                        break;
+                }
+            }
+        } catch (EOFException e) {
+            // client disconnected
+        } catch (SocketException e) {
+            // client disconnected or server stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Agent stand-in: " + e.getLocalizedMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: StandInAgentServer <port> <dump.uix|directory>"
+                    + " [delay-ms]");
+            System.exit(1);
+        }
+        StandInAgentServer server = new StandInAgentServer(new File(args[1]));
+        if (args.length > 2) {
+            server.setDumpDelay(Long.parseLong(args[2]));
+        }
+        server.start(Integer.parseInt(args[0]));
+        System.out.println("Agent stand-in listening on 127.0.0.1:" + server.getPort());
+        Thread.sleep(Long.MAX_VALUE);
+    }
+}
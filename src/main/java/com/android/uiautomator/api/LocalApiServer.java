@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.api;
+
+import com.android.ddmlib.IDevice;
+import com.android.uiautomator.DebugBridge;
+import com.android.uiautomator.GraphicsResources;
+import com.android.uiautomator.UiAutomatorHelper.UiAutomatorException;
+import com.android.uiautomator.UiAutomatorHelper.UiAutomatorResult;
+import com.android.uiautomator.UiAutomatorModel;
+import com.android.uiautomator.UiAutomatorViewer;
+import com.android.uiautomator.json.HierarchyJsonWriter;
+import com.android.uiautomator.json.JsonWriter;
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.eclipse.core.runtime.OperationCanceledException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Optional HTTP/JSON endpoint giving test tooling access to the running viewer.
+ *
+ * The server only binds to the loopback interface. Because web pages in a local browser
+ * can reach loopback too, every request must name the server as 127.0.0.1 or localhost in
+ * its Host header (which defeats DNS rebinding) and carry the per-launch token in an
+ * {@code Authorization: Bearer} header (which a cross-origin page cannot set without a
+ * preflight this server never answers).
+ *
+ * Connections are multiplexed by the JDK HTTP server's selector thread and requests are
+ * handled on a small worker pool, never on the SWT UI thread. Responses are streamed with
+ * chunked encoding while the tree is walked.
+ *
+ * <ul>
+ * <li>GET /status - what the viewer currently shows</li>
+ * <li>GET /hierarchy - the whole current hierarchy</li>
+ * <li>GET /search?q=... - nodes whose text or content-desc contains q</li>
+ * <li>POST /capture?serial=...&amp;compressed=true - takes a new device snapshot</li>
+ * </ul>
+ */
+public class LocalApiServer {
+    /** set to a port number to start the server with the viewer */
+    public static final String PORT_PROPERTY = "uiautomatorviewer.apiPort";
+    /** set to use a fixed token instead of a random one */
+    public static final String TOKEN_PROPERTY = "uiautomatorviewer.apiToken";
+
+    private static final int WORKER_THREADS = 8;
+    private static final int TOKEN_BYTES = 16;
+    // longer than a capture with all its retries may take
+    private static final long CAPTURE_TIMEOUT_SEC = 180;
+
+    private final UiAutomatorViewer mViewer;
+    private final String mToken;
+    private HttpServer mServer;
+    private ExecutorService mExecutor;
+
+    public LocalApiServer(UiAutomatorViewer viewer) {
+        mViewer = viewer;
+        String token = System.getProperty(TOKEN_PROPERTY);
+        mToken = token != null && !token.isEmpty() ? token : createToken();
+    }
+
+    private static String createToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    public void start(int port) throws IOException {
+        mServer = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        mExecutor = Executors.newFixedThreadPool(WORKER_THREADS);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/status", new StatusHandler());
+        mServer.createContext("/hierarchy", new HierarchyHandler());
+        mServer.createContext("/search", new SearchHandler());
+        mServer.createContext("/capture", new CaptureHandler());
+        mServer.start();
+    }
+
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    /**
+     * @return the token clients must send as {@code Authorization: Bearer <token>}
+     */
+    public String getToken() {
+        return mToken;
+    }
+
+    public void stop() {
+        if (mServer != null) {
+            mServer.stop(0);
+            mExecutor.shutdownNow();
+            mServer = null;
+        }
+    }
+
+    /**
+     * Base handler: host and token checks, method check, error reporting and a streaming
+     * JSON response.
+     */
+    private abstract class JsonHandler implements HttpHandler {
+        private final String mMethod;
+
+        JsonHandler(String method) {
+            mMethod = method;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                    sendError(exchange, 403, "Host must be 127.0.0.1 or localhost");
+                    return;
+                }
+                if (!hasToken(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                    exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                    sendError(exchange, 401, "Missing or wrong API token");
+                    return;
+                }
+                if (!mMethod.equals(exchange.getRequestMethod())) {
+                    sendError(exchange, 405, "Use " + mMethod);
+                    return;
+                }
+                handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            } catch (ApiException e) {
+                sendError(exchange, e.mStatus, e.getMessage());
+            } finally {
+                exchange.close();
+            }
+        }
+
+        abstract void handle(HttpExchange exchange, Map<String, String> query)
+                throws IOException, ApiException;
+    }
+
+    private class StatusHandler extends JsonHandler {
+        StatusHandler() {
+            super("GET");
+        }
+
+        @Override
+        void handle(HttpExchange exchange, Map<String, String> query) throws IOException {
+            UiAutomatorModel model = mViewer.getCurrentModel();
+            JsonWriter json = beginResponse(exchange, 200);
+            json.beginObject();
+            json.name("loaded").value(model != null);
+            json.name("loading").value(model != null && model.isLoading());
+            json.name("adb").value(DebugBridge.isInitialized());
+            if (model != null && mViewer.getCurrentModelFile() != null) {
+                json.name("file").value(mViewer.getCurrentModelFile().getAbsolutePath());
+            }
+            GraphicsResources resources = GraphicsResources.getInstance();
+            json.name("nativeHandles").value(resources.getLiveCount());
+            json.name("nativeBytes").value(resources.getLiveBytes());
+            json.endObject();
+            json.close();
+        }
+    }
+
+    private class HierarchyHandler extends JsonHandler {
+        HierarchyHandler() {
+            super("GET");
+        }
+
+        @Override
+        void handle(HttpExchange exchange, Map<String, String> query)
+                throws IOException, ApiException {
+            UiAutomatorModel model = requireModel();
+            JsonWriter json = beginResponse(exchange, 200);
+            new HierarchyJsonWriter(json).writeTree(model.getXmlRootNode());
+            json.close();
+        }
+    }
+
+    private class SearchHandler extends JsonHandler {
+        SearchHandler() {
+            super("GET");
+        }
+
+        @Override
+        void handle(HttpExchange exchange, Map<String, String> query)
+                throws IOException, ApiException {
+            String term = query.get("q");
+            if (term == null || term.isEmpty()) {
+                throw new ApiException(400, "Missing q parameter");
+            }
+            List<BasicTreeNode> result = requireModel().searchNode(term);
+            JsonWriter json = beginResponse(exchange, 200);
+            HierarchyJsonWriter writer = new HierarchyJsonWriter(json);
+            json.beginArray();
+            for (BasicTreeNode node : result) {
+                writer.writeNode(node);
+            }
+            json.endArray();
+            json.close();
+        }
+    }
+
+    private class CaptureHandler extends JsonHandler {
+        CaptureHandler() {
+            super("POST");
+        }
+
+        @Override
+        void handle(HttpExchange exchange, Map<String, String> query)
+                throws IOException, ApiException {
+            if (!DebugBridge.isInitialized()) {
+                throw new ApiException(503, "adb is not available");
+            }
+            IDevice device = findDevice(query.get("serial"));
+            boolean compressed = "true".equals(query.get("compressed"));
+            // shares the window's queue, so it coalesces with a capture already running
+            UiAutomatorResult result = waitFor(
+                    mViewer.getCaptureQueue().capture(device, compressed));
+
+            JsonWriter json = beginResponse(exchange, 200);
+            json.beginObject();
+            json.name("serial").value(device.getSerialNumber());
+            json.name("file").value(result.uiHierarchy.getAbsolutePath());
+            if (result.metrics != null) {
+                json.name("metrics").value(result.metrics.toString());
+                json.name("totalMs").value(result.metrics.getTotalNanos() / 1000000L);
+            }
+            json.endObject();
+            json.close();
+        }
+
+        private UiAutomatorResult waitFor(Future<UiAutomatorResult> capture)
+                throws ApiException {
+            try {
+                return capture.get(CAPTURE_TIMEOUT_SEC, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof UiAutomatorException) {
+                    throw new ApiException(502, cause.getMessage());
+                } else if (cause instanceof OperationCanceledException) {
+                    throw new ApiException(409, "Capture was cancelled");
+                }
+                throw new ApiException(500, "Unexpected error while obtaining UI hierarchy: "
+                        + cause);
+            } catch (CancellationException e) {
+                throw new ApiException(409, "Capture was cancelled");
+            } catch (TimeoutException e) {
+                throw new ApiException(504, "Capture did not finish in time");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ApiException(503, "Server is stopping");
+            }
+        }
+
+        private IDevice findDevice(String serial) throws ApiException {
+            List<IDevice> devices = DebugBridge.getDevices();
+            if (serial == null) {
+                if (devices.size() != 1) {
+                    throw new ApiException(400,
+                            devices.size() + " devices connected, specify serial");
+                }
+                return devices.get(0);
+            }
+            for (IDevice device : devices) {
+                if (serial.equals(device.getSerialNumber())) {
+                    return device;
+                }
+            }
+            throw new ApiException(404, "No device " + serial);
+        }
+    }
+
+    private boolean isLocalHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        String port = ":" + getPort();
+        return host.equals("127.0.0.1" + port) || host.equalsIgnoreCase("localhost" + port);
+    }
+
+    private boolean hasToken(String authorization) {
+        String prefix = "Bearer ";
+        if (authorization == null || !authorization.regionMatches(true, 0, prefix, 0,
+                prefix.length())) {
+            return false;
+        }
+        byte[] expected = mToken.getBytes(StandardCharsets.UTF_8);
+        byte[] actual = authorization.substring(prefix.length()).trim()
+                .getBytes(StandardCharsets.UTF_8);
+        // constant time, so the token cannot be guessed byte by byte
+        return MessageDigest.isEqual(expected, actual);
+    }
+
+    private UiAutomatorModel requireModel() throws ApiException {
+        UiAutomatorModel model = mViewer.getCurrentModel();
+        if (model == null) {
+            throw new ApiException(404, "No hierarchy loaded");
+        }
+        if (model.isLoading()) {
+            // the tree is still being modified on the UI thread
+            throw new ApiException(503, "Hierarchy is still loading");
+        }
+        return model;
+    }
+
+    private static JsonWriter beginResponse(HttpExchange exchange, int status)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // length 0 selects chunked encoding, so nothing is buffered before sending
+        exchange.sendResponseHeaders(status, 0);
+        return new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(exchange.getResponseBody(), "UTF-8")));
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message)
+            throws IOException {
+        JsonWriter json = beginResponse(exchange, status);
+        json.beginObject().name("error").value(message).endObject();
+        json.close();
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery)
+            throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<String, String>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                query.put(URLDecoder.decode(pair, "UTF-8"), "");
+            } else {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    @SuppressWarnings("serial")
+    private static class ApiException extends Exception {
+        final int mStatus;
+
+        ApiException(int status, String message) {
+            super(message);
+            mStatus = status;
+        }
+    }
+}
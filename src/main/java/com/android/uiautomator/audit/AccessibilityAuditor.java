@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.audit;
+
+import com.android.uiautomator.tree.AttributeProfile;
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.UiNode;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accessibility and layout checks over the nodes of a single dump, made of
+ * {@link IAuditRule}s. Thread safe, one auditor may audit several dumps at the same time.
+ */
+public class AccessibilityAuditor {
+    public static final String RULE_NAF = "naf";
+    public static final String RULE_UNLABELED_IMAGE = "unlabeled-clickable-image";
+    public static final String RULE_SMALL_TOUCH_TARGET = "small-touch-target";
+    public static final String RULE_OVERLAPPING_CLICKABLES = "overlapping-clickables";
+    public static final String RULE_OFF_SCREEN_CLICKABLE = "off-screen-clickable";
+    public static final String RULE_DUPLICATE_DESCRIPTION = "duplicate-content-desc";
+
+    /**
+     * System property with the screen density in pixels per dp, e.g. 2.625; by default it
+     * is derived from the screen size of each dump.
+     */
+    public static final String DENSITY_PROPERTY = "uiautomatorviewer.audit.density";
+
+    /** loads only the attributes the checks look at */
+    public static final AttributeProfile PROFILE;
+
+    static {
+        Map<String, AttributeProfile.Policy> policies =
+                new HashMap<String, AttributeProfile.Policy>();
+        policies.put("class", AttributeProfile.Policy.INTERN);
+        policies.put("resource-id", AttributeProfile.Policy.INTERN);
+        policies.put("clickable", AttributeProfile.Policy.INTERN);
+        policies.put("long-clickable", AttributeProfile.Policy.INTERN);
+        policies.put("NAF", AttributeProfile.Policy.INTERN);
+        // compared in full by the duplicate description rule
+        policies.put("content-desc", AttributeProfile.Policy.KEEP);
+        policies.put("text", AttributeProfile.Policy.TRUNCATE);
+        policies.put("bounds", AttributeProfile.Policy.KEEP);
+        PROFILE = new AttributeProfile("audit", AttributeProfile.Policy.DROP, policies, 16);
+    }
+
+    private final List<IAuditRule> mRules;
+    private final float mDensity;
+
+    /**
+     * Creates an auditor running all built-in rules.
+     */
+    public AccessibilityAuditor() {
+        this(AuditRules.getDefaultRules());
+    }
+
+    public AccessibilityAuditor(List<IAuditRule> rules) {
+        mRules = Collections.unmodifiableList(new ArrayList<IAuditRule>(rules));
+        float density = 0;
+        String value = System.getProperty(DENSITY_PROPERTY);
+        if (value != null) {
+            try {
+                density = Float.parseFloat(value);
+            } catch (NumberFormatException e) {
+                System.err.println("Invalid " + DENSITY_PROPERTY + ": " + value);
+            }
+        }
+        mDensity = density;
+    }
+
+    public List<IAuditRule> getRules() {
+        return mRules;
+    }
+
+    /**
+     * @param source name of the dump, copied into the findings
+     * @param nodes all nodes of the dump
+     * @return the violations found, in node order
+     */
+    public List<AuditFinding> audit(String source, List<BasicTreeNode> nodes) {
+        return audit(source, nodes, null, 0);
+    }
+
+    /**
+     * Audits a dump whose screen is known better than from the dump alone, e.g. from its
+     * screenshot and the density the device reports. A density set with
+     * {@link #DENSITY_PROPERTY} still takes precedence.
+     *
+     * @param source name of the dump, copied into the findings
+     * @param nodes all nodes of the dump
+     * @param screen the screen area, or null to derive it from the top level nodes
+     * @param density pixels per dp, or 0 to derive it from the screen size
+     * @return the violations found, in node order
+     */
+    public List<AuditFinding> audit(String source, List<BasicTreeNode> nodes,
+            Rectangle screen, float density) {
+        List<UiNode> uiNodes = new ArrayList<UiNode>(nodes.size());
+        for (BasicTreeNode node : nodes) {
+            if (node instanceof UiNode) {
+                uiNodes.add((UiNode) node);
+            }
+        }
+        AuditContext context = new AuditContext(source, uiNodes, screen,
+                mDensity > 0 ? mDensity : density);
+        for (IAuditRule rule : mRules) {
+            rule.check(context);
+        }
+        return context.getFindings();
+    }
+}
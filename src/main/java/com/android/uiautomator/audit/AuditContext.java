@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.audit;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.NodeIndex;
+import com.android.uiautomator.tree.UiNode;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The dump being audited, with the derived data shared by the rules: the screen area, the
+ * screen density, a node index and a spatial index of the clickable nodes, each built on
+ * first use unless it was given.
+ */
+public class AuditContext {
+    // shorter side of the screen the density is derived from when it is not configured,
+    // i.e. of the common phone sizes
+    private static final float REFERENCE_SCREEN_DP = 411;
+
+    private final String mSource;
+    private final List<UiNode> mNodes;
+    private final float mConfiguredDensity;
+    private final List<AuditFinding> mFindings = new ArrayList<AuditFinding>();
+    private Rectangle mScreen;
+    private NodeIndex mNodeIndex;
+    private List<UiNode> mClickableNodes;
+    private SpatialIndex mClickableIndex;
+
+    /**
+     * @param source name of the dump, copied into the findings
+     * @param nodes all nodes of the dump, in document order
+     * @param screen the screen area, or null to derive it from the top level nodes
+     * @param density pixels per dp, or 0 to derive it from the screen size
+     */
+    AuditContext(String source, List<UiNode> nodes, Rectangle screen, float density) {
+        mSource = source;
+        mNodes = nodes;
+        mScreen = screen;
+        mConfiguredDensity = density;
+    }
+
+    public String getSource() {
+        return mSource;
+    }
+
+    public List<UiNode> getNodes() {
+        return mNodes;
+    }
+
+    public static Rectangle getBounds(UiNode node) {
+        return new Rectangle(node.x, node.y, node.width, node.height);
+    }
+
+    /**
+     * @return the screen area given, or else the area covered by the top level nodes
+     */
+    public Rectangle getScreen() {
+        if (mScreen == null) {
+            Rectangle screen = null;
+            for (UiNode node : mNodes) {
+                if (node.getParent() instanceof UiNode) {
+                    continue;
+                }
+                screen = screen == null ? getBounds(node) : screen.union(getBounds(node));
+            }
+            mScreen = screen != null ? screen : new Rectangle(0, 0, 0, 0);
+        }
+        return mScreen;
+    }
+
+    /**
+     * @return pixels per dp
+     */
+    public float getDensity() {
+        if (mConfiguredDensity > 0) {
+            return mConfiguredDensity;
+        }
+        Rectangle screen = getScreen();
+        int shorterSide = Math.min(screen.width, screen.height);
+        return shorterSide > 0 ? shorterSide / REFERENCE_SCREEN_DP : 1;
+    }
+
+    /**
+     * @return an index numbering the hierarchy of the nodes, e.g. for O(1) ancestor tests
+     * with {@link NodeIndex#isAncestor}
+     */
+    public NodeIndex getNodeIndex() {
+        if (mNodeIndex == null) {
+            BasicTreeNode root = mNodes.isEmpty() ? new BasicTreeNode() : mNodes.get(0);
+            while (root.getParent() != null) {
+                root = root.getParent();
+            }
+            // numbers the same tree the same way as the index of its model, if it has one
+            mNodeIndex = new NodeIndex(root);
+        }
+        return mNodeIndex;
+    }
+
+    public static boolean isClickable(UiNode node) {
+        return "true".equals(node.getAttribute("clickable"))
+                || "true".equals(node.getAttribute("long-clickable"));
+    }
+
+    /**
+     * @return the clickable nodes, in document order
+     */
+    public List<UiNode> getClickableNodes() {
+        if (mClickableNodes == null) {
+            mClickableNodes = new ArrayList<UiNode>();
+            for (UiNode node : mNodes) {
+                if (isClickable(node)) {
+                    mClickableNodes.add(node);
+                }
+            }
+        }
+        return mClickableNodes;
+    }
+
+    /**
+     * @return an index of the bounds of {@link #getClickableNodes()}, whose items are
+     * positions in that list
+     */
+    public SpatialIndex getClickableIndex() {
+        if (mClickableIndex == null) {
+            List<Rectangle> bounds = new ArrayList<Rectangle>();
+            for (UiNode node : getClickableNodes()) {
+                bounds.add(getBounds(node));
+            }
+            mClickableIndex = new SpatialIndex(bounds);
+        }
+        return mClickableIndex;
+    }
+
+    public void report(String rule, UiNode node, String detail) {
+        mFindings.add(new AuditFinding(mSource, rule, node, detail));
+    }
+
+    /**
+     * @return the findings of all rules, in node order and, for the same node, in rule order
+     */
+    List<AuditFinding> getFindings() {
+        final Map<UiNode, Integer> positions = new IdentityHashMap<UiNode, Integer>();
+        for (int i = 0; i < mNodes.size(); i++) {
+            positions.put(mNodes.get(i), i);
+        }
+        List<AuditFinding> findings = new ArrayList<AuditFinding>(mFindings);
+        // stable, so the rule order is kept
+        Collections.sort(findings, new Comparator<AuditFinding>() {
+            @Override
+            public int compare(AuditFinding a, AuditFinding b) {
+                return positions.get(a.node).compareTo(positions.get(b.node));
+            }
+        });
+        return findings;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.audit;
+
+import com.android.uiautomator.tree.UiNode;
+
+/**
+ * A single rule violation found in a dump.
+ */
+public class AuditFinding {
+    public final String source;
+    public final String rule;
+    public final String className;
+    public final String resourceId;
+    public final String bounds;
+    // what exactly is wrong, e.g. the size of a small touch target; may be empty
+    public final String detail;
+    // the offending node, e.g. to highlight it
+    public final UiNode node;
+
+    public AuditFinding(String source, String rule, UiNode node, String detail) {
+        this.source = source;
+        this.rule = rule;
+        this.className = node.getAttribute("class");
+        this.resourceId = node.getAttribute("resource-id");
+        this.bounds = node.getAttribute("bounds");
+        this.detail = detail != null ? detail : "";
+        this.node = node;
+    }
+}
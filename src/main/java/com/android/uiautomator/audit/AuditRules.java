@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.audit;
+
+import com.android.uiautomator.tree.NodeIndex;
+import com.android.uiautomator.tree.UiNode;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The built-in rules of {@link AccessibilityAuditor}.
+ */
+public class AuditRules {
+    // minimum size of a touch target recommended by the accessibility guidelines
+    public static final int MIN_TOUCH_TARGET_DP = 48;
+
+    private AuditRules() {
+    }
+
+    /**
+     * @return a new list of all built-in rules
+     */
+    public static List<IAuditRule> getDefaultRules() {
+        return new ArrayList<IAuditRule>(Arrays.asList(
+                new NafRule(),
+                new UnlabeledImageRule(),
+                new SmallTouchTargetRule(),
+                new OverlappingClickablesRule(),
+                new OffScreenClickableRule(),
+                new DuplicateDescriptionRule()));
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    // e.g. "id/button" or "android.widget.Button" when the node has no id
+    private static String describe(UiNode node) {
+        String id = node.getAttribute("resource-id");
+        return !isEmpty(id) ? id : node.getAttribute("class");
+    }
+
+    /**
+     * Nodes uiautomator itself flags as "Not Accessibility Friendly".
+     */
+    static class NafRule implements IAuditRule {
+        @Override
+        public String getName() {
+            return AccessibilityAuditor.RULE_NAF;
+        }
+
+        @Override
+        public void check(AuditContext context) {
+            for (UiNode node : context.getNodes()) {
+                if ("true".equals(node.getAttribute("NAF"))) {
+                    context.report(getName(), node, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clickable images without a text or content description for screen readers to read.
+     */
+    static class UnlabeledImageRule implements IAuditRule {
+        @Override
+        public String getName() {
+            return AccessibilityAuditor.RULE_UNLABELED_IMAGE;
+        }
+
+        @Override
+        public void check(AuditContext context) {
+            for (UiNode node : context.getNodes()) {
+                String className = node.getAttribute("class");
+                if (className != null && className.contains("Image")
+                        && "true".equals(node.getAttribute("clickable"))
+                        && isEmpty(node.getAttribute("content-desc"))
+                        && isEmpty(node.getAttribute("text"))) {
+                    context.report(getName(), node, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Clickable nodes smaller than {@link #MIN_TOUCH_TARGET_DP} in either direction.
+     * Clickables without any area are left to {@link OffScreenClickableRule}.
+     */
+    static class SmallTouchTargetRule implements IAuditRule {
+        @Override
+        public String getName() {
+            return AccessibilityAuditor.RULE_SMALL_TOUCH_TARGET;
+        }
+
+        @Override
+        public void check(AuditContext context) {
+            int minSize = Math.round(MIN_TOUCH_TARGET_DP * context.getDensity());
+            for (UiNode node : context.getClickableNodes()) {
+                if (node.width <= 0 || node.height <= 0) {
+                    continue;
+                }
+                if (node.width < minSize || node.height < minSize) {
+                    context.report(getName(), node, String.format(
+                            "%dx%dpx, minimum %ddp = %dpx", node.width, node.height,
+                            MIN_TOUCH_TARGET_DP, minSize));
+                }
+            }
+        }
+    }
+
+    /**
+     * Clickable nodes sharing some of their area with other clickable nodes, so that a tap
+     * may reach another target than intended. Nested clickables, i.e. overlaps with an
+     * ancestor, are not reported.
+     *
+     * Every node is only compared with the nodes the spatial index finds in its bounds, and
+     * ancestry is an O(1) test on the node index, which is O(n log n + k) overall for k
+     * overlapping pairs instead of comparing all pairs. Like any rule reporting pairs it is
+     * output-sensitive: a screen of n stacked clickables has k in O(n^2).
+     */
+    static class OverlappingClickablesRule implements IAuditRule {
+        @Override
+        public String getName() {
+            return AccessibilityAuditor.RULE_OVERLAPPING_CLICKABLES;
+        }
+
+        @Override
+        public void check(AuditContext context) {
+            final List<UiNode> clickables = context.getClickableNodes();
+            final NodeIndex nodeIndex = context.getNodeIndex();
+            SpatialIndex index = context.getClickableIndex();
+            for (int i = 0; i < clickables.size(); i++) {
+                final UiNode node = clickables.get(i);
+                final int self = i;
+                // first overlapped node in document order, independent of the index
+                final int[] first = { -1 };
+                final int[] count = new int[1];
+                index.query(AuditContext.getBounds(node), new SpatialIndex.IItemListener() {
+                    @Override
+                    public void onItem(int item) {
+                        UiNode other = clickables.get(item);
+                        if (item == self || nodeIndex.isAncestor(node, other)
+                                || nodeIndex.isAncestor(other, node)) {
+                            return;
+                        }
+                        if (first[0] < 0 || item < first[0]) {
+                            first[0] = item;
+                        }
+                        count[0]++;
+                    }
+                });
+                if (count[0] > 0) {
+                    String other = describe(clickables.get(first[0]));
+                    context.report(getName(), node, count[0] == 1
+                            ? "overlaps " + other
+                            : "overlaps " + other + " and " + (count[0] - 1) + " more");
+                }
+            }
+        }
+    }
+
+    /**
+     * Clickable nodes that cannot be tapped since none of their area is on the screen.
+     */
+    static class OffScreenClickableRule implements IAuditRule {
+        @Override
+        public String getName() {
+            return AccessibilityAuditor.RULE_OFF_SCREEN_CLICKABLE;
+        }
+
+        @Override
+        public void check(AuditContext context) {
+            Rectangle screen = context.getScreen();
+            for (UiNode node : context.getClickableNodes()) {
+                Rectangle bounds = AuditContext.getBounds(node);
+                if (bounds.isEmpty() || !bounds.intersects(screen)) {
+                    context.report(getName(), node, String.format("screen is %dx%dpx",
+                            screen.width, screen.height));
+                }
+            }
+        }
+    }
+
+    /**
+     * Different nodes announced with the same content description by screen readers.
+     * Values cut short at load time are not compared, since their prefixes may collide.
+     */
+    static class DuplicateDescriptionRule implements IAuditRule {
+        @Override
+        public String getName() {
+            return AccessibilityAuditor.RULE_DUPLICATE_DESCRIPTION;
+        }
+
+        @Override
+        public void check(AuditContext context) {
+            Map<String, List<UiNode>> byDescription = new LinkedHashMap<String, List<UiNode>>();
+            for (UiNode node : context.getNodes()) {
+                String description = node.getAttribute("content-desc");
+                if (isEmpty(description) || node.isTruncated("content-desc")) {
+                    continue;
+                }
+                List<UiNode> nodes = byDescription.get(description);
+                if (nodes == null) {
+                    nodes = new ArrayList<UiNode>(1);
+                    byDescription.put(description, nodes);
+                }
+                nodes.add(node);
+            }
+            for (Map.Entry<String, List<UiNode>> entry : byDescription.entrySet()) {
+                List<UiNode> nodes = entry.getValue();
+                if (nodes.size() < 2) {
+                    continue;
+                }
+                for (UiNode node : nodes) {
+                    context.report(getName(), node, String.format("\"%s\" used by %d nodes",
+                            entry.getKey(), nodes.size()));
+                }
+            }
+        }
+    }
+}
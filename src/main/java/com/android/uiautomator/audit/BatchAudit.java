@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.audit;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.UiHierarchyXmlLoader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless accessibility audit of a directory tree of .uix dumps.
+ *
+ * Dumps are parsed and analyzed in parallel on a fork/join pool while the directory is still
+ * being walked. Findings are streamed to a CSV report as soon as a dump is done and the
+ * parsed tree is dropped, and the number of dumps in flight is bounded, so memory use does
+ * not grow with the size of the corpus.
+ *
+ * Usage: BatchAudit &lt;directory&gt; [report.csv]
+ */
+public class BatchAudit {
+    private static final String UIX_EXTENSION = ".uix";
+
+    private final ForkJoinPool mPool;
+    // bounds the number of dumps queued or being parsed at the same time
+    private final Semaphore mInFlight;
+    private final AccessibilityAuditor mAuditor = new AccessibilityAuditor();
+    // guarded by this: the report and the counts of its rows
+    private final Writer mReport;
+    private final Map<String, Integer> mRuleCounts = new TreeMap<String, Integer>();
+    private IOException mOutputError;
+    private final AtomicInteger mFilesAudited = new AtomicInteger();
+    private final AtomicInteger mFilesFailed = new AtomicInteger();
+
+    public BatchAudit(Writer report, int parallelism) {
+        mReport = report;
+        mPool = new ForkJoinPool(parallelism);
+        mInFlight = new Semaphore(parallelism * 4);
+    }
+
+    /**
+     * Audits all dumps below the directory, returns once all of them are done.
+     */
+    public void run(File directory) throws IOException, InterruptedException {
+        mReport.write("file,rule,class,resource-id,bounds,detail\n");
+        try {
+            walk(directory);
+        } finally {
+            mPool.shutdown();
+            mPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        synchronized (this) {
+            if (mOutputError != null) {
+                throw mOutputError;
+            }
+            mReport.flush();
+        }
+    }
+
+    private void walk(File directory) throws InterruptedException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                walk(file);
+            } else if (file.getName().endsWith(UIX_EXTENSION)) {
+                mInFlight.acquire();
+                mPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            auditFile(file);
+                        } finally {
+                            mInFlight.release();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void auditFile(File file) {
+        List<AuditFinding> findings;
+        try {
+            UiHierarchyXmlLoader loader = new UiHierarchyXmlLoader();
+            loader.setAttributeProfile(AccessibilityAuditor.PROFILE);
+            BasicTreeNode root = loader.parseXml(file.getAbsolutePath());
+            if (root == null) {
+                mFilesFailed.incrementAndGet();
+                return;
+            }
+            findings = mAuditor.audit(file.getPath(), loader.getAllNodes());
+        } catch (RuntimeException e) {
+            // e.g. invalid bounds, the other dumps go on
+            System.err.println("Cannot audit " + file + ": " + e);
+            mFilesFailed.incrementAndGet();
+            return;
+        }
+        mFilesAudited.incrementAndGet();
+        if (!findings.isEmpty()) {
+            report(findings);
+        }
+    }
+
+    private synchronized void report(List<AuditFinding> findings) {
+        if (mOutputError != null) {
+            return;
+        }
+        try {
+            for (AuditFinding finding : findings) {
+                mReport.write(csv(finding.source));
+                mReport.write(',');
+                mReport.write(finding.rule);
+                mReport.write(',');
+                mReport.write(csv(finding.className));
+                mReport.write(',');
+                mReport.write(csv(finding.resourceId));
+                mReport.write(',');
+                mReport.write(csv(finding.bounds));
+                mReport.write(',');
+                mReport.write(csv(finding.detail));
+                mReport.write('\n');
+                Integer count = mRuleCounts.get(finding.rule);
+                mRuleCounts.put(finding.rule, count == null ? 1 : count + 1);
+            }
+        } catch (IOException e) {
+            // thrown by run() once the pool is done
+            mOutputError = e;
+        }
+    }
+
+    private static String csv(String s) {
+        if (s == null) {
+            return "";
+        }
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return s;
+        }
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    public int getFilesAudited() {
+        return mFilesAudited.get();
+    }
+
+    public int getFilesFailed() {
+        return mFilesFailed.get();
+    }
+
+    public synchronized Map<String, Integer> getRuleCounts() {
+        return new TreeMap<String, Integer>(mRuleCounts);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: BatchAudit <directory> [report.csv]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        File reportFile = new File(args.length > 1 ? args[1] : "audit-report.csv");
+        Writer report = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(reportFile), "UTF-8"));
+        BatchAudit audit = new BatchAudit(report,
+                Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        try {
+            audit.run(directory);
+        } finally {
+            report.close();
+        }
+        System.out.println(String.format("Audited %d dumps (%d failed) in %dms, report: %s",
+                audit.getFilesAudited(), audit.getFilesFailed(),
+                (System.nanoTime() - start) / 1000000L, reportFile));
+        for (Map.Entry<String, Integer> entry : audit.getRuleCounts().entrySet()) {
+            System.out.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+}
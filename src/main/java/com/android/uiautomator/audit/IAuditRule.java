@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.audit;
+
+/**
+ * A check run by {@link AccessibilityAuditor} over all nodes of a dump.
+ *
+ * Rules are shared between the dumps audited in parallel, so they must not keep state of
+ * their own; whatever they need per dump is available from the {@link AuditContext}.
+ */
+public interface IAuditRule {
+    /**
+     * @return the name of the rule, as used in {@link AuditFinding#rule}
+     */
+    String getName();
+
+    /**
+     * Reports the violations found in a dump through {@link AuditContext#report}.
+     */
+    void check(AuditContext context);
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.audit;
+
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only R-tree over a fixed set of rectangles, bulk loaded with Sort-Tile-Recursive
+ * packing.
+ *
+ * Building takes O(n log n). A query only descends into the nodes whose bounding box
+ * overlaps the queried area, which for the layouts of a screen is O(log n + k) for k
+ * results, so checking every rectangle against all others stays far from O(n^2).
+ */
+public class SpatialIndex {
+    // entries per node of the tree
+    private static final int NODE_CAPACITY = 16;
+
+    public interface IItemListener {
+        /**
+         * @param item position of the rectangle in the list the index was built from
+         */
+        void onItem(int item);
+    }
+
+    /**
+     * One level of the tree: the bounding boxes of its entries and, for the leaves, the
+     * items they stand for or, above them, the range of entries they cover one level down.
+     */
+    private static class Level {
+        final int[] mLeft, mTop, mRight, mBottom;
+        // leaf level: item of the entry; upper levels: first entry covered on the level below
+        final int[] mFirst;
+        // upper levels only: number of entries covered on the level below
+        final int[] mCount;
+
+        Level(int size, boolean leaf) {
+            mLeft = new int[size];
+            mTop = new int[size];
+            mRight = new int[size];
+            mBottom = new int[size];
+            mFirst = new int[size];
+            mCount = leaf ? null : new int[size];
+        }
+
+        int size() {
+            return mLeft.length;
+        }
+
+        boolean overlaps(int entry, int left, int top, int right, int bottom) {
+            return mLeft[entry] < right && left < mRight[entry]
+                    && mTop[entry] < bottom && top < mBottom[entry];
+        }
+    }
+
+    // leaves first, the root's entries last
+    private final Level[] mLevels;
+
+    /**
+     * @param rectangles the indexed rectangles, items are reported by their position here
+     */
+    public SpatialIndex(List<Rectangle> rectangles) {
+        Level level = new Level(rectangles.size(), true);
+        for (int i = 0; i < rectangles.size(); i++) {
+            Rectangle r = rectangles.get(i);
+            level.mLeft[i] = r.x;
+            level.mTop[i] = r.y;
+            level.mRight[i] = r.x + r.width;
+            level.mBottom[i] = r.y + r.height;
+            level.mFirst[i] = i;
+        }
+        List<Level> levels = new ArrayList<Level>();
+        while (true) {
+            level = sortTileRecursive(level);
+            levels.add(level);
+            if (level.size() <= NODE_CAPACITY) {
+                break;
+            }
+            level = parentsOf(level);
+        }
+        mLevels = levels.toArray(new Level[levels.size()]);
+    }
+
+    /**
+     * Orders the entries so that runs of {@link #NODE_CAPACITY} are close to each other:
+     * sorted into vertical slices by x, and by y within every slice.
+     */
+    private static Level sortTileRecursive(Level level) {
+        int size = level.size();
+        int nodes = (size + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(nodes)) * NODE_CAPACITY;
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = sortKey(level.mLeft[i] + level.mRight[i], i);
+        }
+        Arrays.sort(keys);
+        for (int start = 0; start < size; start += sliceSize) {
+            int end = Math.min(size, start + sliceSize);
+            for (int i = start; i < end; i++) {
+                int entry = (int) keys[i];
+                keys[i] = sortKey(level.mTop[entry] + level.mBottom[entry], entry);
+            }
+            Arrays.sort(keys, start, end);
+        }
+        Level sorted = new Level(size, level.mCount == null);
+        for (int i = 0; i < size; i++) {
+            int entry = (int) keys[i];
+            sorted.mLeft[i] = level.mLeft[entry];
+            sorted.mTop[i] = level.mTop[entry];
+            sorted.mRight[i] = level.mRight[entry];
+            sorted.mBottom[i] = level.mBottom[entry];
+            sorted.mFirst[i] = level.mFirst[entry];
+            if (sorted.mCount != null) {
+                sorted.mCount[i] = level.mCount[entry];
+            }
+        }
+        return sorted;
+    }
+
+    // orders by the (doubled) center coordinate, then by entry
+    private static long sortKey(int center, int entry) {
+        return ((long) center << 32) | entry;
+    }
+
+    private static Level parentsOf(Level level) {
+        int size = level.size();
+        Level parents = new Level((size + NODE_CAPACITY - 1) / NODE_CAPACITY, false);
+        for (int p = 0; p < parents.size(); p++) {
+            int first = p * NODE_CAPACITY;
+            int end = Math.min(size, first + NODE_CAPACITY);
+            int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE;
+            int right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+            for (int i = first; i < end; i++) {
+                left = Math.min(left, level.mLeft[i]);
+                top = Math.min(top, level.mTop[i]);
+                right = Math.max(right, level.mRight[i]);
+                bottom = Math.max(bottom, level.mBottom[i]);
+            }
+            parents.mLeft[p] = left;
+            parents.mTop[p] = top;
+            parents.mRight[p] = right;
+            parents.mBottom[p] = bottom;
+            parents.mFirst[p] = first;
+            parents.mCount[p] = end - first;
+        }
+        return parents;
+    }
+
+    /**
+     * Reports every rectangle that shares a non-empty area with the given one; rectangles
+     * that only touch it, and empty rectangles, are not reported.
+     */
+    public void query(Rectangle area, IItemListener listener) {
+        int left = area.x;
+        int top = area.y;
+        int right = area.x + area.width;
+        int bottom = area.y + area.height;
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        // pending (level, entry) pairs
+        int[] stack = new int[64];
+        int size = 0;
+        int root = mLevels.length - 1;
+        for (int i = mLevels[root].size() - 1; i >= 0; i--) {
+            if (size + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[size++] = root;
+            stack[size++] = i;
+        }
+        while (size > 0) {
+            int entry = stack[--size];
+            int levelIndex = stack[--size];
+            Level level = mLevels[levelIndex];
+            if (!level.overlaps(entry, left, top, right, bottom)) {
+                continue;
+            }
+            if (level.mCount == null) {
+                if (level.mLeft[entry] < level.mRight[entry]
+                        && level.mTop[entry] < level.mBottom[entry]) {
+                    listener.onItem(level.mFirst[entry]);
+                }
+                continue;
+            }
+            int first = level.mFirst[entry];
+            for (int i = first + level.mCount[entry] - 1; i >= first; i--) {
+                if (size + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[size++] = levelIndex - 1;
+                stack[size++] = i;
+            }
+        }
+    }
+
+    public int size() {
+        return mLevels[0].size();
+    }
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.dataset;
+
+import com.android.uiautomator.json.JsonWriter;
+import com.android.uiautomator.tree.AttributeProfile;
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.UiHierarchyXmlLoader;
+import com.android.uiautomator.tree.UiNode;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.ImageLoader;
+import org.eclipse.swt.graphics.Rectangle;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exports a directory tree of .uix dumps and their screenshots as an image dataset: a crop
+ * of every node with bounds, plus a COCO style annotations.json describing them.
+ *
+ * A dump is paired with the .png of the same name next to it, as saved by the viewer;
+ * dumps without one are skipped. Screens are exported in parallel on a fork/join pool while
+ * the directory is still being walked. Every worker decodes its screenshot once, writes the
+ * crops straight to disk and drops the screen before taking the next one, and the number of
+ * screens queued is bounded, so memory use does not grow with the size of the corpus.
+ * Annotations are streamed to the output as screens complete; only the category table is
+ * kept in memory, and the image table is spooled to a temporary file until the end.
+ *
+ * Output layout:
+ * <pre>
+ * annotations.json          {"annotations":[...],"images":[...],"categories":[...]}
+ * crops/&lt;image id&gt;/&lt;n&gt;.png  crop of the n-th node of the dump, in document order
+ * </pre>
+ *
+ * Usage: DatasetExport &lt;directory&gt; &lt;output directory&gt;
+ */
+public class DatasetExport {
+    private static final String UIX_EXTENSION = ".uix";
+    private static final String PNG_EXTENSION = ".png";
+    private static final String CROPS_DIRECTORY = "crops";
+    private static final String ANNOTATIONS_FILE = "annotations.json";
+
+    /** keeps only the attributes that go into the annotations */
+    public static final AttributeProfile PROFILE;
+
+    static {
+        Map<String, AttributeProfile.Policy> policies =
+                new HashMap<String, AttributeProfile.Policy>();
+        policies.put("class", AttributeProfile.Policy.INTERN);
+        policies.put("resource-id", AttributeProfile.Policy.INTERN);
+        policies.put("clickable", AttributeProfile.Policy.INTERN);
+        policies.put("text", AttributeProfile.Policy.KEEP);
+        policies.put("bounds", AttributeProfile.Policy.KEEP);
+        PROFILE = new AttributeProfile("dataset", AttributeProfile.Policy.DROP, policies,
+                Integer.MAX_VALUE);
+    }
+
+    private final File mInput;
+    private final File mCropDirectory;
+    private final ForkJoinPool mPool;
+    // bounds the number of screens queued or being exported at the same time
+    private final Semaphore mInFlight;
+
+    // guarded by this: the annotations array of the output, the image spool and the ids
+    private final JsonWriter mAnnotations;
+    private final DataOutputStream mImageSpool;
+    private final Map<String, Integer> mCategories = new LinkedHashMap<String, Integer>();
+    private long mNextAnnotationId = 1;
+    private IOException mOutputError;
+
+    // only touched by the thread walking the directory
+    private int mNextImageId = 1;
+
+    private final AtomicInteger mScreensExported = new AtomicInteger();
+    private final AtomicInteger mScreensSkipped = new AtomicInteger();
+    private final AtomicInteger mScreensFailed = new AtomicInteger();
+    private final AtomicLong mCropCount = new AtomicLong();
+
+    /**
+     * @param input directory searched for dumps
+     * @param annotations writer of annotations.json
+     * @param imageSpool temporary storage of the image table
+     * @param cropDirectory directory the crops are written to
+     * @param parallelism number of screens exported at the same time
+     */
+    public DatasetExport(File input, JsonWriter annotations, DataOutputStream imageSpool,
+            File cropDirectory, int parallelism) {
+        mInput = input;
+        mAnnotations = annotations;
+        mImageSpool = imageSpool;
+        mCropDirectory = cropDirectory;
+        mPool = new ForkJoinPool(parallelism);
+        mInFlight = new Semaphore(parallelism * 2);
+    }
+
+    /**
+     * Exports all screens below the input directory, returns once all of them are done.
+     *
+     * @param imageSpool file the image table was spooled to, read back at the end
+     */
+    public void run(File imageSpool) throws IOException, InterruptedException {
+        mAnnotations.beginObject();
+        mAnnotations.name("annotations").beginArray();
+        try {
+            walk();
+        } finally {
+            mPool.shutdown();
+            mPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        synchronized (this) {
+            if (mOutputError != null) {
+                throw mOutputError;
+            }
+            mAnnotations.endArray();
+            mImageSpool.close();
+            writeImages(imageSpool);
+            writeCategories();
+            mAnnotations.endObject();
+            mAnnotations.newLine();
+            mAnnotations.flush();
+        }
+    }
+
+    /**
+     * Submits the screens in name order, directories after the files.
+     */
+    private void walk() throws InterruptedException {
+        List<File> pending = new ArrayList<File>();
+        pending.add(mInput);
+        while (!pending.isEmpty()) {
+            File[] files = pending.remove(pending.size() - 1).listFiles();
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            for (int i = files.length - 1; i >= 0; i--) {
+                if (files[i].isDirectory()) {
+                    pending.add(files[i]);
+                }
+            }
+            for (File file : files) {
+                String name = file.getName();
+                if (!file.isFile() || !name.endsWith(UIX_EXTENSION)) {
+                    continue;
+                }
+                final File dump = file;
+                final File screenshot = new File(file.getParentFile(),
+                        name.substring(0, name.length() - UIX_EXTENSION.length())
+                                + PNG_EXTENSION);
+                if (!screenshot.isFile()) {
+                    mScreensSkipped.incrementAndGet();
+                    continue;
+                }
+                final int imageId = mNextImageId++;
+                mInFlight.acquire();
+                mPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            exportScreen(dump, screenshot, imageId);
+                        } catch (RuntimeException e) {
+                            // e.g. a dump with unexpected bounds, the other screens go on
+                            System.err.println("Cannot export " + dump + ": " + e);
+                            mScreensFailed.incrementAndGet();
+                        } finally {
+                            mInFlight.release();
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    private void exportScreen(File dump, File screenshot, int imageId) {
+        ImageData image;
+        try {
+            image = new ImageLoader().load(screenshot.getAbsolutePath())[0];
+        } catch (SWTException e) {
+            System.err.println("Cannot decode " + screenshot + ": " + e.getMessage());
+            mScreensFailed.incrementAndGet();
+            return;
+        }
+        UiHierarchyXmlLoader loader = new UiHierarchyXmlLoader();
+        loader.setAttributeProfile(PROFILE);
+        if (loader.parseXml(dump.getAbsolutePath()) == null) {
+            mScreensFailed.incrementAndGet();
+            return;
+        }
+
+        File directory = new File(mCropDirectory, String.valueOf(imageId));
+        directory.mkdirs();
+        Rectangle screen = new Rectangle(0, 0, image.width, image.height);
+        List<Crop> crops = new ArrayList<Crop>();
+        ImageLoader encoder = new ImageLoader();
+        int ordinal = 0;
+        try {
+            for (BasicTreeNode node : loader.getAllNodes()) {
+                if (!(node instanceof UiNode)) {
+                    continue;
+                }
+                ordinal++;
+                Rectangle bounds = new Rectangle(node.x, node.y, node.width, node.height)
+                        .intersection(screen);
+                if (bounds.isEmpty()) {
+                    continue;
+                }
+                String name = ordinal + PNG_EXTENSION;
+                encoder.data = new ImageData[] { crop(image, bounds) };
+                encoder.save(new File(directory, name).getPath(), SWT.IMAGE_PNG);
+                crops.add(new Crop((UiNode) node, bounds,
+                        CROPS_DIRECTORY + "/" + imageId + "/" + name));
+            }
+        } catch (SWTException e) {
+            System.err.println("Cannot write crops of " + dump + ": " + e.getMessage());
+            mScreensFailed.incrementAndGet();
+            return;
+        }
+        writeScreen(imageId, mInput.toURI().relativize(screenshot.toURI()).getPath(),
+                image.width, image.height, crops);
+        mScreensExported.incrementAndGet();
+        mCropCount.addAndGet(crops.size());
+    }
+
+    /**
+     * Copies a part of an image, row by row for the usual byte aligned formats.
+     */
+    static ImageData crop(ImageData image, Rectangle bounds) {
+        ImageData crop = new ImageData(bounds.width, bounds.height, image.depth,
+                image.palette);
+        crop.transparentPixel = image.transparentPixel;
+        crop.alpha = image.alpha;
+        if (image.depth == 8 || image.depth == 24 || image.depth == 32) {
+            int bytesPerPixel = image.depth / 8;
+            for (int row = 0; row < bounds.height; row++) {
+                System.arraycopy(image.data,
+                        (bounds.y + row) * image.bytesPerLine + bounds.x * bytesPerPixel,
+                        crop.data, row * crop.bytesPerLine, bounds.width * bytesPerPixel);
+            }
+        } else {
+            int[] pixels = new int[bounds.width];
+            for (int row = 0; row < bounds.height; row++) {
+                image.getPixels(bounds.x, bounds.y + row, bounds.width, pixels, 0);
+                crop.setPixels(0, row, bounds.width, pixels, 0);
+            }
+        }
+        if (image.alphaData != null) {
+            crop.alphaData = new byte[bounds.width * bounds.height];
+            for (int row = 0; row < bounds.height; row++) {
+                System.arraycopy(image.alphaData, (bounds.y + row) * image.width + bounds.x,
+                        crop.alphaData, row * bounds.width, bounds.width);
+            }
+        }
+        return crop;
+    }
+
+    private synchronized void writeScreen(int imageId, String fileName, int width,
+            int height, List<Crop> crops) {
+        if (mOutputError != null) {
+            return;
+        }
+        try {
+            mImageSpool.writeInt(imageId);
+            mImageSpool.writeUTF(fileName);
+            mImageSpool.writeInt(width);
+            mImageSpool.writeInt(height);
+            for (Crop crop : crops) {
+                String className = crop.node.getAttribute("class");
+                if (className == null) {
+                    className = "";
+                }
+                Integer categoryId = mCategories.get(className);
+                if (categoryId == null) {
+                    categoryId = mCategories.size() + 1;
+                    mCategories.put(className, categoryId);
+                }
+                Rectangle b = crop.bounds;
+                mAnnotations.beginObject();
+                mAnnotations.name("id").value(mNextAnnotationId++);
+                mAnnotations.name("image_id").value(imageId);
+                mAnnotations.name("category_id").value(categoryId.longValue());
+                mAnnotations.name("bbox").beginArray().value(b.x).value(b.y)
+                        .value(b.width).value(b.height).endArray();
+                mAnnotations.name("area").value((long) b.width * b.height);
+                mAnnotations.name("iscrowd").value(0);
+                mAnnotations.name("resource_id").value(crop.node.getAttribute("resource-id"));
+                mAnnotations.name("text").value(crop.node.getAttribute("text"));
+                mAnnotations.name("clickable")
+                        .value("true".equals(crop.node.getAttribute("clickable")));
+                mAnnotations.name("crop").value(crop.path);
+                mAnnotations.endObject();
+            }
+        } catch (IOException e) {
+            mOutputError = e;
+        }
+    }
+
+    private void writeImages(File imageSpool) throws IOException {
+        mAnnotations.name("images").beginArray();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(imageSpool)));
+        try {
+            while (true) {
+                int id;
+                try {
+                    id = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                mAnnotations.beginObject();
+                mAnnotations.name("id").value(id);
+                mAnnotations.name("file_name").value(in.readUTF());
+                mAnnotations.name("width").value(in.readInt());
+                mAnnotations.name("height").value(in.readInt());
+                mAnnotations.endObject();
+            }
+        } finally {
+            in.close();
+        }
+        mAnnotations.endArray();
+    }
+
+    private void writeCategories() throws IOException {
+        mAnnotations.name("categories").beginArray();
+        for (Map.Entry<String, Integer> entry : mCategories.entrySet()) {
+            mAnnotations.beginObject();
+            mAnnotations.name("id").value(entry.getValue().longValue());
+            mAnnotations.name("name").value(entry.getKey());
+            mAnnotations.endObject();
+        }
+        mAnnotations.endArray();
+    }
+
+    public int getScreensExported() {
+        return mScreensExported.get();
+    }
+
+    public int getScreensSkipped() {
+        return mScreensSkipped.get();
+    }
+
+    public int getScreensFailed() {
+        return mScreensFailed.get();
+    }
+
+    public long getCropCount() {
+        return mCropCount.get();
+    }
+
+    private static class Crop {
+        final UiNode node;
+        final Rectangle bounds;
+        final String path;
+
+        Crop(UiNode node, Rectangle bounds, String path) {
+            this.node = node;
+            this.bounds = bounds;
+            this.path = path;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: DatasetExport <directory> <output directory>");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        File cropDirectory = new File(output, CROPS_DIRECTORY);
+        if (!cropDirectory.isDirectory() && !cropDirectory.mkdirs()) {
+            System.err.println("Cannot create " + cropDirectory);
+            System.exit(1);
+        }
+        File annotationsFile = new File(output, ANNOTATIONS_FILE);
+        File spoolFile = File.createTempFile("images_", ".spool", output);
+        spoolFile.deleteOnExit();
+        JsonWriter annotations = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(annotationsFile), "UTF-8"), 64 * 1024));
+        DataOutputStream spool = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(spoolFile)));
+        DatasetExport export = new DatasetExport(input, annotations, spool, cropDirectory,
+                Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        try {
+            export.run(spoolFile);
+        } finally {
+            spool.close();
+            annotations.close();
+            spoolFile.delete();
+        }
+        System.out.println(String.format(
+                "Exported %d screens (%d without screenshot, %d failed), %d crops in %dms: %s",
+                export.getScreensExported(), export.getScreensSkipped(),
+                export.getScreensFailed(), export.getCropCount(),
+                (System.nanoTime() - start) / 1000000L, annotationsFile));
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.android.uiautomator.CanvasPaint")
+@Label("Canvas Paint")
+@Category({"UI Automator Viewer", "Rendering"})
+@Description("Painting of the screenshot canvas and its overlays")
+public class CanvasPaintEvent extends jdk.jfr.Event {
+    @Label("Image Width")
+    public int imageWidth;
+
+    @Label("Image Height")
+    public int imageHeight;
+
+    @Label("Overlay Rectangles")
+    public int overlayCount;
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One phase of a device capture. The phase is timed by
+ * {@link com.android.uiautomator.CaptureMetrics}, so the event is committed when the phase
+ * ends and its length is carried in {@link #phaseDuration}.
+ */
+@Name("com.android.uiautomator.CapturePhase")
+@Label("Capture Phase")
+@Category({"UI Automator Viewer", "Capture"})
+@Description("A phase of a device capture: rm, dump, pull, parse, screenshot or encode")
+public class CapturePhaseEvent extends jdk.jfr.Event {
+    @Label("Device Serial")
+    public String serial;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Phase Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long phaseDuration;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+
+/**
+ * Entry point for the viewer's Java Flight Recorder support.
+ *
+ * The event classes in this package extend {@code jdk.jfr.Event}, which does not exist on
+ * older Java 8 runtimes. Callers must check {@link #isAvailable()} before touching any of
+ * them, so that the viewer keeps working, without events, on such runtimes.
+ */
+public class FlightRecorderSupport {
+    private static final boolean sAvailable = detect();
+    private static Recording sRecording;
+
+    private static boolean detect() {
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return FlightRecorder.isAvailable();
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if JFR events can be created and committed on this runtime
+     */
+    public static boolean isAvailable() {
+        return sAvailable;
+    }
+
+    public static synchronized boolean isRecording() {
+        return sRecording != null;
+    }
+
+    /**
+     * Starts an in-process recording with the JDK "profile" settings plus all viewer events.
+     */
+    public static synchronized void startRecording() throws IOException {
+        if (!sAvailable) {
+            throw new IOException("Java Flight Recorder is not available in this runtime");
+        }
+        if (sRecording != null) {
+            return;
+        }
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration("profile"));
+        } catch (ParseException e) {
+            recording = new Recording();
+        }
+        recording.setName("uiautomatorviewer");
+        recording.enable(HierarchyParseEvent.class);
+        recording.enable(ModelBuildEvent.class);
+        recording.enable(HoverHitTestEvent.class);
+        recording.enable(HoverFrameEvent.class);
+        recording.enable(SearchEvent.class);
+        recording.enable(CanvasPaintEvent.class);
+        recording.enable(CapturePhaseEvent.class);
+        recording.start();
+        sRecording = recording;
+    }
+
+    /**
+     * Stops the running recording and writes it to the given .jfr file.
+     */
+    public static synchronized void dumpRecording(File destination) throws IOException {
+        if (sRecording == null) {
+            throw new IOException("No recording in progress");
+        }
+        Recording recording = sRecording;
+        sRecording = null;
+        try {
+            recording.stop();
+            recording.dump(destination.toPath());
+        } finally {
+            recording.close();
+        }
+    }
+}
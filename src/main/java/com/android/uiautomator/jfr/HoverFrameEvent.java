@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+@Name("com.android.uiautomator.HoverFrame")
+@Label("Hover Frame")
+@Category({"UI Automator Viewer", "Interaction"})
+@Description("One frame of the coalesced hover pipeline")
+public class HoverFrameEvent extends jdk.jfr.Event {
+    @Label("Coalesced Move Events")
+    public int coalescedEvents;
+
+    @Label("Pointer Latency")
+    @Description("Time from the oldest unprocessed mouse move to the end of the frame")
+    @Timespan(Timespan.NANOSECONDS)
+    public long latency;
+
+    @Label("Over Latency Target")
+    public boolean overTarget;
+
+    @Label("Node Changed")
+    public boolean nodeChanged;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.android.uiautomator.HoverHitTest")
+@Label("Hover Hit Test")
+@Category({"UI Automator Viewer", "Interaction"})
+@Description("Lookup of the node under the pointer on the screenshot")
+public class HoverHitTestEvent extends jdk.jfr.Event {
+    @Label("X")
+    public int x;
+
+    @Label("Y")
+    public int y;
+
+    @Label("Node Found")
+    public boolean found;
+}
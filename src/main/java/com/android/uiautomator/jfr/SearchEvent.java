@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.android.uiautomator.Search")
+@Label("Node Search")
+@Category({"UI Automator Viewer", "Interaction"})
+@Description("Search of the node list for a text or content-desc")
+public class SearchEvent extends jdk.jfr.Event {
+    @Label("Query")
+    public String query;
+
+    @Label("Nodes Scanned")
+    public int nodeCount;
+
+    @Label("Result Count")
+    public int resultCount;
+}
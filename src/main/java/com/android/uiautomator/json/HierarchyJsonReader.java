@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.json;
+
+import com.android.uiautomator.json.JsonReader.Token;
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.RootWindowNode;
+import com.android.uiautomator.tree.UiNode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds {@link BasicTreeNode} trees from the JSON written by {@link HierarchyJsonWriter},
+ * while reading it.
+ *
+ * Nodes are created as soon as their fields have been read and before their children, so
+ * the fields of a node are expected before its "children", as the writer puts them. The
+ * nesting is followed with an explicit stack, so hierarchies of any depth can be read.
+ */
+public class HierarchyJsonReader {
+
+    /**
+     * A hierarchy and the name of the dump it was taken from, as written by
+     * {@link HierarchyJsonWriter#writeRecord(String, BasicTreeNode)}.
+     */
+    public static class Record {
+        public final String source;
+        public final BasicTreeNode root;
+
+        public Record(String source, BasicTreeNode root) {
+            this.source = source;
+            this.root = root;
+        }
+    }
+
+    private final JsonReader mReader;
+    // set by readNodeStart(): whether the node's children array has been entered
+    private boolean mInChildren;
+
+    public HierarchyJsonReader(JsonReader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Reads the next top level hierarchy.
+     *
+     * @return the root node, or null at the end of the input
+     */
+    public BasicTreeNode readTree() throws IOException {
+        if (mReader.peek() == Token.END_DOCUMENT) {
+            return null;
+        }
+        return readTreeValue();
+    }
+
+    /**
+     * Reads the next top level record, e.g. the next line of an NDJSON export. Unknown
+     * fields are skipped.
+     *
+     * @return the record, or null at the end of the input
+     */
+    public Record readRecord() throws IOException {
+        if (mReader.peek() == Token.END_DOCUMENT) {
+            return null;
+        }
+        String source = null;
+        BasicTreeNode root = null;
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            if ("source".equals(name) && mReader.peek() == Token.STRING) {
+                source = mReader.nextString();
+            } else if ("hierarchy".equals(name) && mReader.peek() == Token.BEGIN_OBJECT) {
+                root = readTreeValue();
+            } else {
+                mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+        return new Record(source, root);
+    }
+
+    private BasicTreeNode readTreeValue() throws IOException {
+        BasicTreeNode root = readNodeStart(null);
+        if (!mInChildren) {
+            return root;
+        }
+        // nodes whose children array is being read
+        List<BasicTreeNode> open = new ArrayList<BasicTreeNode>();
+        open.add(root);
+        while (!open.isEmpty()) {
+            BasicTreeNode parent = open.get(open.size() - 1);
+            if (mReader.hasNext()) {
+                BasicTreeNode child = readNodeStart(parent);
+                if (mInChildren) {
+                    open.add(child);
+                }
+            } else {
+                mReader.endArray();
+                readNodeEnd();
+                open.remove(open.size() - 1);
+            }
+        }
+        return root;
+    }
+
+    /**
+     * Reads a node object up to and including the opening of its children array, or up to
+     * its end if it has no children, and adds it to the parent.
+     */
+    private BasicTreeNode readNodeStart(BasicTreeNode parent) throws IOException {
+        mReader.beginObject();
+        boolean window = false;
+        String windowName = null;
+        int rotation = 0;
+        UiNode uiNode = null;
+        mInChildren = false;
+        while (!mInChildren && mReader.hasNext()) {
+            String name = mReader.nextName();
+            if ("window".equals(name)) {
+                window = true;
+                windowName = nextStringOrNull();
+            } else if ("rotation".equals(name)) {
+                rotation = mReader.nextInt();
+            } else if ("attributes".equals(name)) {
+                uiNode = new UiNode();
+                mReader.beginObject();
+                while (mReader.hasNext()) {
+                    String key = mReader.nextName();
+                    String value = nextStringOrNull();
+                    if (value != null) {
+                        uiNode.addAtrribute(key, value);
+                    }
+                }
+                mReader.endObject();
+            } else if ("children".equals(name)) {
+                mReader.beginArray();
+                mInChildren = true;
+            } else {
+                mReader.skipValue();
+            }
+        }
+        if (!mInChildren) {
+            mReader.endObject();
+        }
+        BasicTreeNode node;
+        if (window) {
+            node = new RootWindowNode(windowName, rotation);
+        } else if (uiNode != null) {
+            node = uiNode;
+        } else {
+            node = new BasicTreeNode();
+        }
+        if (parent != null) {
+            parent.addChild(node);
+        }
+        return node;
+    }
+
+    // skips whatever follows the children of a node, and ends it
+    private void readNodeEnd() throws IOException {
+        while (mReader.hasNext()) {
+            mReader.nextName();
+            mReader.skipValue();
+        }
+        mReader.endObject();
+    }
+
+    private String nextStringOrNull() throws IOException {
+        if (mReader.peek() == Token.NULL) {
+            mReader.nextNull();
+            return null;
+        }
+        return mReader.nextString();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.json;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.NodeVisitor;
+import com.android.uiautomator.tree.RootWindowNode;
+import com.android.uiautomator.tree.TreeWalker;
+import com.android.uiautomator.tree.UiNode;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serializes {@link BasicTreeNode} trees to JSON while walking them.
+ *
+ * A window root becomes {"window":..., "rotation":..., "children":[...]}, every other node
+ * {"attributes":{...}, "children":[...]}, with attributes in document order.
+ */
+public class HierarchyJsonWriter {
+    private final JsonWriter mWriter;
+
+    public HierarchyJsonWriter(JsonWriter writer) {
+        mWriter = writer;
+    }
+
+    public void writeTree(BasicTreeNode node) throws IOException {
+        final IOException[] error = new IOException[1];
+        TreeWalker.walk(node, new NodeVisitor() {
+            @Override
+            public Action preVisit(BasicTreeNode node, int depth) {
+                try {
+                    mWriter.beginObject();
+                    writeNodeFields(node);
+                    if (node.hasChild()) {
+                        mWriter.name("children").beginArray();
+                    }
+                    return Action.CONTINUE;
+                } catch (IOException e) {
+                    error[0] = e;
+                    return Action.STOP;
+                }
+            }
+
+            @Override
+            public Action postVisit(BasicTreeNode node, int depth) {
+                try {
+                    if (node.hasChild()) {
+                        mWriter.endArray();
+                    }
+                    mWriter.endObject();
+                    return Action.CONTINUE;
+                } catch (IOException e) {
+                    error[0] = e;
+                    return Action.STOP;
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    /**
+     * Writes a hierarchy with the name of the dump it was taken from, followed by a new
+     * line, i.e. as one line of an NDJSON stream:
+     * {"source":..., "hierarchy":{...}}
+     */
+    public void writeRecord(String source, BasicTreeNode root) throws IOException {
+        mWriter.beginObject();
+        mWriter.name("source").value(source);
+        mWriter.name("hierarchy");
+        writeTree(root);
+        mWriter.endObject();
+        mWriter.newLine();
+    }
+
+    /**
+     * Writes a node without its children.
+     */
+    public void writeNode(BasicTreeNode node) throws IOException {
+        mWriter.beginObject();
+        writeNodeFields(node);
+        mWriter.endObject();
+    }
+
+    private void writeNodeFields(BasicTreeNode node) throws IOException {
+        if (node instanceof RootWindowNode) {
+            mWriter.name("window").value(node.toString());
+            mWriter.name("rotation").value(((RootWindowNode) node).getRotation());
+        } else if (node instanceof UiNode) {
+            mWriter.name("attributes").beginObject();
+            for (Map.Entry<String, String> entry : ((UiNode) node).getAttributes().entrySet()) {
+                mWriter.name(entry.getKey()).value(entry.getValue());
+            }
+            mWriter.endObject();
+        }
+    }
+}
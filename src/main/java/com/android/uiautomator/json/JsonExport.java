@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.json;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Converts .uix dumps to NDJSON, one {@link HierarchyJsonWriter#writeRecord} line per dump.
+ *
+ * The JSON is written straight from the XML parser's events, without building a tree or
+ * holding a dump in memory, so the conversion of a corpus runs at the speed of the disks.
+ * A dump that cannot be parsed still produces a valid line: its "hierarchy" holds what was
+ * read and an "error" field tells why it stopped.
+ *
+ * Usage: JsonExport &lt;directory|dump.uix&gt; [output.ndjson]
+ */
+public class JsonExport {
+    private static final String UIX_EXTENSION = ".uix";
+
+    // entries of the element stack
+    private static final int ELEMENT_IGNORED = 0;
+    private static final int ELEMENT_NODE = 1;
+    // a node whose "children" array has been opened
+    private static final int ELEMENT_PARENT = 2;
+
+    private final JsonWriter mWriter;
+    private final SAXParser mParser;
+    private int mDumpCount;
+    private int mFailedCount;
+    private long mNodeCount;
+    private long mBytesRead;
+
+    public JsonExport(JsonWriter writer) throws ParserConfigurationException, SAXException {
+        mWriter = writer;
+        mParser = SAXParserFactory.newInstance().newSAXParser();
+    }
+
+    /**
+     * Writes the record line of one dump.
+     *
+     * @param dump
+     * @param source name of the dump, written into the record
+     * @return false if the dump could not be parsed completely
+     * @throws IOException if the output could not be written
+     */
+    public boolean export(File dump, String source) throws IOException {
+        mWriter.beginObject();
+        mWriter.name("source").value(source);
+        mWriter.name("hierarchy");
+        ExportHandler handler = new ExportHandler();
+        String error = null;
+        try {
+            mParser.reset();
+            mParser.parse(dump, handler);
+        } catch (SAXException e) {
+            error = e.getMessage();
+        } catch (IOException e) {
+            error = e.toString();
+        }
+        if (handler.mOutputError != null) {
+            throw handler.mOutputError;
+        }
+        if (!handler.close()) {
+            mWriter.value((String) null);
+        }
+        if (error != null) {
+            mWriter.name("error").value(error);
+        }
+        mWriter.endObject();
+        mWriter.newLine();
+
+        mDumpCount++;
+        mBytesRead += dump.length();
+        if (error != null) {
+            mFailedCount++;
+        }
+        return error == null;
+    }
+
+    /**
+     * Exports every dump below a directory, in name order.
+     */
+    public void exportDirectory(File directory) throws IOException {
+        List<File> pending = new ArrayList<File>();
+        pending.add(directory);
+        while (!pending.isEmpty()) {
+            File[] files = pending.remove(pending.size() - 1).listFiles();
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+            // directories are visited after the files, in name order
+            for (int i = files.length - 1; i >= 0; i--) {
+                if (files[i].isDirectory()) {
+                    pending.add(files[i]);
+                }
+            }
+            for (File file : files) {
+                if (file.isFile() && file.getName().endsWith(UIX_EXTENSION)) {
+                    export(file, file.getPath());
+                }
+            }
+        }
+    }
+
+    public int getDumpCount() {
+        return mDumpCount;
+    }
+
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    public long getNodeCount() {
+        return mNodeCount;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    /**
+     * Writes the JSON of one dump while it is parsed, in the format of
+     * {@link HierarchyJsonWriter}.
+     */
+    private class ExportHandler extends DefaultHandler {
+        private int[] mElements = new int[32];
+        private int mDepth;
+        private boolean mStarted;
+        IOException mOutputError;
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) throws SAXException {
+            boolean window = "hierarchy".equals(qName);
+            if (mDepth == mElements.length) {
+                mElements = Arrays.copyOf(mElements, mDepth * 2);
+            }
+            int parent = mDepth - 1;
+            while (parent >= 0 && mElements[parent] == ELEMENT_IGNORED) {
+                parent--;
+            }
+            // other elements are skipped, and there is only one root per record
+            if (!window && !"node".equals(qName) || parent < 0 && mStarted) {
+                mElements[mDepth++] = ELEMENT_IGNORED;
+                return;
+            }
+            try {
+                if (parent >= 0 && mElements[parent] == ELEMENT_NODE) {
+                    mWriter.name("children").beginArray();
+                    mElements[parent] = ELEMENT_PARENT;
+                }
+                mStarted = true;
+                mWriter.beginObject();
+                if (window) {
+                    int rotation = 0;
+                    try {
+                        String value = attributes.getValue("rotation");
+                        if (value != null) {
+                            rotation = Integer.parseInt(value);
+                        }
+                    } catch (NumberFormatException e) {
+                        // keep 0, as the viewer does
+                    }
+                    mWriter.name("window").value(attributes.getValue("windowName"));
+                    mWriter.name("rotation").value(rotation);
+                } else {
+                    mWriter.name("attributes").beginObject();
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        mWriter.name(attributes.getQName(i)).value(attributes.getValue(i));
+                    }
+                    mWriter.endObject();
+                    mNodeCount++;
+                }
+                mElements[mDepth++] = ELEMENT_NODE;
+            } catch (IOException e) {
+                throw outputError(e);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+                throws SAXException {
+            try {
+                endTopElement();
+            } catch (IOException e) {
+                throw outputError(e);
+            }
+        }
+
+        /**
+         * Ends whatever the parse left open.
+         *
+         * @return false if nothing was written at all
+         */
+        boolean close() throws IOException {
+            while (mDepth > 0) {
+                endTopElement();
+            }
+            return mStarted;
+        }
+
+        private void endTopElement() throws IOException {
+            int element = mElements[--mDepth];
+            if (element == ELEMENT_PARENT) {
+                mWriter.endArray();
+            }
+            if (element != ELEMENT_IGNORED) {
+                mWriter.endObject();
+            }
+        }
+
+        private SAXException outputError(IOException e) {
+            mOutputError = e;
+            return new SAXException(e);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: JsonExport <directory|dump.uix> [output.ndjson]");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        OutputStream out = args.length > 1 ? new FileOutputStream(args[1]) : System.out;
+        JsonWriter writer = new JsonWriter(new BufferedWriter(
+                new OutputStreamWriter(out, "UTF-8"), 64 * 1024));
+        JsonExport export = new JsonExport(writer);
+        long start = System.nanoTime();
+        try {
+            if (input.isDirectory()) {
+                export.exportDirectory(input);
+            } else {
+                export.export(input, input.getPath());
+            }
+        } finally {
+            writer.close();
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1000000L);
+        System.err.println(String.format(
+                "Exported %d dumps (%d failed), %d nodes, %.1f MB in %dms (%.1f MB/s)",
+                export.getDumpCount(), export.getFailedCount(), export.getNodeCount(),
+                export.getBytesRead() / (1024.0 * 1024.0), millis,
+                export.getBytesRead() / (1024.0 * 1024.0) / (millis / 1000.0)));
+    }
+}
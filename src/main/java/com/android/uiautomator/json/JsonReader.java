@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON reader, the counterpart of {@link JsonWriter}.
+ *
+ * The input is read through a fixed size buffer and handed out one token at a time, so
+ * documents of any size are read with memory proportional to their nesting depth only.
+ * Several top level values may follow each other, separated by white space, which is how
+ * NDJSON streams are read: call {@link #peek()} until it returns
+ * {@link Token#END_DOCUMENT}.
+ */
+public class JsonReader implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN,
+        NULL, END_DOCUMENT
+    }
+
+    // what is expected next in each open scope
+    private static final int SCOPE_DOCUMENT = 0;
+    private static final int SCOPE_EMPTY_ARRAY = 1;
+    private static final int SCOPE_ARRAY = 2;
+    private static final int SCOPE_EMPTY_OBJECT = 3;
+    private static final int SCOPE_OBJECT = 4;
+    // a name has been read, its value comes next
+    private static final int SCOPE_NAME = 5;
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[8192];
+    private int mPos, mLimit;
+    private int mLine = 1;
+
+    private int[] mScopes = new int[32];
+    private int mDepth = 1;
+
+    // the token read ahead by peek(), null if none
+    private Token mPeeked;
+    // text of a peeked NAME, STRING, NUMBER or BOOLEAN
+    private String mPeekedText;
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    public JsonReader(Reader in) {
+        mIn = in;
+        mScopes[0] = SCOPE_DOCUMENT;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public Token peek() throws IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+        int c;
+        switch (mScopes[mDepth - 1]) {
+            case SCOPE_DOCUMENT:
+                c = nextNonWhitespace();
+                if (c == -1) {
+                    return mPeeked = Token.END_DOCUMENT;
+                }
+                return mPeeked = readValue(c);
+            case SCOPE_EMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                mScopes[mDepth - 1] = SCOPE_ARRAY;
+                return mPeeked = readValue(c);
+            case SCOPE_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    return mPeeked = Token.END_ARRAY;
+                }
+                if (c != ',') {
+                    throw syntaxError("expected ',' or ']'");
+                }
+                return mPeeked = readValue(nextNonWhitespace());
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (mScopes[mDepth - 1] == SCOPE_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("expected ',' or '}'");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("expected a name");
+                }
+                mPeekedText = readString();
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("expected ':'");
+                }
+                mScopes[mDepth - 1] = SCOPE_NAME;
+                return mPeeked = Token.NAME;
+            case SCOPE_NAME:
+                mScopes[mDepth - 1] = SCOPE_OBJECT;
+                return mPeeked = readValue(nextNonWhitespace());
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Returns whether the current array or object has more elements.
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY
+                && token != Token.END_DOCUMENT;
+    }
+
+    public void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+        push(SCOPE_EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+        mDepth--;
+    }
+
+    public void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+        push(SCOPE_EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+        mDepth--;
+    }
+
+    public String nextName() throws IOException {
+        consume(Token.NAME);
+        return mPeekedText;
+    }
+
+    /**
+     * Reads a string, or the text of a number.
+     */
+    public String nextString() throws IOException {
+        if (peek() == Token.NUMBER) {
+            consume(Token.NUMBER);
+        } else {
+            consume(Token.STRING);
+        }
+        return mPeekedText;
+    }
+
+    public long nextLong() throws IOException {
+        consume(Token.NUMBER);
+        try {
+            return Long.parseLong(mPeekedText);
+        } catch (NumberFormatException e) {
+            double d = Double.parseDouble(mPeekedText);
+            if (d != (long) d) {
+                throw syntaxError("not an integer: " + mPeekedText);
+            }
+            return (long) d;
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("not an int: " + value);
+        }
+        return (int) value;
+    }
+
+    public double nextDouble() throws IOException {
+        consume(Token.NUMBER);
+        try {
+            return Double.parseDouble(mPeekedText);
+        } catch (NumberFormatException e) {
+            throw syntaxError("not a number: " + mPeekedText);
+        }
+    }
+
+    public boolean nextBoolean() throws IOException {
+        consume(Token.BOOLEAN);
+        return "true".equals(mPeekedText);
+    }
+
+    public void nextNull() throws IOException {
+        consume(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, including everything nested in it.
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch (peek()) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("unexpected end of input");
+                default:
+                    mPeeked = null;
+                    break;
+            }
+        } while (depth > 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private void consume(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("expected " + expected + " but was " + token);
+        }
+        mPeeked = null;
+    }
+
+    private void push(int scope) {
+        if (mDepth == mScopes.length) {
+            mScopes = Arrays.copyOf(mScopes, mDepth * 2);
+        }
+        mScopes[mDepth++] = scope;
+    }
+
+    private Token readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case '"':
+                mPeekedText = readString();
+                return Token.STRING;
+            case 't':
+                readLiteral("rue");
+                mPeekedText = "true";
+                return Token.BOOLEAN;
+            case 'f':
+                readLiteral("alse");
+                mPeekedText = "false";
+                return Token.BOOLEAN;
+            case 'n':
+                readLiteral("ull");
+                return Token.NULL;
+            case -1:
+                throw syntaxError("unexpected end of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    mPeekedText = readNumber((char) c);
+                    return Token.NUMBER;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void readLiteral(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (read() != rest.charAt(i)) {
+                throw syntaxError("malformed literal");
+            }
+        }
+    }
+
+    private String readNumber(char first) throws IOException {
+        mBuilder.setLength(0);
+        mBuilder.append(first);
+        while (true) {
+            int c = read();
+            if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+'
+                    || c == '-') {
+                mBuilder.append((char) c);
+            } else {
+                if (c != -1) {
+                    mPos--;
+                }
+                return mBuilder.toString();
+            }
+        }
+    }
+
+    // reads the rest of a string whose opening quote has been read
+    private String readString() throws IOException {
+        mBuilder.setLength(0);
+        while (true) {
+            // copy runs of plain characters straight from the buffer
+            int start = mPos;
+            while (mPos < mLimit) {
+                char c = mBuffer[mPos];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                mPos++;
+            }
+            mBuilder.append(mBuffer, start, mPos - start);
+            int c = read();
+            if (c == '"') {
+                return mBuilder.toString();
+            } else if (c == '\\') {
+                mBuilder.append(readEscape());
+            } else if (c == -1) {
+                throw syntaxError("unterminated string");
+            } else {
+                // the run ended at the end of the buffer
+                mBuilder.append((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("malformed \\u escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("malformed escape");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == '\n') {
+                mLine++;
+            } else if (c != ' ' && c != '\t' && c != '\r') {
+                return c;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+            mPos = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPos++];
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON at line " + mLine + ": " + message);
+    }
+}
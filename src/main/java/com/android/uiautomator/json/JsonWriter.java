@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.json;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming JSON writer. Values are written to the underlying writer as they come,
+ * through a small fixed buffer, and nothing else is kept beyond the nesting state, so
+ * arbitrarily large documents can be produced with constant memory.
+ */
+public class JsonWriter implements Closeable, Flushable {
+    private final Writer mOut;
+    // collects the many small writes, which are costly one by one on a synchronized Writer
+    private final char[] mBuffer = new char[8192];
+    private int mCount = 0;
+    // per nesting level: whether a value was already written, i.e. a comma is needed
+    private boolean[] mHasValue = new boolean[32];
+    private int mDepth = 0;
+    private boolean mAfterName = false;
+
+    public JsonWriter(Writer out) {
+        mOut = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separator();
+        writeString(name);
+        write(':');
+        mAfterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separator();
+        if (value == null) {
+            write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separator();
+        write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        separator();
+        write(Double.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separator();
+        write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Ends a top level value with a new line, as used by NDJSON streams.
+     */
+    public JsonWriter newLine() throws IOException {
+        write('\n');
+        mHasValue[0] = false;
+        return this;
+    }
+
+    private JsonWriter open(char c) throws IOException {
+        separator();
+        if (mDepth + 1 == mHasValue.length) {
+            mHasValue = Arrays.copyOf(mHasValue, mHasValue.length * 2);
+        }
+        write(c);
+        mHasValue[++mDepth] = false;
+        return this;
+    }
+
+    private JsonWriter close(char c) throws IOException {
+        if (mDepth == 0) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        mDepth--;
+        write(c);
+        return this;
+    }
+
+    private void separator() throws IOException {
+        if (mAfterName) {
+            mAfterName = false;
+            return;
+        }
+        if (mHasValue[mDepth] && mDepth > 0) {
+            write(',');
+        }
+        mHasValue[mDepth] = true;
+    }
+
+    private void writeString(String s) throws IOException {
+        write('"');
+        int start = 0;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            String escape = null;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                escape = String.format("\\u%04x", (int) c);
+            }
+            if (escape != null) {
+                write(s, start, i - start);
+                write(escape);
+                start = i + 1;
+            }
+        }
+        write(s, start, length - start);
+        write('"');
+    }
+
+    /**
+     * @return the number of arrays and objects currently open
+     */
+    public int getDepth() {
+        return mDepth;
+    }
+
+    private void write(char c) throws IOException {
+        if (mCount == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mCount++] = c;
+    }
+
+    private void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+
+    private void write(String s, int offset, int length) throws IOException {
+        if (length > mBuffer.length - mCount) {
+            flushBuffer();
+            if (length > mBuffer.length) {
+                mOut.write(s, offset, length);
+                return;
+            }
+        }
+        s.getChars(offset, offset + length, mBuffer, mCount);
+        mCount += length;
+    }
+
+    private void flushBuffer() throws IOException {
+        mOut.write(mBuffer, 0, mCount);
+        mCount = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        mOut.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBuffer();
+        mOut.close();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.locator;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.NodeIndex;
+import com.android.uiautomator.tree.UiNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the shortest, most stable XPath that matches exactly one node of a hierarchy.
+ *
+ * The index keeps, for every value of the identifying attributes, alone and together with
+ * the class, the ids of the nodes that have it, in pre-order. How many nodes a candidate
+ * matches is then the length of one list, or two binary searches when only the subtree of
+ * an ancestor counts, so candidates are checked without scanning the hierarchy.
+ *
+ * Locators use the element names of the dumps, e.g. //node[@resource-id="..."].
+ */
+public class LocatorIndex {
+    // attributes that identify a node, most stable first
+    private static final String[] KEYS = { "resource-id", "content-desc", "text" };
+    private static final String CLASS = "class";
+    private static final int[] NO_IDS = new int[0];
+
+    private final NodeIndex mNodeIndex;
+    // feature key -> ids of the nodes having it, ascending
+    private final Map<String, int[]> mFeatures = new HashMap<String, int[]>();
+
+    public LocatorIndex(NodeIndex nodeIndex) {
+        mNodeIndex = nodeIndex;
+        Map<String, IdList> features = new HashMap<String, IdList>();
+        for (int id = 0; id < nodeIndex.size(); id++) {
+            BasicTreeNode node = nodeIndex.getNode(id);
+            if (!(node instanceof UiNode)) {
+                continue;
+            }
+            UiNode uiNode = (UiNode) node;
+            String className = getUsableAttribute(uiNode, CLASS);
+            if (className != null) {
+                add(features, feature(null, CLASS, className), id);
+            }
+            for (String key : KEYS) {
+                String value = getUsableAttribute(uiNode, key);
+                if (value == null) {
+                    continue;
+                }
+                add(features, feature(null, key, value), id);
+                if (className != null) {
+                    add(features, feature(className, key, value), id);
+                }
+            }
+        }
+        for (Map.Entry<String, IdList> entry : features.entrySet()) {
+            mFeatures.put(entry.getKey(), entry.getValue().toArray());
+        }
+    }
+
+    /**
+     * Returns the preferred locator of a node: an identifying attribute that is unique in
+     * the hierarchy, else one that is unique below the nearest uniquely identified ancestor,
+     * else the child positions from that ancestor, or from the root.
+     *
+     * @return the XPath, or null if the node is not a UiNode of this hierarchy
+     */
+    public String getLocator(BasicTreeNode node) {
+        if (!(node instanceof UiNode) || !mNodeIndex.contains(node)) {
+            return null;
+        }
+        int id = node.getNodeId();
+        String locator = getUniqueLocator(id, 0, mNodeIndex.size());
+        if (locator != null) {
+            return locator;
+        }
+        int nearestAnchor = -1;
+        String nearestAnchorLocator = null;
+        for (int ancestor = mNodeIndex.getParentId(id); ancestor > 0;
+                ancestor = mNodeIndex.getParentId(ancestor)) {
+            String anchorLocator = getUniqueLocator(ancestor, 0, mNodeIndex.size());
+            if (anchorLocator == null) {
+                continue;
+            }
+            String relative = getUniqueLocator(id, ancestor + 1,
+                    mNodeIndex.getSubtreeEnd(ancestor));
+            if (relative == null) {
+                relative = getUniqueClassLocator(id, ancestor + 1,
+                        mNodeIndex.getSubtreeEnd(ancestor));
+            }
+            if (relative != null) {
+                return anchorLocator + relative;
+            }
+            if (nearestAnchor < 0) {
+                nearestAnchor = ancestor;
+                nearestAnchorLocator = anchorLocator;
+            }
+        }
+        if (nearestAnchor < 0) {
+            return "/hierarchy" + getPositionalPath(0, id);
+        }
+        return nearestAnchorLocator + getPositionalPath(nearestAnchor, id);
+    }
+
+    /**
+     * Returns the first identifying attribute of a node, alone or with the class, that no
+     * other node with an id in [from, to) has.
+     */
+    private String getUniqueLocator(int id, int from, int to) {
+        UiNode node = (UiNode) mNodeIndex.getNode(id);
+        String className = getUsableAttribute(node, CLASS);
+        for (String key : KEYS) {
+            String value = getUsableAttribute(node, key);
+            if (value == null) {
+                continue;
+            }
+            if (count(feature(null, key, value), from, to) == 1) {
+                return "//node[@" + key + "=" + literal(value) + "]";
+            }
+            if (className != null && count(feature(className, key, value), from, to) == 1) {
+                return "//node[@class=" + literal(className) + " and @" + key + "="
+                        + literal(value) + "]";
+            }
+        }
+        return null;
+    }
+
+    private String getUniqueClassLocator(int id, int from, int to) {
+        String className = getUsableAttribute((UiNode) mNodeIndex.getNode(id), CLASS);
+        if (className != null && count(feature(null, CLASS, className), from, to) == 1) {
+            return "//node[@class=" + literal(className) + "]";
+        }
+        return null;
+    }
+
+    // child positions from an ancestor down to a node, e.g. /node[2]/node[1]
+    private String getPositionalPath(int ancestor, int id) {
+        List<String> steps = new ArrayList<String>();
+        for (int child = id; child != ancestor; child = mNodeIndex.getParentId(child)) {
+            BasicTreeNode node = mNodeIndex.getNode(child);
+            int position = node.getParent().getChildrenList().indexOf(node) + 1;
+            steps.add("/node[" + position + "]");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            sb.append(steps.get(i));
+        }
+        return sb.toString();
+    }
+
+    // number of nodes with the feature and an id in [from, to)
+    private int count(String feature, int from, int to) {
+        int[] ids = mFeatures.get(feature);
+        if (ids == null) {
+            ids = NO_IDS;
+        }
+        if (from == 0 && to >= mNodeIndex.size()) {
+            return ids.length;
+        }
+        return lowerBound(ids, to) - lowerBound(ids, from);
+    }
+
+    private static int lowerBound(int[] ids, int id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    private static String feature(String className, String key, String value) {
+        if (className == null) {
+            return key + '\u0000' + value;
+        }
+        return className + '\u0001' + key + '\u0000' + value;
+    }
+
+    // values cut short by the attribute profile would not match the device
+    private static String getUsableAttribute(UiNode node, String key) {
+        String value = node.getAttribute(key);
+        if (value == null || value.isEmpty() || node.isTruncated(key)) {
+            return null;
+        }
+        return value;
+    }
+
+    private static String literal(String value) {
+        if (value.indexOf('"') < 0) {
+            return '"' + value + '"';
+        }
+        if (value.indexOf('\'') < 0) {
+            return '\'' + value + '\'';
+        }
+        // XPath 1.0 has no escapes, both quotes need concat()
+        return "concat(\"" + value.replace("\"", "\", '\"', \"") + "\")";
+    }
+
+    private static void add(Map<String, IdList> features, String feature, int id) {
+        IdList ids = features.get(feature);
+        if (ids == null) {
+            ids = new IdList();
+            features.put(feature, ids);
+        }
+        ids.add(id);
+    }
+
+    /**
+     * Growable list of ids, most features have very few.
+     */
+    private static class IdList {
+        private int[] mIds = new int[1];
+        private int mSize;
+
+        void add(int id) {
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+
+        int[] toArray() {
+            return mSize == mIds.length ? mIds : Arrays.copyOf(mIds, mSize);
+        }
+    }
+}
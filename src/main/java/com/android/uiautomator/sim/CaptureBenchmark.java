@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.sim;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.uiautomator.CaptureMetrics;
+import com.android.uiautomator.CaptureMetrics.Phase;
+import com.android.uiautomator.UiAutomatorHelper;
+import com.android.uiautomator.UiAutomatorHelper.UiAutomatorException;
+import com.android.uiautomator.UiAutomatorHelper.UiAutomatorResult;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the capture pipeline against simulated devices and reports throughput and latency,
+ * without adb, devices or a display:
+ * <pre>
+ *   java -Duiautomatorviewer.sim.failureRate=0.05 -cp ... \
+ *       com.android.uiautomator.sim.CaptureBenchmark dumps/ 24 10 8
+ * </pre>
+ * Arguments are the directory of recordings, then the number of devices, captures per
+ * device and capture threads. Device behavior comes from {@link SimulationConfig}.
+ */
+public class CaptureBenchmark {
+    private final List<IDevice> mDevices;
+    private final int mCapturesPerDevice;
+    private final int mThreads;
+    private final List<CaptureMetrics> mResults =
+            Collections.synchronizedList(new ArrayList<CaptureMetrics>());
+    private final AtomicInteger mFailures = new AtomicInteger();
+    private final AtomicInteger mTimeouts = new AtomicInteger();
+
+    public CaptureBenchmark(List<IDevice> devices, int capturesPerDevice, int threads) {
+        mDevices = devices;
+        mCapturesPerDevice = capturesPerDevice;
+        mThreads = threads;
+    }
+
+    /**
+     * Runs all captures and prints a report.
+     *
+     * @return wall clock time in ms
+     */
+    public long run() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        long start = System.nanoTime();
+        // interleave devices so that concurrent captures spread over them
+        for (int i = 0; i < mCapturesPerDevice; i++) {
+            for (final IDevice device : mDevices) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        capture(device);
+                    }
+                });
+            }
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        report(elapsed);
+        return elapsed;
+    }
+
+    private void capture(IDevice device) {
+        try {
+            UiAutomatorResult result = UiAutomatorHelper.takeSnapshot(device, null, false,
+                    null);
+            mResults.add(result.metrics);
+            deleteCapture(result.uiHierarchy);
+        } catch (UiAutomatorException e) {
+            mFailures.incrementAndGet();
+            for (Throwable t = e; t != null; t = t.getCause()) {
+                if (t instanceof ShellCommandUnresponsiveException) {
+                    mTimeouts.incrementAndGet();
+                    break;
+                }
+            }
+        }
+    }
+
+    private static void deleteCapture(File xml) {
+        File dir = xml.getParentFile();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private void report(long elapsedMs) {
+        int attempts = mDevices.size() * mCapturesPerDevice;
+        System.out.println(String.format("%d devices, %d captures on %d threads in %d ms: "
+                + "%.2f captures/s, %d failed (%d timed out)", mDevices.size(), attempts,
+                mThreads, elapsedMs, mResults.size() * 1000.0 / Math.max(1, elapsedMs),
+                mFailures.get(), mTimeouts.get()));
+        List<CaptureMetrics> results = new ArrayList<CaptureMetrics>(mResults);
+        if (results.isEmpty()) {
+            return;
+        }
+        List<Long> totals = new ArrayList<Long>();
+        for (CaptureMetrics m : results) {
+            totals.add(m.getTotalNanos());
+        }
+        System.out.println(formatPercentiles("total", totals));
+        for (Phase phase : Phase.values()) {
+            List<Long> values = new ArrayList<Long>();
+            for (CaptureMetrics m : results) {
+                if (m.getNanos(phase) >= 0) {
+                    values.add(m.getNanos(phase));
+                }
+            }
+            if (!values.isEmpty()) {
+                System.out.println(formatPercentiles(phase.getLabel(), values));
+            }
+        }
+    }
+
+    private static String formatPercentiles(String label, List<Long> nanos) {
+        Collections.sort(nanos);
+        return String.format("  %-10s p50 %6d ms  p95 %6d ms  max %6d ms", label,
+                percentile(nanos, 50) / 1000000, percentile(nanos, 95) / 1000000,
+                nanos.get(nanos.size() - 1) / 1000000);
+    }
+
+    // nearest rank, like CaptureMetricsHistory
+    private static long percentile(List<Long> sorted, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: CaptureBenchmark <recordings dir> [devices]"
+                    + " [captures per device] [threads]");
+            System.exit(1);
+        }
+        int devices = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int captures = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : devices;
+        SimulationConfig config = SimulationConfig.fromSystemProperties();
+        System.out.println("Simulating " + config);
+        List<SimulatedDevice.Recording> recordings =
+                SimulatedDevice.loadRecordings(new File(args[0]));
+        new CaptureBenchmark(SimulatedDevice.createDevices(devices, recordings, config),
+                captures, threads).run();
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.sim;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+import com.android.ddmlib.RawImage;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.ImageLoader;
+import org.eclipse.swt.graphics.RGB;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An {@link IDevice} that replays recorded dumps and screenshots instead of talking to adb.
+ *
+ * Only what the capture pipeline uses is simulated: properties, the uiautomator dump and rm
+ * shell commands, file transfers and screenshots. Each dump advances to the next recording,
+ * and the following screenshot shows the same screen. Latency, link bandwidth, failures and
+ * hangs follow a {@link SimulationConfig}. Like on a real device only one dump runs at a
+ * time, and all transfers of a device share its link. Any other method does nothing and
+ * returns false, zero, an empty collection or null, so e.g. port forwards always succeed.
+ */
+public class SimulatedDevice implements InvocationHandler {
+    private static final Pattern DUMP_COMMAND =
+            Pattern.compile("\\S*uiautomator dump(?: --compressed)? (\\S+)");
+    private static final Pattern RM_COMMAND = Pattern.compile("rm (?:-f )?(\\S+)");
+    // how long a hang lasts when the caller gives no timeout
+    private static final long MAX_HANG_MS = 10 * 60 * 1000;
+    private static final int DEFAULT_WIDTH = 1080;
+    private static final int DEFAULT_HEIGHT = 1920;
+
+    /**
+     * One recorded screen: a hierarchy dump and its screenshot.
+     */
+    public static class Recording {
+        final byte[] mXml;
+        final RawImage mFrame;
+
+        public Recording(byte[] xml, RawImage frame) {
+            mXml = xml;
+            mFrame = frame;
+        }
+    }
+
+    private final String mSerial;
+    private final SimulationConfig mConfig;
+    private final List<Recording> mRecordings;
+    private final AtomicInteger mNextRecording = new AtomicInteger();
+    private final Map<String, byte[]> mFiles = new ConcurrentHashMap<String, byte[]>();
+    // the device's UiAutomation connection, one dump at a time
+    private final Object mUiAutomationLock = new Object();
+    // the adb link, one transfer at a time
+    private final Object mLinkLock = new Object();
+    private volatile Recording mShown;
+
+    private SimulatedDevice(String serial, List<Recording> recordings,
+            SimulationConfig config) {
+        mSerial = serial;
+        mRecordings = recordings;
+        mConfig = config;
+        mShown = recordings.get(0);
+    }
+
+    public static IDevice create(String serial, List<Recording> recordings,
+            SimulationConfig config) {
+        if (recordings.isEmpty()) {
+            throw new IllegalArgumentException("No recordings to replay");
+        }
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(),
+                new Class<?>[] { IDevice.class }, new SimulatedDevice(serial, recordings,
+                        config));
+    }
+
+    /**
+     * Creates a number of devices replaying the same recordings, with serials
+     * {@code sim-0}, {@code sim-1}, ...
+     */
+    public static List<IDevice> createDevices(int count, List<Recording> recordings,
+            SimulationConfig config) {
+        List<IDevice> devices = new ArrayList<IDevice>(count);
+        for (int i = 0; i < count; i++) {
+            devices.add(create("sim-" + i, recordings, config));
+        }
+        return devices;
+    }
+
+    /**
+     * Loads the .uix files of a directory, each with the screenshot of the same name
+     * (as saved by the viewer) when there is one.
+     */
+    public static List<Recording> loadRecordings(File dir) throws IOException {
+        File[] dumps = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().endsWith(".uix");
+            }
+        });
+        if (dumps == null || dumps.length == 0) {
+            throw new IOException("No .uix dumps in " + dir);
+        }
+        Arrays.sort(dumps);
+        List<Recording> recordings = new ArrayList<Recording>();
+        for (File dump : dumps) {
+            String base = dump.getName().substring(0, dump.getName().length() - 4);
+            File png = new File(dir, base + ".png");
+            RawImage frame = png.isFile()
+                    ? toRawImage(new ImageLoader().load(png.getAbsolutePath())[0])
+                    : blankFrame(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+            recordings.add(new Recording(Files.readAllBytes(dump.toPath()), frame));
+        }
+        return recordings;
+    }
+
+    /**
+     * @return the image as a 32 bit RGBA framebuffer, the format of current devices
+     */
+    static RawImage toRawImage(ImageData image) {
+        RawImage raw = blankFrame(image.width, image.height);
+        int offset = 0;
+        for (int y = 0; y < image.height; y++) {
+            for (int x = 0; x < image.width; x++) {
+                RGB rgb = image.palette.getRGB(image.getPixel(x, y));
+                raw.data[offset++] = (byte) rgb.red;
+                raw.data[offset++] = (byte) rgb.green;
+                raw.data[offset++] = (byte) rgb.blue;
+                raw.data[offset++] = (byte) 0xff;
+            }
+        }
+        return raw;
+    }
+
+    private static RawImage blankFrame(int width, int height) {
+        RawImage raw = new RawImage();
+        raw.version = 1;
+        raw.bpp = 32;
+        raw.width = width;
+        raw.height = height;
+        raw.size = width * height * 4;
+        raw.red_offset = 0;
+        raw.red_length = 8;
+        raw.green_offset = 8;
+        raw.green_length = 8;
+        raw.blue_offset = 16;
+        raw.blue_length = 8;
+        raw.alpha_offset = 24;
+        raw.alpha_length = 8;
+        raw.data = new byte[raw.size];
+        Arrays.fill(raw.data, (byte) 0x80);
+        return raw;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("getSerialNumber".equals(name) || "toString".equals(name)) {
+            return mSerial;
+        } else if ("getName".equals(name)) {
+            return "simulated-" + mSerial;
+        } else if ("hashCode".equals(name)) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {
+            return proxy == args[0];
+        } else if ("getProperty".equals(name) || "getPropertySync".equals(name)
+                || "getPropertyCacheOrSync".equals(name)) {
+            return IDevice.PROP_BUILD_API_LEVEL.equals(args[0])
+                    ? String.valueOf(mConfig.getApiLevel()) : null;
+        } else if ("getState".equals(name)) {
+            return IDevice.DeviceState.ONLINE;
+        } else if ("isOnline".equals(name) || "isEmulator".equals(name)) {
+            return true;
+        } else if ("isOffline".equals(name) || "isBootLoader".equals(name)) {
+            return false;
+        } else if ("executeShellCommand".equals(name)) {
+            executeShellCommand((String) args[0], (IShellOutputReceiver) args[1],
+                    getTimeout(args));
+            return null;
+        } else if ("pullFile".equals(name)) {
+            pullFile((String) args[0], (String) args[1]);
+            return null;
+        } else if ("pushFile".equals(name)) {
+            pushFile((String) args[0], (String) args[1]);
+            return null;
+        } else if ("getScreenshot".equals(name)) {
+            long timeout = args != null && args.length == 2
+                    ? ((TimeUnit) args[1]).toMillis((Long) args[0]) : 0;
+            return getScreenshot(timeout);
+        }
+        return defaultValue(method.getReturnType());
+    }
+
+    /**
+     * @return what a method that is not simulated returns, e.g. createForward and
+     * removeForward do nothing
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == List.class || type == Collection.class) {
+            return Collections.emptyList();
+        } else if (type == Set.class) {
+            return Collections.emptySet();
+        } else if (type == Map.class) {
+            return Collections.emptyMap();
+        } else if (type.isArray()) {
+            return Array.newInstance(type.getComponentType(), 0);
+        }
+        // void and any other object
+        return null;
+    }
+
+    /**
+     * @return the time the command may go without output, in ms, or 0 for no limit
+     */
+    private static long getTimeout(Object[] args) {
+        if (args.length == 3) {
+            return (Integer) args[2];
+        } else if (args.length == 4) {
+            return ((TimeUnit) args[3]).toMillis((Long) args[2]);
+        } else if (args.length == 5) {
+            // max total time, max time to output response, unit
+            return ((TimeUnit) args[4]).toMillis((Long) args[3]);
+        }
+        return 0;
+    }
+
+    private void executeShellCommand(String command, IShellOutputReceiver receiver,
+            long timeout) throws ShellCommandUnresponsiveException, IOException {
+        pause(mConfig.getCommandLatency(), receiver);
+
+        Matcher dump = DUMP_COMMAND.matcher(command);
+        Matcher rm = RM_COMMAND.matcher(command);
+        if (dump.matches()) {
+            synchronized (mUiAutomationLock) {
+                double outcome = ThreadLocalRandom.current().nextDouble();
+                if (outcome < mConfig.getTimeoutRate()) {
+                    pause(timeout > 0 ? timeout : MAX_HANG_MS, receiver);
+                    if (timeout > 0 && !receiver.isCancelled()) {
+                        throw new ShellCommandUnresponsiveException();
+                    }
+                    return;
+                }
+                pause(mConfig.getDumpLatency(), receiver);
+                if (receiver.isCancelled()) {
+                    return;
+                }
+                if (outcome < mConfig.getTimeoutRate() + mConfig.getFailureRate()) {
+                    output(receiver, "ERROR: could not get idle state.\n");
+                    return;
+                }
+                Recording recording = mRecordings.get(
+                        (mNextRecording.getAndIncrement() & Integer.MAX_VALUE)
+                                % mRecordings.size());
+                mFiles.put(dump.group(1), recording.mXml);
+                mShown = recording;
+                output(receiver, "UI hierchary dumped to: " + dump.group(1) + "\n");
+            }
+        } else if (rm.matches()) {
+            if (mFiles.remove(rm.group(1)) == null && !command.startsWith("rm -f")) {
+                output(receiver, "rm: " + rm.group(1) + ": No such file or directory\n");
+            } else {
+                output(receiver, "");
+            }
+        } else {
+            output(receiver, "/system/bin/sh: " + command + ": not found\n");
+        }
+    }
+
+    private void pullFile(String remote, String local) throws IOException {
+        pause(mConfig.getCommandLatency(), null);
+        byte[] data = mFiles.get(remote);
+        if (data == null) {
+            throw new IOException("Remote object doesn't exist: " + remote);
+        }
+        transfer(data.length);
+        Files.write(new File(local).toPath(), data);
+    }
+
+    private void pushFile(String local, String remote) throws IOException {
+        pause(mConfig.getCommandLatency(), null);
+        byte[] data = Files.readAllBytes(new File(local).toPath());
+        transfer(data.length);
+        mFiles.put(remote, data);
+    }
+
+    private RawImage getScreenshot(long timeout) throws TimeoutException, IOException {
+        long latency = mConfig.getScreenshotLatency();
+        if (timeout > 0 && latency > timeout) {
+            pause(timeout, null);
+            throw new TimeoutException("Simulated screenshot timed out");
+        }
+        pause(latency, null);
+        RawImage frame = mShown.mFrame;
+        transfer(frame.data.length);
+
+        RawImage copy = new RawImage();
+        copy.version = frame.version;
+        copy.bpp = frame.bpp;
+        copy.size = frame.size;
+        copy.width = frame.width;
+        copy.height = frame.height;
+        copy.red_offset = frame.red_offset;
+        copy.red_length = frame.red_length;
+        copy.green_offset = frame.green_offset;
+        copy.green_length = frame.green_length;
+        copy.blue_offset = frame.blue_offset;
+        copy.blue_length = frame.blue_length;
+        copy.alpha_offset = frame.alpha_offset;
+        copy.alpha_length = frame.alpha_length;
+        copy.data = frame.data.clone();
+        return copy;
+    }
+
+    private void transfer(long bytes) throws IOException {
+        synchronized (mLinkLock) {
+            pause(bytes * 1000 / Math.max(1, mConfig.getBandwidthBytesPerSecond()), null);
+        }
+    }
+
+    private static void output(IShellOutputReceiver receiver, String text) {
+        byte[] data = text.getBytes();
+        receiver.addOutput(data, 0, data.length);
+        receiver.flush();
+    }
+
+    /**
+     * Waits for the given time plus jitter, returning early if the receiver gets cancelled.
+     */
+    private void pause(long millis, IShellOutputReceiver receiver) throws IOException {
+        if (mConfig.getJitter() > 0) {
+            millis += ThreadLocalRandom.current().nextLong(mConfig.getJitter() + 1);
+        }
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            long remaining;
+            while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+                if (receiver != null && receiver.isCancelled()) {
+                    return;
+                }
+                Thread.sleep(receiver != null ? Math.min(remaining, 10) : remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        }
+    }
+}
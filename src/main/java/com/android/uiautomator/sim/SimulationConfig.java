@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.sim;
+
+/**
+ * Behavior of simulated devices. Durations are in milliseconds, rates between 0 and 1.
+ *
+ * Every setting can be given as a system property named {@code uiautomatorviewer.sim.}
+ * followed by the setting, e.g. {@code -Duiautomatorviewer.sim.dumpLatency=2000}.
+ */
+public class SimulationConfig {
+    // directory of recordings, makes the viewer use simulated devices instead of adb
+    public static final String SIMULATE_PROPERTY = "uiautomatorviewer.simulate";
+    public static final String DEVICES_PROPERTY = "uiautomatorviewer.sim.devices";
+    private static final String PROPERTY_PREFIX = "uiautomatorviewer.sim.";
+
+    // time uiautomator dump takes, before any transfer
+    private long mDumpLatency = 1500;
+    // random extra latency, up to this much, added to every command
+    private long mJitter = 300;
+    // fixed cost of a shell command or file transfer
+    private long mCommandLatency = 30;
+    // time the device takes to grab the framebuffer, before the transfer
+    private long mScreenshotLatency = 250;
+    // transfer speed of the adb link, shared by all transfers of one device
+    private long mBandwidthBytesPerSecond = 20L * 1024 * 1024;
+    // share of dumps that fail the way uiautomator does when the UI does not go idle
+    private double mFailureRate = 0;
+    // share of dumps that hang until the caller's timeout
+    private double mTimeoutRate = 0;
+    private int mApiLevel = 29;
+
+    public static SimulationConfig fromSystemProperties() {
+        SimulationConfig config = new SimulationConfig();
+        config.mDumpLatency = Long.getLong(PROPERTY_PREFIX + "dumpLatency",
+                config.mDumpLatency);
+        config.mJitter = Long.getLong(PROPERTY_PREFIX + "jitter", config.mJitter);
+        config.mCommandLatency = Long.getLong(PROPERTY_PREFIX + "commandLatency",
+                config.mCommandLatency);
+        config.mScreenshotLatency = Long.getLong(PROPERTY_PREFIX + "screenshotLatency",
+                config.mScreenshotLatency);
+        config.mBandwidthBytesPerSecond = Long.getLong(PROPERTY_PREFIX + "bandwidth",
+                config.mBandwidthBytesPerSecond);
+        config.mFailureRate = getDouble(PROPERTY_PREFIX + "failureRate", config.mFailureRate);
+        config.mTimeoutRate = getDouble(PROPERTY_PREFIX + "timeoutRate", config.mTimeoutRate);
+        config.mApiLevel = Integer.getInteger(PROPERTY_PREFIX + "apiLevel", config.mApiLevel);
+        return config;
+    }
+
+    private static double getDouble(String name, double defaultValue) {
+        String value = System.getProperty(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    public long getDumpLatency() {
+        return mDumpLatency;
+    }
+
+    public void setDumpLatency(long dumpLatency) {
+        mDumpLatency = dumpLatency;
+    }
+
+    public long getJitter() {
+        return mJitter;
+    }
+
+    public void setJitter(long jitter) {
+        mJitter = jitter;
+    }
+
+    public long getCommandLatency() {
+        return mCommandLatency;
+    }
+
+    public void setCommandLatency(long commandLatency) {
+        mCommandLatency = commandLatency;
+    }
+
+    public long getScreenshotLatency() {
+        return mScreenshotLatency;
+    }
+
+    public void setScreenshotLatency(long screenshotLatency) {
+        mScreenshotLatency = screenshotLatency;
+    }
+
+    public long getBandwidthBytesPerSecond() {
+        return mBandwidthBytesPerSecond;
+    }
+
+    public void setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+        mBandwidthBytesPerSecond = bandwidthBytesPerSecond;
+    }
+
+    public double getFailureRate() {
+        return mFailureRate;
+    }
+
+    public void setFailureRate(double failureRate) {
+        mFailureRate = failureRate;
+    }
+
+    public double getTimeoutRate() {
+        return mTimeoutRate;
+    }
+
+    public void setTimeoutRate(double timeoutRate) {
+        mTimeoutRate = timeoutRate;
+    }
+
+    public int getApiLevel() {
+        return mApiLevel;
+    }
+
+    public void setApiLevel(int apiLevel) {
+        mApiLevel = apiLevel;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("dump %dms, jitter %dms, command %dms, screenshot %dms, "
+                + "%d KB/s, failures %.0f%%, timeouts %.0f%%, API %d", mDumpLatency, mJitter,
+                mCommandLatency, mScreenshotLatency, mBandwidthBytesPerSecond / 1024,
+                mFailureRate * 100, mTimeoutRate * 100, mApiLevel);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.snapshot;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to the frames of a file written by {@link SessionWriter}.
+ *
+ * Opening the file reads all hierarchy deltas, which are small, into a
+ * {@link SnapshotStore} and indexes the position of every screenshot delta. Seeking to a
+ * frame then decodes at most {@link SessionWriter#KEYFRAME_INTERVAL} screenshot deltas,
+ * and stepping to the next frame only one.
+ */
+public class SessionReader implements Closeable {
+
+    /**
+     * A decoded frame. The image is a new copy, owned by the caller.
+     */
+    public static class Frame {
+        public final Snapshot snapshot;
+        public final ImageData image;
+
+        Frame(Snapshot s, ImageData i) {
+            snapshot = s;
+            image = i;
+        }
+    }
+
+    private final RandomAccessFile mFile;
+    private final SnapshotStore mStore = new SnapshotStore();
+    private final List<Long> mImageOffsets = new ArrayList<Long>();
+    private final List<Boolean> mKeyframes = new ArrayList<Boolean>();
+    private final Inflater mInflater = new Inflater();
+
+    // last decoded frame, so that moving forward only applies the next delta
+    private int mDecodedIndex = -1;
+    private int[] mPixels;
+    private int mWidth, mHeight, mDepth, mRedMask, mGreenMask, mBlueMask;
+
+    public SessionReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            if (mFile.readInt() != SessionWriter.FILE_MAGIC
+                    || mFile.readInt() != SessionWriter.FILE_VERSION) {
+                throw new IOException("Not a session recording: " + file);
+            }
+            index();
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    private void index() throws IOException {
+        SnapshotStore.StringTableInput strings = new SnapshotStore.StringTableInput();
+        long length = mFile.length();
+        while (mFile.getFilePointer() < length) {
+            long start = mFile.getFilePointer();
+            try {
+                long timestamp = mFile.readLong();
+                String label = strings.read(mFile);
+                byte[] nodes = new byte[mFile.readInt()];
+                mFile.readFully(nodes);
+                int rootId = mFile.readInt();
+                boolean keyframe = mFile.readBoolean();
+                int imageLength = mFile.readInt();
+                long imageOffset = mFile.getFilePointer();
+                if (imageOffset + imageLength > length) {
+                    throw new EOFException();
+                }
+                mFile.seek(imageOffset + imageLength);
+
+                mStore.readNodes(new DataInputStream(new ByteArrayInputStream(nodes)), strings);
+                if (rootId < 0 || rootId >= mStore.getNodeCount()) {
+                    throw new IOException("Invalid root reference " + rootId);
+                }
+                mStore.addSnapshot(mStore.getNode(rootId), timestamp, label);
+                mImageOffsets.add(imageOffset);
+                mKeyframes.add(keyframe);
+            } catch (EOFException e) {
+                // the recording was cut short, e.g. the viewer was killed, keep what is
+                // complete
+                System.err.println("Truncated session recording, ignoring data after "
+                        + start);
+                break;
+            }
+        }
+    }
+
+    public int getFrameCount() {
+        return mImageOffsets.size();
+    }
+
+    public Snapshot getSnapshot(int index) {
+        return mStore.getSnapshots().get(index);
+    }
+
+    public synchronized Frame readFrame(int index) throws IOException {
+        if (index < 0 || index >= getFrameCount()) {
+            throw new IndexOutOfBoundsException("No frame " + index);
+        }
+        int keyframe = index;
+        while (!mKeyframes.get(keyframe)) {
+            keyframe--;
+        }
+        int from = keyframe;
+        if (mDecodedIndex >= keyframe && mDecodedIndex <= index) {
+            from = mDecodedIndex + 1;
+        }
+        for (int i = from; i <= index; i++) {
+            applyImageDelta(i);
+            mDecodedIndex = i;
+        }
+
+        ImageData image = new ImageData(mWidth, mHeight, mDepth,
+                new PaletteData(mRedMask, mGreenMask, mBlueMask));
+        for (int y = 0; y < mHeight; y++) {
+            image.setPixels(0, y, mWidth, mPixels, y * mWidth);
+        }
+        return new Frame(getSnapshot(index), image);
+    }
+
+    private void applyImageDelta(int index) throws IOException {
+        mFile.seek(mImageOffsets.get(index));
+        int width = mFile.readInt();
+        int height = mFile.readInt();
+        mDepth = mFile.readInt();
+        mRedMask = mFile.readInt();
+        mGreenMask = mFile.readInt();
+        mBlueMask = mFile.readInt();
+        int tileSize = mFile.readInt();
+        if (mPixels == null || width != mWidth || height != mHeight) {
+            mPixels = new int[width * height];
+            mWidth = width;
+            mHeight = height;
+        }
+        int[] tiles = new int[mFile.readInt()];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = mFile.readInt();
+        }
+        byte[] compressed = new byte[mFile.readInt()];
+        mFile.readFully(compressed);
+
+        mInflater.reset();
+        mInflater.setInput(compressed);
+        DataInputStream in = new DataInputStream(new InflaterStream(mInflater));
+        int cols = (width + tileSize - 1) / tileSize;
+        for (int tile : tiles) {
+            int x0 = (tile % cols) * tileSize, y0 = (tile / cols) * tileSize;
+            int x1 = Math.min(width, x0 + tileSize), y1 = Math.min(height, y0 + tileSize);
+            for (int y = y0; y < y1; y++) {
+                int offset = y * width;
+                for (int x = x0; x < x1; x++) {
+                    mPixels[offset + x] = in.readInt();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mInflater.end();
+        mFile.close();
+    }
+
+    /**
+     * Reads from an inflater whose whole input has already been set.
+     */
+    private static class InflaterStream extends java.io.InputStream {
+        private final Inflater mInflater;
+        private final byte[] mBuffer = new byte[64 * 1024];
+        private int mPosition, mLimit;
+
+        InflaterStream(Inflater inflater) {
+            mInflater = inflater;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mPosition == mLimit && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (mPosition == mLimit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, mLimit - mPosition);
+            System.arraycopy(mBuffer, mPosition, b, off, n);
+            mPosition += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            try {
+                mLimit = mInflater.inflate(mBuffer);
+                mPosition = 0;
+                return mLimit > 0;
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
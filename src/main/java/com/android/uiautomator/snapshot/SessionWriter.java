@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.snapshot;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Appends captures, hierarchy and screenshot, to a session recording file.
+ *
+ * Hierarchies are stored as deltas: the writer keeps a {@link SnapshotStore} and only writes
+ * the subtrees that no earlier frame contained. Screenshots are split into square tiles and
+ * only the tiles that differ from the previous frame are written, deflated together. Every
+ * {@link #KEYFRAME_INTERVAL} frames, or when the screen size changes, all tiles are written
+ * so that {@link SessionReader} can seek without decoding the whole file.
+ *
+ * File layout: magic, version, then one record per frame:
+ * <pre>
+ *   long timestamp, string label
+ *   int length, hierarchy delta (new nodes, see SnapshotStore.writeNodes), int root id
+ *   boolean keyframe, int length, image delta
+ * </pre>
+ */
+public class SessionWriter implements Closeable {
+    static final int FILE_MAGIC = 0x5549534e; // "UISN"
+    static final int FILE_VERSION = 1;
+    static final int TILE_SIZE = 64;
+    static final int KEYFRAME_INTERVAL = 30;
+
+    private final DataOutputStream mOut;
+    private final SnapshotStore mStore = new SnapshotStore();
+    private final SnapshotStore.StringTableOutput mStrings =
+            new SnapshotStore.StringTableOutput();
+    private final Deflater mDeflater = new Deflater();
+    private final byte[] mDeflateBuffer = new byte[64 * 1024];
+    private int mWrittenNodes = 0;
+    private int mFrameCount = 0;
+    private boolean mClosed = false;
+
+    // previous frame, tiles are compared against it
+    private int[] mPreviousPixels;
+    private int mWidth, mHeight, mDepth, mRedMask, mGreenMask, mBlueMask;
+
+    public SessionWriter(File file) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        mOut.writeInt(FILE_MAGIC);
+        mOut.writeInt(FILE_VERSION);
+    }
+
+    public synchronized int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * Appends a frame. Does nothing once the writer is closed, e.g. for a capture that
+     * finishes while the recording is being stopped.
+     *
+     * @param root hierarchy of the capture
+     * @param screenshot screenshot of the capture
+     * @param label free form description, e.g. the device serial
+     */
+    public synchronized void append(BasicTreeNode root, ImageData screenshot, String label)
+            throws IOException {
+        if (mClosed) {
+            return;
+        }
+        Snapshot snapshot = mStore.add(root, label);
+        mOut.writeLong(snapshot.getTimestamp());
+        mStrings.write(mOut, label);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream nodes = new DataOutputStream(buffer);
+        mStore.writeNodes(nodes, mStrings, mWrittenNodes, mStore.getNodeCount());
+        nodes.flush();
+        mWrittenNodes = mStore.getNodeCount();
+        mOut.writeInt(buffer.size());
+        buffer.writeTo(mOut);
+        mOut.writeInt(snapshot.getRoot().getId());
+
+        writeImage(screenshot);
+        mOut.flush();
+        mFrameCount++;
+    }
+
+    private void writeImage(ImageData image) throws IOException {
+        int[] pixels = new int[image.width * image.height];
+        for (int y = 0; y < image.height; y++) {
+            image.getPixels(0, y, image.width, pixels, y * image.width);
+        }
+        boolean keyframe = mPreviousPixels == null
+                || mFrameCount % KEYFRAME_INTERVAL == 0
+                || image.width != mWidth || image.height != mHeight
+                || image.depth != mDepth
+                || image.palette.redMask != mRedMask
+                || image.palette.greenMask != mGreenMask
+                || image.palette.blueMask != mBlueMask;
+
+        int cols = (image.width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (image.height + TILE_SIZE - 1) / TILE_SIZE;
+        ByteArrayOutputStream tileIndexes = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(tileIndexes);
+        ByteArrayOutputStream tilePixels = new ByteArrayOutputStream();
+        DataOutputStream pixelOut = new DataOutputStream(tilePixels);
+        int changed = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                if (!keyframe && !tileChanged(pixels, image.width, image.height, col, row)) {
+                    continue;
+                }
+                indexOut.writeInt(row * cols + col);
+                writeTile(pixelOut, pixels, image.width, image.height, col, row);
+                changed++;
+            }
+        }
+        pixelOut.flush();
+        byte[] compressed = deflate(tilePixels.toByteArray());
+
+        mOut.writeBoolean(keyframe);
+        // header (7 ints) + changed count + indexes + compressed length + compressed data
+        mOut.writeInt(4 * 8 + tileIndexes.size() + 4 + compressed.length);
+        mOut.writeInt(image.width);
+        mOut.writeInt(image.height);
+        mOut.writeInt(image.depth);
+        mOut.writeInt(image.palette.redMask);
+        mOut.writeInt(image.palette.greenMask);
+        mOut.writeInt(image.palette.blueMask);
+        mOut.writeInt(TILE_SIZE);
+        mOut.writeInt(changed);
+        tileIndexes.writeTo(mOut);
+        mOut.writeInt(compressed.length);
+        mOut.write(compressed);
+
+        mPreviousPixels = pixels;
+        mWidth = image.width;
+        mHeight = image.height;
+        mDepth = image.depth;
+        mRedMask = image.palette.redMask;
+        mGreenMask = image.palette.greenMask;
+        mBlueMask = image.palette.blueMask;
+    }
+
+    private boolean tileChanged(int[] pixels, int width, int height, int col, int row) {
+        int x0 = col * TILE_SIZE, y0 = row * TILE_SIZE;
+        int x1 = Math.min(width, x0 + TILE_SIZE), y1 = Math.min(height, y0 + TILE_SIZE);
+        for (int y = y0; y < y1; y++) {
+            int offset = y * width;
+            for (int x = x0; x < x1; x++) {
+                if (pixels[offset + x] != mPreviousPixels[offset + x]) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static void writeTile(DataOutputStream out, int[] pixels, int width, int height, int col,
+            int row) throws IOException {
+        int x0 = col * TILE_SIZE, y0 = row * TILE_SIZE;
+        int x1 = Math.min(width, x0 + TILE_SIZE), y1 = Math.min(height, y0 + TILE_SIZE);
+        for (int y = y0; y < y1; y++) {
+            int offset = y * width;
+            for (int x = x0; x < x1; x++) {
+                out.writeInt(pixels[offset + x]);
+            }
+        }
+    }
+
+    private byte[] deflate(byte[] data) {
+        mDeflater.reset();
+        mDeflater.setInput(data);
+        mDeflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        while (!mDeflater.finished()) {
+            int n = mDeflater.deflate(mDeflateBuffer);
+            out.write(mDeflateBuffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mDeflater.end();
+        mOut.close();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.snapshot;
+
+/**
+ * One capture kept in a {@link SnapshotStore}.
+ */
+public final class Snapshot {
+    private final int mIndex;
+    private final SnapshotNode mRoot;
+    private final long mTimestamp;
+    private final String mLabel;
+
+    Snapshot(int index, SnapshotNode root, long timestamp, String label) {
+        mIndex = index;
+        mRoot = root;
+        mTimestamp = timestamp;
+        mLabel = label;
+    }
+
+    /**
+     * @return position of this snapshot in its store
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public SnapshotNode getRoot() {
+        return mRoot;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public String getLabel() {
+        return mLabel;
+    }
+
+    /**
+     * @return true if both snapshots have exactly the same hierarchy, in constant time
+     */
+    public boolean sameHierarchyAs(Snapshot other) {
+        return other != null && mRoot == other.mRoot;
+    }
+}
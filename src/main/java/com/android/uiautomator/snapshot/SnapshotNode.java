@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.snapshot;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.RootWindowNode;
+import com.android.uiautomator.tree.UiNode;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, hash-consed copy of a {@link BasicTreeNode} subtree.
+ *
+ * Instances are only created by {@link SnapshotStore}, which guarantees that two subtrees
+ * with the same content are represented by the same instance. Comparing subtrees is
+ * therefore a reference comparison, and {@link #getHash()} is a Merkle hash over the
+ * node's attributes and its children's hashes.
+ */
+public final class SnapshotNode {
+    private static final SnapshotNode[] NO_CHILDREN = new SnapshotNode[0];
+
+    private final int mId;
+    private final boolean mWindowRoot;
+    private final int mRotation;
+    // attribute names and values, alternating, in document order
+    private final String[] mAttributes;
+    private final SnapshotNode[] mChildren;
+    private final long mHash;
+    private final int mSubtreeSize;
+
+    SnapshotNode(int id, boolean windowRoot, int rotation, String[] attributes,
+            SnapshotNode[] children) {
+        mId = id;
+        mWindowRoot = windowRoot;
+        mRotation = rotation;
+        mAttributes = attributes;
+        mChildren = children.length == 0 ? NO_CHILDREN : children;
+        mHash = computeHash(windowRoot, rotation, attributes, mChildren);
+        int size = 1;
+        for (SnapshotNode child : mChildren) {
+            size += child.mSubtreeSize;
+        }
+        mSubtreeSize = size;
+    }
+
+    /**
+     * @return the id of this node within its store, children always have smaller ids
+     */
+    public int getId() {
+        return mId;
+    }
+
+    public long getHash() {
+        return mHash;
+    }
+
+    public boolean isWindowRoot() {
+        return mWindowRoot;
+    }
+
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public int getAttributeCount() {
+        return mAttributes.length / 2;
+    }
+
+    public String getAttributeName(int i) {
+        return mAttributes[2 * i];
+    }
+
+    public String getAttributeValue(int i) {
+        return mAttributes[2 * i + 1];
+    }
+
+    public int getChildCount() {
+        return mChildren.length;
+    }
+
+    public SnapshotNode getChild(int i) {
+        return mChildren[i];
+    }
+
+    /**
+     * @return number of nodes in this subtree, including this one
+     */
+    public int getSubtreeSize() {
+        return mSubtreeSize;
+    }
+
+    /**
+     * Builds a new, mutable tree with the content of this subtree.
+     */
+    public BasicTreeNode toTree() {
+        BasicTreeNode node;
+        if (mWindowRoot) {
+            node = new RootWindowNode(mAttributes.length > 1 ? mAttributes[1] : null,
+                    mRotation);
+        } else {
+            UiNode uiNode = new UiNode();
+            for (int i = 0; i < mAttributes.length; i += 2) {
+                uiNode.addAtrribute(mAttributes[i], mAttributes[i + 1]);
+            }
+            node = uiNode;
+        }
+        for (SnapshotNode child : mChildren) {
+            node.addChild(child.toTree());
+        }
+        return node;
+    }
+
+    String[] attributes() {
+        return mAttributes;
+    }
+
+    SnapshotNode[] children() {
+        return mChildren;
+    }
+
+    /**
+     * Structural equality of this node alone; children are compared by reference, which is
+     * sufficient because they are already canonical.
+     */
+    boolean sameContent(boolean windowRoot, int rotation, String[] attributes,
+            SnapshotNode[] children) {
+        if (mWindowRoot != windowRoot || mRotation != rotation
+                || mChildren.length != children.length
+                || !Arrays.equals(mAttributes, attributes)) {
+            return false;
+        }
+        for (int i = 0; i < children.length; i++) {
+            if (mChildren[i] != children[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 64 bit FNV-1a over the node content and the children's hashes
+    static long computeHash(boolean windowRoot, int rotation, String[] attributes,
+            SnapshotNode[] children) {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, windowRoot ? 1 : 0);
+        h = mix(h, rotation);
+        for (String s : attributes) {
+            h = mix(h, s == null ? 0 : s.hashCode());
+            h = mix(h, s == null ? 0 : s.length());
+        }
+        h = mix(h, children.length);
+        for (SnapshotNode child : children) {
+            h = mix(h, (int) child.mHash);
+            h = mix(h, (int) (child.mHash >>> 32));
+        }
+        return h;
+    }
+
+    private static long mix(long h, int value) {
+        for (int i = 0; i < 4; i++) {
+            h ^= (value >>> (8 * i)) & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mHash ^ (mHash >>> 32));
+    }
+}
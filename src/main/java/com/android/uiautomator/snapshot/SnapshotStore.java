@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.snapshot;
+
+import com.android.uiautomator.tree.BasicTreeNode;
+import com.android.uiautomator.tree.NodeVisitor;
+import com.android.uiautomator.tree.RootWindowNode;
+import com.android.uiautomator.tree.TreeWalker;
+import com.android.uiautomator.tree.UiNode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps many captures of a session while storing each distinct subtree only once.
+ *
+ * Every subtree added is hash-consed: if a subtree with the same content is already in the
+ * store, the existing {@link SnapshotNode} is reused. Consecutive captures of the same app
+ * thus share all of their unchanged structure, in memory and in the file written by
+ * {@link #save(File)}, and comparing two captures is a reference comparison of their roots.
+ *
+ * Not thread safe.
+ */
+public class SnapshotStore {
+    private static final int FILE_MAGIC = 0x55495853; // "UIXS"
+    private static final int FILE_VERSION = 1;
+
+    // canonical nodes by Merkle hash, lists only grow past one entry on hash collisions
+    private final Map<Long, List<SnapshotNode>> mCanonical = new HashMap<Long, List<SnapshotNode>>();
+    private final List<SnapshotNode> mNodes = new ArrayList<SnapshotNode>();
+    private final List<Snapshot> mSnapshots = new ArrayList<Snapshot>();
+    private final Map<String, String> mStringPool = new HashMap<String, String>();
+
+    /**
+     * Adds a capture to the store.
+     *
+     * @param root root of the hierarchy, it is copied and can be modified afterwards
+     * @param label free form description, e.g. the device serial
+     * @return the stored snapshot
+     */
+    public Snapshot add(BasicTreeNode root, String label) {
+        return addSnapshot(intern(root), System.currentTimeMillis(), label);
+    }
+
+    public List<Snapshot> getSnapshots() {
+        return Collections.unmodifiableList(mSnapshots);
+    }
+
+    /**
+     * @return the last snapshot added, or null if the store is empty
+     */
+    public Snapshot getLatest() {
+        return mSnapshots.isEmpty() ? null : mSnapshots.get(mSnapshots.size() - 1);
+    }
+
+    /**
+     * @return number of distinct nodes, i.e. what is actually kept in memory
+     */
+    public int getNodeCount() {
+        return mNodes.size();
+    }
+
+    /**
+     * @return number of nodes all snapshots would hold without sharing
+     */
+    public long getLogicalNodeCount() {
+        long count = 0;
+        for (Snapshot snapshot : mSnapshots) {
+            count += snapshot.getRoot().getSubtreeSize();
+        }
+        return count;
+    }
+
+    SnapshotNode getNode(int id) {
+        return mNodes.get(id);
+    }
+
+    Snapshot addSnapshot(SnapshotNode root, long timestamp, String label) {
+        Snapshot snapshot = new Snapshot(mSnapshots.size(), root, timestamp, label);
+        mSnapshots.add(snapshot);
+        return snapshot;
+    }
+
+    SnapshotNode intern(BasicTreeNode root) {
+        // interned subtrees whose parent has not been reached yet, in document order
+        final List<SnapshotNode> done = new ArrayList<SnapshotNode>();
+        TreeWalker.walk(root, new NodeVisitor() {
+            @Override
+            public Action postVisit(BasicTreeNode node, int depth) {
+                // the children were visited last, so they are at the end of the list
+                List<SnapshotNode> last =
+                        done.subList(done.size() - node.getChildCount(), done.size());
+                SnapshotNode[] children = last.toArray(new SnapshotNode[last.size()]);
+                last.clear();
+                done.add(internNode(node, children));
+                return Action.CONTINUE;
+            }
+        });
+        return done.get(0);
+    }
+
+    private SnapshotNode internNode(BasicTreeNode node, SnapshotNode[] children) {
+        String[] attributes;
+        boolean windowRoot = node instanceof RootWindowNode;
+        int rotation = 0;
+        if (node instanceof UiNode) {
+            Map<String, String> map = ((UiNode) node).getAttributes();
+            attributes = new String[map.size() * 2];
+            int j = 0;
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                attributes[j++] = pool(entry.getKey());
+                attributes[j++] = pool(entry.getValue());
+            }
+        } else if (windowRoot) {
+            rotation = ((RootWindowNode) node).getRotation();
+            attributes = new String[] {"window-name", pool(node.toString())};
+        } else {
+            attributes = new String[0];
+        }
+        return canonical(windowRoot, rotation, attributes, children);
+    }
+
+    private SnapshotNode canonical(boolean windowRoot, int rotation, String[] attributes,
+            SnapshotNode[] children) {
+        Long hash = SnapshotNode.computeHash(windowRoot, rotation, attributes, children);
+        List<SnapshotNode> bucket = mCanonical.get(hash);
+        if (bucket == null) {
+            bucket = new ArrayList<SnapshotNode>(1);
+            mCanonical.put(hash, bucket);
+        }
+        for (SnapshotNode existing : bucket) {
+            if (existing.sameContent(windowRoot, rotation, attributes, children)) {
+                return existing;
+            }
+        }
+        SnapshotNode node = new SnapshotNode(mNodes.size(), windowRoot, rotation, attributes,
+                children);
+        mNodes.add(node);
+        bucket.add(node);
+        return node;
+    }
+
+    private String pool(String s) {
+        if (s == null) {
+            return null;
+        }
+        String pooled = mStringPool.get(s);
+        if (pooled == null) {
+            mStringPool.put(s, s);
+            pooled = s;
+        }
+        return pooled;
+    }
+
+    /**
+     * Writes the whole store. Shared subtrees are written once.
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            StringTableOutput strings = new StringTableOutput();
+            writeNodes(out, strings, 0, mNodes.size());
+            out.writeInt(mSnapshots.size());
+            for (Snapshot snapshot : mSnapshots) {
+                writeSnapshot(out, strings, snapshot);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a store written by {@link #save(File)}.
+     */
+    public static SnapshotStore load(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Not a snapshot store: " + file);
+            }
+            SnapshotStore store = new SnapshotStore();
+            StringTableInput strings = new StringTableInput();
+            store.readNodes(in, strings);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                store.readSnapshot(in, strings);
+            }
+            return store;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the nodes with ids in [from, to). Since children always have smaller ids than
+     * their parents, writing the nodes added since a previous call is enough to extend a
+     * stream with new snapshots.
+     */
+    void writeNodes(DataOutput out, StringTableOutput strings, int from, int to)
+            throws IOException {
+        out.writeInt(to - from);
+        for (int id = from; id < to; id++) {
+            SnapshotNode node = mNodes.get(id);
+            out.writeBoolean(node.isWindowRoot());
+            out.writeInt(node.getRotation());
+            String[] attributes = node.attributes();
+            out.writeInt(attributes.length);
+            for (String s : attributes) {
+                strings.write(out, s);
+            }
+            SnapshotNode[] children = node.children();
+            out.writeInt(children.length);
+            for (SnapshotNode child : children) {
+                out.writeInt(child.getId());
+            }
+        }
+    }
+
+    /**
+     * Reads nodes written by {@link #writeNodes}, appending them to this store.
+     */
+    void readNodes(DataInput in, StringTableInput strings) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            boolean windowRoot = in.readBoolean();
+            int rotation = in.readInt();
+            String[] attributes = new String[in.readInt()];
+            for (int j = 0; j < attributes.length; j++) {
+                attributes[j] = pool(strings.read(in));
+            }
+            SnapshotNode[] children = new SnapshotNode[in.readInt()];
+            for (int j = 0; j < children.length; j++) {
+                int id = in.readInt();
+                if (id < 0 || id >= mNodes.size()) {
+                    throw new IOException("Invalid child reference " + id);
+                }
+                children[j] = mNodes.get(id);
+            }
+            canonical(windowRoot, rotation, attributes, children);
+        }
+    }
+
+    void writeSnapshot(DataOutput out, StringTableOutput strings, Snapshot snapshot)
+            throws IOException {
+        out.writeInt(snapshot.getRoot().getId());
+        out.writeLong(snapshot.getTimestamp());
+        strings.write(out, snapshot.getLabel());
+    }
+
+    Snapshot readSnapshot(DataInput in, StringTableInput strings) throws IOException {
+        int rootId = in.readInt();
+        if (rootId < 0 || rootId >= mNodes.size()) {
+            throw new IOException("Invalid root reference " + rootId);
+        }
+        long timestamp = in.readLong();
+        String label = strings.read(in);
+        return addSnapshot(mNodes.get(rootId), timestamp, label);
+    }
+
+    /**
+     * Writes each distinct string once, later occurrences are written as an index.
+     */
+    static class StringTableOutput {
+        private final Map<String, Integer> mIndexes = new HashMap<String, Integer>();
+
+        void write(DataOutput out, String s) throws IOException {
+            if (s == null) {
+                out.writeInt(-1);
+                return;
+            }
+            Integer index = mIndexes.get(s);
+            if (index != null) {
+                out.writeInt(index);
+                return;
+            }
+            // a new string is announced by the index it will take
+            out.writeInt(mIndexes.size());
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            mIndexes.put(s, mIndexes.size());
+        }
+    }
+
+    static class StringTableInput {
+        private final List<String> mStrings = new ArrayList<String>();
+
+        String read(DataInput in) throws IOException {
+            int index = in.readInt();
+            if (index == -1) {
+                return null;
+            } else if (index < mStrings.size() && index >= 0) {
+                return mStrings.get(index);
+            } else if (index == mStrings.size()) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                String s = new String(bytes, "UTF-8");
+                mStrings.add(s);
+                return s;
+            }
+            throw new IOException("Invalid string reference " + index);
+        }
+    }
+}
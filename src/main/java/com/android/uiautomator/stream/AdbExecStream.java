@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.stream;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Runs a command on a device through the adb server's exec service, the equivalent of
+ * {@code adb exec-out}, and gives access to its raw binary output.
+ *
+ * Unlike a shell command run through ddmlib, the output is neither passed through a pty
+ * nor split into strings, so large binary streams arrive untouched.
+ */
+public final class AdbExecStream {
+    private AdbExecStream() {
+    }
+
+    /**
+     * @return the command's output; closing it closes the connection, which ends the command
+     */
+    public static InputStream open(InetSocketAddress adb, String serial, String command)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(adb, 5000);
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            request(out, in, "host:transport:" + serial);
+            request(out, in, "exec:" + command);
+            return socket.getInputStream();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static void request(OutputStream out, DataInputStream in, String request)
+            throws IOException {
+        byte[] payload = request.getBytes("UTF-8");
+        out.write(String.format("%04x", payload.length).getBytes("US-ASCII"));
+        out.write(payload);
+        out.flush();
+
+        byte[] status = new byte[4];
+        in.readFully(status);
+        String reply = new String(status, "US-ASCII");
+        if (!"OKAY".equals(reply)) {
+            String message = reply;
+            if ("FAIL".equals(reply)) {
+                byte[] length = new byte[4];
+                in.readFully(length);
+                byte[] text = new byte[Integer.parseInt(new String(length, "US-ASCII"), 16)];
+                in.readFully(text);
+                message = new String(text, "UTF-8");
+            }
+            throw new IOException("adb rejected " + request + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.stream;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+
+/**
+ * Hand-off slot between a frame producer and the UI thread that never blocks either side.
+ *
+ * The producer decodes into a buffer from {@link #obtain}, then {@link #publish}es it.
+ * A published frame that the consumer has not taken yet is replaced, i.e. dropped, and its
+ * buffer reused, so the consumer always gets the most recent frame and at most two frame
+ * buffers plus the one being shown exist at any time.
+ */
+public class LatestFrame {
+    private ImageData mReady;
+    private long mReadyTimestamp;
+    private long mTakenTimestamp;
+    private ImageData mSpare;
+    private long mPublished;
+    private long mDropped;
+
+    /**
+     * @return a buffer of the given format, reused when possible
+     */
+    public synchronized ImageData obtain(int width, int height, int depth, int redMask,
+            int greenMask, int blueMask) {
+        ImageData spare = mSpare;
+        mSpare = null;
+        if (spare != null && spare.width == width && spare.height == height
+                && spare.depth == depth && spare.palette.redMask == redMask
+                && spare.palette.greenMask == greenMask
+                && spare.palette.blueMask == blueMask) {
+            return spare;
+        }
+        return new ImageData(width, height, depth,
+                new PaletteData(redMask, greenMask, blueMask));
+    }
+
+    /**
+     * Makes a frame available to the consumer.
+     *
+     * @param timestamp {@link System#nanoTime()} at which the frame started arriving
+     * @return true if this replaced a frame the consumer never took
+     */
+    public synchronized boolean publish(ImageData frame, long timestamp) {
+        boolean dropped = mReady != null;
+        if (dropped) {
+            mSpare = mReady;
+            mDropped++;
+        }
+        mReady = frame;
+        mReadyTimestamp = timestamp;
+        mPublished++;
+        return dropped;
+    }
+
+    /**
+     * @return the latest frame, or null if none arrived since the last call. The frame
+     * should be handed back with {@link #recycle} once it has been copied.
+     */
+    public synchronized ImageData take() {
+        ImageData frame = mReady;
+        if (frame != null) {
+            mTakenTimestamp = mReadyTimestamp;
+        }
+        mReady = null;
+        return frame;
+    }
+
+    /**
+     * @return arrival time of the frame last returned by {@link #take()}
+     */
+    public synchronized long getTakenTimestamp() {
+        return mTakenTimestamp;
+    }
+
+    public synchronized void recycle(ImageData frame) {
+        mSpare = frame;
+    }
+
+    public synchronized long getPublishedCount() {
+        return mPublished;
+    }
+
+    public synchronized long getDroppedCount() {
+        return mDropped;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.stream;
+
+import org.eclipse.swt.graphics.ImageData;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+
+/**
+ * Continuous stream of device frames, decoded on a background thread into a
+ * {@link LatestFrame}.
+ *
+ * A single {@code exec:} connection runs screencap in a loop on the device, so there is no
+ * per-frame adb round trip. Each raw frame is a little-endian header (width, height,
+ * format, plus the color space from API 28 on) followed by the pixels, which for the common
+ * RGBA/RGBX formats are read straight into the frame buffer. When the consumer falls
+ * behind, frames are dropped in {@link LatestFrame} and the device side blocks on the full
+ * socket, so no backlog builds up.
+ */
+public class ScreencapStream {
+    private static final String COMMAND = "while true; do screencap; done";   //$NON-NLS-1$
+
+    // android.graphics.PixelFormat values used by screencap
+    private static final int FORMAT_RGBA_8888 = 1;
+    private static final int FORMAT_RGBX_8888 = 2;
+    private static final int FORMAT_RGB_888 = 3;
+    private static final int FORMAT_RGB_565 = 4;
+
+    /**
+     * Told about new frames and about the end of the stream, on the decoding thread.
+     */
+    public interface Listener {
+        void onFrameAvailable();
+
+        /**
+         * @param error why the stream ended, or null if it was stopped
+         */
+        void onStreamEnded(IOException error);
+    }
+
+    private final InetSocketAddress mAdb;
+    private final String mSerial;
+    private final int mHeaderSize;
+    private final LatestFrame mFrames = new LatestFrame();
+    private volatile InputStream mInput;
+    private volatile boolean mStopped;
+
+    /**
+     * @param apiLevel device API level, which decides the frame header layout
+     */
+    public ScreencapStream(InetSocketAddress adb, String serial, int apiLevel) {
+        mAdb = adb;
+        mSerial = serial;
+        mHeaderSize = apiLevel >= 28 ? 16 : 12;
+    }
+
+    public LatestFrame getFrames() {
+        return mFrames;
+    }
+
+    public void start(final Listener listener) {
+        Thread reader = new Thread("screen-stream-" + mSerial) {
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    mInput = AdbExecStream.open(mAdb, mSerial, COMMAND);
+                    if (mStopped) {
+                        mInput.close();
+                    }
+                    decode(new DataInputStream(new BufferedInputStream(mInput, 256 * 1024)),
+                            listener);
+                } catch (IOException e) {
+                    error = e;
+                }
+                listener.onStreamEnded(mStopped ? null : error);
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    public void stop() {
+        mStopped = true;
+        InputStream input = mInput;
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                // closing is all that is wanted
+            }
+        }
+    }
+
+    private void decode(DataInputStream in, Listener listener) throws IOException {
+        byte[] header = new byte[mHeaderSize];
+        while (!mStopped) {
+            try {
+                in.readFully(header, 0, 1);
+            } catch (EOFException e) {
+                throw new IOException("screencap stream ended");
+            }
+            long timestamp = System.nanoTime();
+            in.readFully(header, 1, header.length - 1);
+            int width = readIntLE(header, 0);
+            int height = readIntLE(header, 4);
+            int format = readIntLE(header, 8);
+            if (width <= 0 || height <= 0 || width > 16384 || height > 16384) {
+                throw new IOException("Unexpected screencap frame " + width + "x" + height);
+            }
+
+            ImageData frame;
+            switch (format) {
+                case FORMAT_RGBA_8888:
+                case FORMAT_RGBX_8888:
+                    // bytes are R, G, B, A, i.e. big-endian 0xRRGGBBAA
+                    frame = mFrames.obtain(width, height, 32, 0xff000000, 0x00ff0000,
+                            0x0000ff00);
+                    in.readFully(frame.data, 0, width * height * 4);
+                    break;
+                case FORMAT_RGB_888:
+                    frame = mFrames.obtain(width, height, 24, 0xff0000, 0x00ff00, 0x0000ff);
+                    // screencap rows are packed, but ImageData pads each row to four
+                    // bytes, so rows are read one by one at bytesPerLine offsets
+                    for (int y = 0; y < height; y++) {
+                        in.readFully(frame.data, y * frame.bytesPerLine, width * 3);
+                    }
+                    break;
+                case FORMAT_RGB_565:
+                    frame = mFrames.obtain(width, height, 16, 0xf800, 0x07e0, 0x001f);
+                    readSwapped16(in, frame, width, height);
+                    break;
+                default:
+                    throw new IOException("Unsupported screencap pixel format " + format);
+            }
+            mFrames.publish(frame, timestamp);
+            listener.onFrameAvailable();
+        }
+    }
+
+    private static void readSwapped16(DataInputStream in, ImageData frame, int width,
+            int height) throws IOException {
+        // screencap writes little-endian pixels, SWT reads 16 bit pixels most significant
+        // byte first
+        byte[] row = new byte[width * 2];
+        for (int y = 0; y < height; y++) {
+            in.readFully(row);
+            int offset = y * frame.bytesPerLine;
+            for (int i = 0; i < row.length; i += 2) {
+                frame.data[offset + i] = row[i + 1];
+                frame.data[offset + i + 1] = row[i];
+            }
+        }
+    }
+
+    private static int readIntLE(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8
+                | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.tree;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides, per attribute name, how {@link UiHierarchyXmlLoader} stores node attributes.
+ *
+ * Batch workloads that only need a few fields can load with a narrow profile to cut the
+ * memory held by {@link UiNode} and the time spent building it.
+ */
+public class AttributeProfile {
+
+    /**
+     * System property used to pick the profile of {@link #getDefault()}, e.g.
+     * {@code -Duiautomatorviewer.attributeProfile=locator}.
+     */
+    public static final String PROFILE_PROPERTY = "uiautomatorviewer.attributeProfile";
+
+    public enum Policy {
+        /** keep the value as parsed */
+        KEEP,
+        /** keep the value, sharing one instance among all equal values of the load */
+        INTERN,
+        /** keep a prefix of long values, the full value is read back from the file on demand */
+        TRUNCATE,
+        /** do not store the attribute at all */
+        DROP
+    }
+
+    // attributes with few distinct values, worth sharing between nodes
+    private static final String[] LOW_CARDINALITY_ATTRIBUTES = {
+        "index", "class", "package", "checkable", "checked", "clickable", "enabled",
+        "focusable", "focused", "scrollable", "long-clickable", "password", "selected", "NAF"
+    };
+
+    /** keeps every attribute in full, sharing the values of low cardinality attributes */
+    public static final AttributeProfile FULL;
+
+    /** keeps what is needed to write locators: resource-id, class, text and bounds */
+    public static final AttributeProfile LOCATOR_AUTHORING;
+
+    static {
+        Map<String, Policy> full = new HashMap<String, Policy>();
+        for (String attribute : LOW_CARDINALITY_ATTRIBUTES) {
+            full.put(attribute, Policy.INTERN);
+        }
+        FULL = new AttributeProfile("full", Policy.KEEP, full, Integer.MAX_VALUE);
+
+        Map<String, Policy> locator = new HashMap<String, Policy>();
+        locator.put("resource-id", Policy.INTERN);
+        locator.put("class", Policy.INTERN);
+        locator.put("text", Policy.TRUNCATE);
+        locator.put("bounds", Policy.KEEP);
+        LOCATOR_AUTHORING = new AttributeProfile("locator", Policy.DROP, locator, 256);
+    }
+
+    private final String mName;
+    private final Policy mDefaultPolicy;
+    private final Map<String, Policy> mPolicies;
+    private final int mTruncateLength;
+
+    /**
+     * @param name
+     * @param defaultPolicy policy of the attributes not listed in policies
+     * @param policies policy per attribute name
+     * @param truncateLength number of characters kept by {@link Policy#TRUNCATE}
+     */
+    public AttributeProfile(String name, Policy defaultPolicy, Map<String, Policy> policies,
+            int truncateLength) {
+        mName = name;
+        mDefaultPolicy = defaultPolicy;
+        mPolicies = Collections.unmodifiableMap(new HashMap<String, Policy>(policies));
+        mTruncateLength = truncateLength;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public Policy getPolicy(String attribute) {
+        Policy policy = mPolicies.get(attribute);
+        return policy != null ? policy : mDefaultPolicy;
+    }
+
+    public int getTruncateLength() {
+        return mTruncateLength;
+    }
+
+    /**
+     * @return the built-in profile with the given name, or null if there is none
+     */
+    public static AttributeProfile forName(String name) {
+        for (AttributeProfile profile : Arrays.asList(FULL, LOCATOR_AUTHORING)) {
+            if (profile.getName().equals(name)) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the profile named by {@link #PROFILE_PROPERTY}, {@link #FULL} if unset
+     */
+    public static AttributeProfile getDefault() {
+        String name = System.getProperty(PROFILE_PROPERTY);
+        if (name != null) {
+            AttributeProfile profile = forName(name);
+            if (profile != null) {
+                return profile;
+            }
+            System.err.println("Unknown attribute profile: " + name);
+        }
+        return FULL;
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
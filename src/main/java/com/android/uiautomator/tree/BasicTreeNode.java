@@ -17,6 +17,7 @@
 package com.android.uiautomator.tree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -34,6 +35,9 @@ public class BasicTreeNode {
     // RootWindowNode has no bounds, but UiNodes should
     protected boolean mHasBounds = false;
 
+    // position in the NodeIndex of the hierarchy, -1 until the hierarchy is indexed
+    private int mNodeId = -1;
+
     public void addChild(BasicTreeNode child) {
         if (child == null) {
             throw new NullPointerException("Cannot add null child");
@@ -45,6 +49,38 @@ public class BasicTreeNode {
         child.mParent = this;
     }
 
+    /**
+     * Records the parent of a node without adding it to the parent's children yet.
+     *
+     * Used by progressive loading: the parser records the parent on its own thread, and
+     * the node is linked in by {@link #attachToParent()} on the thread that owns the tree.
+     */
+    void setPendingParent(BasicTreeNode parent) {
+        mParent = parent;
+    }
+
+    /**
+     * Adds this node to the children of the parent recorded while it was being loaded.
+     * Only touches the parent's children, as the parser may still read the parent links.
+     */
+    public void attachToParent() {
+        if (mParent != null) {
+            mParent.mChildren.add(this);
+        }
+    }
+
+    /**
+     * @return the id assigned by the {@link NodeIndex} of the hierarchy, or -1 if the
+     * hierarchy has not been indexed
+     */
+    public int getNodeId() {
+        return mNodeId;
+    }
+
+    void setNodeId(int id) {
+        mNodeId = id;
+    }
+
     public List<BasicTreeNode> getChildrenList() {
         return Collections.unmodifiableList(mChildren);
     }
@@ -66,10 +102,20 @@ public class BasicTreeNode {
     }
 
     public void clearAllChildren() {
-        for (BasicTreeNode child : mChildren) {
-            child.clearAllChildren();
-        }
-        mChildren.clear();
+        TreeWalker.walk(this, new NodeVisitor() {
+            @Override
+            public Action postVisit(BasicTreeNode node, int depth) {
+                node.mChildren.clear();
+                return Action.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return whether the node has bounds and they contain the point, edges included
+     */
+    public boolean containsPoint(int px, int py) {
+        return mHasBounds && x <= px && px <= x + width && y <= py && py <= y + height;
     }
 
     /**
@@ -85,22 +131,37 @@ public class BasicTreeNode {
      * @return
      */
     public boolean findLeafMostNodesAtPoint(int px, int py, IFindNodeListener listener) {
-        boolean foundInChild = false;
-        for (BasicTreeNode node : mChildren) {
-            foundInChild |= node.findLeafMostNodesAtPoint(px, py, listener);
+        HitTestVisitor visitor = new HitTestVisitor(px, py, listener);
+        TreeWalker.walk(this, visitor);
+        return visitor.mFound[0];
+    }
+
+    private static class HitTestVisitor extends NodeVisitor {
+        private final int mX, mY;
+        private final IFindNodeListener mListener;
+        // whether a node at each depth of the current path, or a descendant, covers the point
+        boolean[] mFound = new boolean[32];
+
+        HitTestVisitor(int x, int y, IFindNodeListener listener) {
+            mX = x;
+            mY = y;
+            mListener = listener;
         }
-        // checked all children, if at least one child covers the point, return directly
-        if (foundInChild) return true;
-        // check self if the node has no children, or no child nodes covers the point
-        if (mHasBounds) {
-            if (x <= px && px <= x + width && y <= py && py <= y + height) {
-                listener.onFoundNode(this);
-                return true;
-            } else {
-                return false;
+
+        @Override
+        public Action postVisit(BasicTreeNode node, int depth) {
+            if (depth + 2 > mFound.length) {
+                mFound = Arrays.copyOf(mFound, (depth + 2) * 2);
+            }
+            boolean found = mFound[depth + 1];
+            mFound[depth + 1] = false;
+            // check self if the node has no children, or no child nodes covers the point
+            if (!found && node.containsPoint(mX, mY)) {
+                mListener.onFoundNode(node);
+                found = true;
             }
-        } else {
-            return false;
+            mFound[depth] |= found;
+            return Action.CONTINUE;
         }
     }
 
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.tree;
+
+/**
+ * A whole-tree computation that {@link TreeWalker#walkParallel(BasicTreeNode, INodeAnalysis)}
+ * can split across threads.
+ *
+ * Every part of the tree is visited into its own result, in pre-order, and the results of
+ * neighbouring parts are merged, earlier part first. {@link #visit(BasicTreeNode, Object)}
+ * may be called on several threads at once, but never twice with the same result.
+ */
+public interface INodeAnalysis<R> {
+
+    /**
+     * @return an empty result
+     */
+    R newResult();
+
+    void visit(BasicTreeNode node, R result);
+
+    /**
+     * @return the combination of two results, the first covering nodes that come before
+     * those of the second in pre-order
+     */
+    R merge(R first, R second);
+}
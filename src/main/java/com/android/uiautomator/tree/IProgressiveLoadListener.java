@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.tree;
+
+import java.util.List;
+
+/**
+ * Receives a hierarchy from {@link UiHierarchyXmlLoader} while it is still being parsed.
+ *
+ * Both callbacks are invoked on the parsing thread. Nodes are delivered through
+ * {@link #onNodesLoaded(List)} as soon as their start tag is read, with all their
+ * attributes, but they are not yet attached to their parents: the receiver is expected to
+ * call {@link BasicTreeNode#attachToParent()} on each of them, in the order given, on
+ * whatever thread owns the tree. The parser never touches the children of delivered nodes.
+ */
+public interface IProgressiveLoadListener {
+
+    /**
+     * Called once, as soon as the "hierarchy" element has been read.
+     * @param root the root node, without any children yet
+     */
+    void onRootLoaded(BasicTreeNode root);
+
+    /**
+     * Called with a batch of nodes in pre-order, i.e. a node always comes after its parent,
+     * whose own children may still follow in later batches.
+     * @param nodes the started nodes, owned by the receiver from now on
+     */
+    void onNodesLoaded(List<BasicTreeNode> nodes);
+}
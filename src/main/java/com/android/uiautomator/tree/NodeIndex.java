@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.tree;
+
+import org.eclipse.jface.viewers.TreePath;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Numbers the nodes of a complete hierarchy and remembers each node's parent and depth, so
+ * that the path from the root to any node is known without searching the tree.
+ *
+ * Ids are assigned in pre-order starting with 0 for the root, and stored in the nodes
+ * themselves; see {@link BasicTreeNode#getNodeId()}.
+ */
+public class NodeIndex {
+    private final BasicTreeNode[] mNodes;
+    // id of the parent of each node, -1 for the root
+    private final int[] mParentIds;
+    private final int[] mDepths;
+    // one past the id of the last descendant of each node
+    private final int[] mSubtreeEnds;
+
+    public NodeIndex(BasicTreeNode root) {
+        final List<BasicTreeNode> nodes = new ArrayList<BasicTreeNode>();
+        TreeWalker.walk(root, new NodeVisitor() {
+            @Override
+            public Action preVisit(BasicTreeNode node, int depth) {
+                node.setNodeId(nodes.size());
+                nodes.add(node);
+                return Action.CONTINUE;
+            }
+        });
+        mNodes = nodes.toArray(new BasicTreeNode[nodes.size()]);
+        mParentIds = new int[mNodes.length];
+        mDepths = new int[mNodes.length];
+        // parents come before their children in pre-order
+        for (int i = 0; i < mNodes.length; i++) {
+            BasicTreeNode parent = i == 0 ? null : mNodes[i].getParent();
+            mParentIds[i] = parent == null ? -1 : parent.getNodeId();
+            mDepths[i] = parent == null ? 0 : mDepths[mParentIds[i]] + 1;
+        }
+        // a subtree ends where the subtree of its last child ends
+        mSubtreeEnds = new int[mNodes.length];
+        for (int i = mNodes.length - 1; i >= 0; i--) {
+            mSubtreeEnds[i] = Math.max(mSubtreeEnds[i], i + 1);
+            int parent = mParentIds[i];
+            if (parent >= 0) {
+                mSubtreeEnds[parent] = Math.max(mSubtreeEnds[parent], mSubtreeEnds[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return mNodes.length;
+    }
+
+    /**
+     * @return all nodes, in pre-order, i.e. by id
+     */
+    public List<BasicTreeNode> getNodes() {
+        return Collections.unmodifiableList(Arrays.asList(mNodes));
+    }
+
+    public BasicTreeNode getNode(int id) {
+        return mNodes[id];
+    }
+
+    /**
+     * @return the id of the node's parent, or -1 for the root
+     */
+    public int getParentId(int id) {
+        return mParentIds[id];
+    }
+
+    public int getDepth(int id) {
+        return mDepths[id];
+    }
+
+    /**
+     * Returns where the subtree of a node ends: the ids of the node and of all its
+     * descendants are those from id to the returned value, exclusive.
+     */
+    public int getSubtreeEnd(int id) {
+        return mSubtreeEnds[id];
+    }
+
+    /**
+     * Returns whether a node is a proper ancestor of another, in O(1): the descendants of a
+     * node are exactly the nodes numbered after it and before its subtree end.
+     *
+     * @param ancestor a node of this index
+     * @param node a node of this index
+     */
+    public boolean isAncestor(BasicTreeNode ancestor, BasicTreeNode node) {
+        int id = node.getNodeId();
+        int ancestorId = ancestor.getNodeId();
+        return ancestorId < id && id < mSubtreeEnds[ancestorId];
+    }
+
+    /**
+     * Returns whether the node was numbered by this index, as opposed to another hierarchy
+     * or one that changed since.
+     */
+    public boolean contains(BasicTreeNode node) {
+        int id = node.getNodeId();
+        return id >= 0 && id < mNodes.length && mNodes[id] == node;
+    }
+
+    /**
+     * Returns the path from the root down to the node, in O(depth).
+     *
+     * @param node a node of this index
+     * @return the nodes from the root to the node, both included
+     */
+    public TreePath getTreePath(BasicTreeNode node) {
+        int id = node.getNodeId();
+        Object[] segments = new Object[mDepths[id] + 1];
+        for (int i = segments.length - 1; i >= 0; i--) {
+            segments[i] = mNodes[id];
+            id = mParentIds[id];
+        }
+        return new TreePath(segments);
+    }
+}
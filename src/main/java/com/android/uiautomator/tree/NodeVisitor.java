@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.tree;
+
+/**
+ * Callbacks of a {@link TreeWalker} traversal. Both methods do nothing by default.
+ */
+public abstract class NodeVisitor {
+
+    public enum Action {
+        /** go on with the traversal */
+        CONTINUE,
+        /** do not visit the descendants of this node, only meaningful from preVisit */
+        SKIP_CHILDREN,
+        /** end the traversal right away */
+        STOP
+    }
+
+    /**
+     * Called before the descendants of a node are visited.
+     *
+     * @param node
+     * @param depth 0 for the node the traversal started at
+     */
+    public Action preVisit(BasicTreeNode node, int depth) {
+        return Action.CONTINUE;
+    }
+
+    /**
+     * Called after the descendants of a node have been visited, or skipped. Not called for
+     * a node whose preVisit returned {@link Action#STOP}.
+     *
+     * @param node
+     * @param depth 0 for the node the traversal started at
+     */
+    public Action postVisit(BasicTreeNode node, int depth) {
+        return Action.CONTINUE;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.tree;
+
+import com.android.uiautomator.tree.NodeVisitor.Action;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Iterative traversals of {@link BasicTreeNode} hierarchies.
+ *
+ * The walks keep their own stack, so a hierarchy of any depth can be traversed without a
+ * {@link StackOverflowError}, and they allocate nothing per node.
+ */
+public class TreeWalker {
+    // initial capacity of the traversal stack, dumps are rarely deeper
+    private static final int INITIAL_DEPTH = 32;
+    // fork only while few forked tasks are waiting to be stolen
+    private static final int MAX_SURPLUS_TASKS = 3;
+    // nesting of splits, each of which costs a frame of the Java stack
+    private static final int MAX_SPLITS = 64;
+
+    private TreeWalker() {
+    }
+
+    /**
+     * Visits a hierarchy depth first, calling {@link NodeVisitor#preVisit} on a node before
+     * its children and {@link NodeVisitor#postVisit} after them.
+     *
+     * @param root
+     * @param visitor
+     * @return false if the visitor stopped the traversal
+     */
+    public static boolean walk(BasicTreeNode root, NodeVisitor visitor) {
+        Action action = visitor.preVisit(root, 0);
+        if (action == Action.STOP) {
+            return false;
+        }
+        if (action == Action.SKIP_CHILDREN) {
+            return visitor.postVisit(root, 0) != Action.STOP;
+        }
+        BasicTreeNode[] nodes = new BasicTreeNode[INITIAL_DEPTH];
+        // index of the next child to visit of each node on the stack
+        int[] next = new int[INITIAL_DEPTH];
+        nodes[0] = root;
+        int size = 1;
+        while (size > 0) {
+            int depth = size - 1;
+            BasicTreeNode node = nodes[depth];
+            List<BasicTreeNode> children = node.mChildren;
+            if (next[depth] < children.size()) {
+                BasicTreeNode child = children.get(next[depth]++);
+                action = visitor.preVisit(child, depth + 1);
+                if (action == Action.STOP) {
+                    return false;
+                }
+                if (action == Action.SKIP_CHILDREN) {
+                    if (visitor.postVisit(child, depth + 1) == Action.STOP) {
+                        return false;
+                    }
+                    continue;
+                }
+                if (size == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    next = Arrays.copyOf(next, size * 2);
+                }
+                nodes[size] = child;
+                next[size] = 0;
+                size++;
+            } else {
+                nodes[depth] = null;
+                size--;
+                if (visitor.postVisit(node, depth) == Action.STOP) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs an analysis over a whole hierarchy on the common fork/join pool. Sibling subtrees
+     * are split off as long as there are idle workers, and visited sequentially otherwise.
+     *
+     * @return the merged result, covering every node in pre-order
+     */
+    public static <R> R walkParallel(BasicTreeNode root, INodeAnalysis<R> analysis) {
+        R result = analysis.newResult();
+        analysis.visit(root, result);
+        if (!root.hasChild()) {
+            return result;
+        }
+        R children = ForkJoinPool.commonPool().invoke(
+                new AnalysisTask<R>(analysis, root.mChildren, 0, root.mChildren.size(), 0));
+        return analysis.merge(result, children);
+    }
+
+    /**
+     * Analyses the subtrees of a range of siblings.
+     */
+    private static class AnalysisTask<R> extends RecursiveTask<R> {
+        private static final long serialVersionUID = 1L;
+
+        private final INodeAnalysis<R> mAnalysis;
+        private final List<BasicTreeNode> mSiblings;
+        private final int mFrom, mTo;
+        private final int mSplits;
+
+        AnalysisTask(INodeAnalysis<R> analysis, List<BasicTreeNode> siblings, int from,
+                int to, int splits) {
+            mAnalysis = analysis;
+            mSiblings = siblings;
+            mFrom = from;
+            mTo = to;
+            mSplits = splits;
+        }
+
+        @Override
+        protected R compute() {
+            R result = mAnalysis.newResult();
+            List<BasicTreeNode> siblings = mSiblings;
+            int from = mFrom, to = mTo;
+            // go down chains of only children without splitting
+            while (to - from == 1) {
+                BasicTreeNode node = siblings.get(from);
+                mAnalysis.visit(node, result);
+                siblings = node.mChildren;
+                from = 0;
+                to = siblings.size();
+            }
+            if (to - from >= 2 && canSplit()) {
+                int middle = (from + to) >>> 1;
+                AnalysisTask<R> first =
+                        new AnalysisTask<R>(mAnalysis, siblings, from, middle, mSplits + 1);
+                AnalysisTask<R> second =
+                        new AnalysisTask<R>(mAnalysis, siblings, middle, to, mSplits + 1);
+                first.fork();
+                R secondResult = second.compute();
+                R firstResult = first.join();
+                return mAnalysis.merge(result,
+                        mAnalysis.merge(firstResult, secondResult));
+            }
+            final R sequential = result;
+            NodeVisitor visitor = new NodeVisitor() {
+                @Override
+                public Action preVisit(BasicTreeNode node, int depth) {
+                    mAnalysis.visit(node, sequential);
+                    return Action.CONTINUE;
+                }
+            };
+            for (int i = from; i < to; i++) {
+                walk(siblings.get(i), visitor);
+            }
+            return result;
+        }
+
+        private boolean canSplit() {
+            return mSplits < MAX_SPLITS && getSurplusQueuedTaskCount() < MAX_SURPLUS_TASKS;
+        }
+    }
+}
@@ -16,6 +16,9 @@
 
 package com.android.uiautomator.tree;
 
+import com.android.uiautomator.jfr.FlightRecorderSupport;
+import com.android.uiautomator.jfr.HierarchyParseEvent;
+
 import org.eclipse.swt.graphics.Rectangle;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -25,7 +28,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -33,18 +38,52 @@ import javax.xml.parsers.SAXParserFactory;
 
 public class UiHierarchyXmlLoader {
 
+    // number of started nodes handed to a progressive listener at a time
+    private static final int PROGRESSIVE_BATCH_SIZE = 500;
+
     private BasicTreeNode mRootNode;
     private List<Rectangle> mNafNodes;
     private List<BasicTreeNode> mNodeList;
+    private AttributeProfile mProfile = AttributeProfile.getDefault();
+
     public UiHierarchyXmlLoader() {
     }
 
+    /**
+     * Sets which attributes are stored, and how, by the following parses.
+     * @param profile
+     */
+    public void setAttributeProfile(AttributeProfile profile) {
+        mProfile = profile;
+    }
+
+    public AttributeProfile getAttributeProfile() {
+        return mProfile;
+    }
+
     /**
      * Uses a SAX parser to process XML dump
      * @param xmlPath
      * @return
      */
     public BasicTreeNode parseXml(String xmlPath) {
+        return parseXml(xmlPath, null);
+    }
+
+    /**
+     * Uses a SAX parser to process XML dump, optionally publishing completed subtrees to
+     * the listener while parsing is still in progress.
+     *
+     * When a listener is given, nodes are not attached to their parents by the parser but
+     * handed over in document order as soon as their start tag is read, so the top of the
+     * hierarchy arrives first; see {@link IProgressiveLoadListener} for the hand-off
+     * contract.
+     *
+     * @param xmlPath
+     * @param listener receives the tree progressively, or null to build it in one go
+     * @return the root node, or null if the file could not be parsed
+     */
+    public BasicTreeNode parseXml(String xmlPath, final IProgressiveLoadListener listener) {
         mRootNode = null;
         mNafNodes = new ArrayList<Rectangle>();
         mNodeList = new ArrayList<BasicTreeNode>();
@@ -63,9 +102,15 @@ public class UiHierarchyXmlLoader {
         // handler class for SAX parser to receiver standard parsing events:
         // e.g. on reading "<foo>", startElement is called, on reading "</foo>",
         // endElement is called
+        final AttributeProfile profile = mProfile;
+        final XmlAttributeSource source = new XmlAttributeSource(new File(xmlPath));
         DefaultHandler handler = new DefaultHandler(){
+            // shared instances of attribute names and of INTERN values, for this parse only
+            Map<String, String> mStringPool = new HashMap<String, String>();
+            int mNodeOrdinal = 0;
             BasicTreeNode mParentNode;
             BasicTreeNode mWorkingNode;
+            List<BasicTreeNode> mStartedNodes = new ArrayList<BasicTreeNode>();
             @Override
             public void startElement(String uri, String localName, String qName,
                     Attributes attributes) throws SAXException {
@@ -89,12 +134,14 @@ public class UiHierarchyXmlLoader {
                 } else if ("node".equals(qName)) {
                     UiNode tmpNode = new UiNode();
                     for (int i = 0; i < attributes.getLength(); i++) {
-                        tmpNode.addAtrribute(attributes.getQName(i), attributes.getValue(i));
+                        addAttribute(tmpNode, attributes.getQName(i), attributes.getValue(i));
                     }
+                    mNodeOrdinal++;
                     mWorkingNode = tmpNode;
                     nodeCreated = true;
-                    // check if current node is NAF
-                    String naf = tmpNode.getAttribute("NAF");
+                    // check if current node is NAF, from the source since the profile
+                    // may have dropped the attribute
+                    String naf = attributes.getValue("NAF");
                     if ("true".equals(naf)) {
                         mNafNodes.add(new Rectangle(tmpNode.x, tmpNode.y,
                                 tmpNode.width, tmpNode.height));
@@ -106,9 +153,22 @@ public class UiHierarchyXmlLoader {
                     if (mRootNode == null) {
                         // this will only happen once
                         mRootNode = mWorkingNode;
+                        if (listener != null) {
+                            listener.onRootLoaded(mRootNode);
+                        }
                     }
                     if (mParentNode != null) {
-                        mParentNode.addChild(mWorkingNode);
+                        if (listener != null) {
+                            // the parent may already be visible to the listener, which
+                            // links the child in on its own thread
+                            mWorkingNode.setPendingParent(mParentNode);
+                            mStartedNodes.add(mWorkingNode);
+                            if (mStartedNodes.size() >= PROGRESSIVE_BATCH_SIZE) {
+                                flushStartedNodes();
+                            }
+                        } else {
+                            mParentNode.addChild(mWorkingNode);
+                        }
                         mNodeList.add(mWorkingNode);
                     }
                 }
@@ -125,7 +185,51 @@ public class UiHierarchyXmlLoader {
                     mParentNode = mParentNode.getParent();
                 }
             }
+
+            private void addAttribute(UiNode node, String key, String value) {
+                AttributeProfile.Policy policy = profile.getPolicy(key);
+                if (policy == AttributeProfile.Policy.DROP) {
+                    return;
+                }
+                key = pool(key);
+                if (policy == AttributeProfile.Policy.INTERN) {
+                    node.addAtrribute(key, pool(value));
+                } else if (policy == AttributeProfile.Policy.TRUNCATE
+                        && value.length() > profile.getTruncateLength()) {
+                    node.addTruncatedAttribute(key,
+                            value.substring(0, profile.getTruncateLength()), source,
+                            mNodeOrdinal);
+                } else {
+                    node.addAtrribute(key, value);
+                }
+            }
+
+            private String pool(String s) {
+                String pooled = mStringPool.get(s);
+                if (pooled == null) {
+                    mStringPool.put(s, s);
+                    pooled = s;
+                }
+                return pooled;
+            }
+
+            @Override
+            public void endDocument() throws SAXException {
+                flushStartedNodes();
+            }
+
+            private void flushStartedNodes() {
+                if (listener != null && !mStartedNodes.isEmpty()) {
+                    listener.onNodesLoaded(mStartedNodes);
+                    mStartedNodes = new ArrayList<BasicTreeNode>();
+                }
+            }
         };
+        HierarchyParseEvent event = null;
+        if (FlightRecorderSupport.isAvailable()) {
+            event = new HierarchyParseEvent();
+            event.begin();
+        }
         try {
             parser.parse(new File(xmlPath), handler);
         } catch (SAXException e) {
@@ -135,6 +239,12 @@ public class UiHierarchyXmlLoader {
             e.printStackTrace();
             return null;
         }
+        if (event != null) {
+            event.path = xmlPath;
+            event.bytes = new File(xmlPath).length();
+            event.nodeCount = mNodeList.size();
+            event.commit();
+        }
         return mRootNode;
     }
 
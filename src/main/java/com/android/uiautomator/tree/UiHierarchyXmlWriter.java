@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.uiautomator.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes a hierarchy in the format of a uiautomator dump, so that trees which were never
+ * backed by a file, e.g. frames of a recorded session, can be saved and loaded again by
+ * {@link UiHierarchyXmlLoader}.
+ */
+public class UiHierarchyXmlWriter {
+    private UiHierarchyXmlWriter() {
+    }
+
+    /**
+     * @param root a {@link RootWindowNode} as built by the loader, or any node, which is
+     * then written below a hierarchy element of its own
+     */
+    public static void write(BasicTreeNode root, File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance()
+                    .createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("hierarchy");
+            if (root instanceof RootWindowNode) {
+                RootWindowNode window = (RootWindowNode) root;
+                xml.writeAttribute("rotation", String.valueOf(window.getRotation()));
+                if (window.toString() != null) {
+                    xml.writeAttribute("windowName", window.toString());
+                }
+                for (BasicTreeNode child : root.getChildrenList()) {
+                    writeNodes(xml, child);
+                }
+            } else {
+                xml.writeAttribute("rotation", "0");
+                writeNodes(xml, root);
+            }
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes a subtree iteratively, so that hierarchies of any depth can be written.
+     */
+    private static void writeNodes(final XMLStreamWriter xml, BasicTreeNode subtree)
+            throws XMLStreamException {
+        final XMLStreamException[] error = new XMLStreamException[1];
+        TreeWalker.walk(subtree, new NodeVisitor() {
+            @Override
+            public Action preVisit(BasicTreeNode node, int depth) {
+                try {
+                    xml.writeStartElement("node");
+                    if (node instanceof UiNode) {
+                        for (Map.Entry<String, String> entry
+                                : ((UiNode) node).getAttributes().entrySet()) {
+                            if (entry.getValue() != null) {
+                                xml.writeAttribute(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+                    return Action.CONTINUE;
+                } catch (XMLStreamException e) {
+                    error[0] = e;
+                    return Action.STOP;
+                }
+            }
+
+            @Override
+            public Action postVisit(BasicTreeNode node, int depth) {
+                try {
+                    xml.writeEndElement();
+                    return Action.CONTINUE;
+                } catch (XMLStreamException e) {
+                    error[0] = e;
+                    return Action.STOP;
+                }
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+}
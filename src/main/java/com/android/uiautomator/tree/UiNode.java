@@ -17,8 +17,10 @@
 package com.android.uiautomator.tree;
 
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -27,48 +29,94 @@ public class UiNode extends BasicTreeNode {
             .compile("\\[-?(\\d+),-?(\\d+)\\]\\[-?(\\d+),-?(\\d+)\\]");
     // use LinkedHashMap to preserve the order of the attributes
     private final Map<String, String> mAttributes = new LinkedHashMap<String, String>();
-    private String mDisplayName = "ShouldNotSeeMe";
+    // built on first use, so that it is not rebuilt for every attribute added
+    private String mDisplayName;
     private Object[] mCachedAttributesArray;
 
+    // where truncated attribute values can be read back from, see AttributeProfile
+    private XmlAttributeSource mAttributeSource;
+    private int mNodeOrdinal;
+    private Set<String> mTruncatedKeys;
+
     public void addAtrribute(String key, String value) {
         mAttributes.put(key, value);
-        updateDisplayName();
+        mDisplayName = null;
         if ("bounds".equals(key)) {
             updateBounds(value);
         }
     }
 
+    /**
+     * Adds an attribute whose value was cut short at load time.
+     *
+     * @param key
+     * @param prefix the part of the value that is kept
+     * @param source file the full value can be read back from
+     * @param nodeOrdinal position of this node in the file, in document order
+     */
+    void addTruncatedAttribute(String key, String prefix, XmlAttributeSource source,
+            int nodeOrdinal) {
+        addAtrribute(key, prefix + "...");
+        if (mTruncatedKeys == null) {
+            mTruncatedKeys = new HashSet<String>();
+        }
+        mTruncatedKeys.add(key);
+        mAttributeSource = source;
+        mNodeOrdinal = nodeOrdinal;
+    }
+
+    public boolean isTruncated(String key) {
+        return mTruncatedKeys != null && mTruncatedKeys.contains(key);
+    }
+
+    /**
+     * Same as {@link #getAttribute(String)}, but reads truncated values back from the dump
+     * file. This re-parses the file, so it is meant for single lookups such as showing the
+     * value to the user.
+     */
+    public String getFullAttribute(String key) {
+        if (isTruncated(key)) {
+            String value = mAttributeSource.fetch(mNodeOrdinal, key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return getAttribute(key);
+    }
+
     public Map<String, String> getAttributes() {
         return Collections.unmodifiableMap(mAttributes);
     }
 
     /**
      * Builds the display name based on attributes of the node
+     *
+     * Attributes dropped by the {@link AttributeProfile} are left out of the name.
      */
-    private void updateDisplayName() {
+    private String buildDisplayName() {
         String className = mAttributes.get("class");
         if (className == null)
-            return;
+            return "ShouldNotSeeMe";
         String text = mAttributes.get("text");
         if (text == null)
-            return;
+            text = "";
         String contentDescription = mAttributes.get("content-desc");
         if (contentDescription == null)
-            return;
+            contentDescription = "";
         String index = mAttributes.get("index");
-        if (index == null)
-            return;
         String bounds = mAttributes.get("bounds");
         if (bounds == null) {
-            return;
+            return "ShouldNotSeeMe";
         }
         // shorten the standard class names, otherwise it takes up too much space on UI
         className = className.replace("android.widget.", "");
         className = className.replace("android.view.", "");
         StringBuilder builder = new StringBuilder();
-        builder.append('(');
-        builder.append(index);
-        builder.append(") ");
+        if (index != null) {
+            builder.append('(');
+            builder.append(index);
+            builder.append(") ");
+        }
         builder.append(className);
         if (!text.isEmpty()) {
             builder.append(':');
@@ -81,7 +129,7 @@ public class UiNode extends BasicTreeNode {
         }
         builder.append(' ');
         builder.append(bounds);
-        mDisplayName = builder.toString();
+        return builder.toString();
     }
 
     private void updateBounds(String bounds) {
@@ -99,6 +147,9 @@ public class UiNode extends BasicTreeNode {
 
     @Override
     public String toString() {
+        if (mDisplayName == null) {
+            mDisplayName = buildDisplayName();
+        }
         return mDisplayName;
     }
 
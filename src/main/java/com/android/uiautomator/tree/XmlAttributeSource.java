@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.uiautomator.tree;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.File;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reads single attribute values back from a dump file, for values that were truncated at
+ * load time by an {@link AttributeProfile}.
+ *
+ * Nodes are identified by their position in document order, counting "node" elements only.
+ */
+public class XmlAttributeSource {
+    private final File mFile;
+
+    public XmlAttributeSource(File file) {
+        mFile = file;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Scans the file up to the given node and returns one of its attributes.
+     *
+     * @param nodeOrdinal position of the node in document order, starting at 0
+     * @param key attribute name
+     * @return the value, or null if the file changed or could not be read
+     */
+    public String fetch(final int nodeOrdinal, final String key) {
+        // thrown to stop the parser as soon as the node was seen
+        @SuppressWarnings("serial")
+        class FoundException extends SAXException {
+            final String mValue;
+
+            FoundException(String value) {
+                mValue = value;
+            }
+        }
+
+        DefaultHandler handler = new DefaultHandler() {
+            int mOrdinal = 0;
+
+            @Override
+            public void startElement(String uri, String localName, String qName,
+                    Attributes attributes) throws SAXException {
+                if ("node".equals(qName)) {
+                    if (mOrdinal == nodeOrdinal) {
+                        throw new FoundException(attributes.getValue(key));
+                    }
+                    mOrdinal++;
+                }
+            }
+        };
+        try {
+            SAXParser parser = SAXParserFactory.newInstance().newSAXParser();
+            parser.parse(mFile, handler);
+        } catch (FoundException e) {
+            return e.mValue;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+}